@@ -1,13 +1,399 @@
+import compiler.BatchCompiler;
+import compiler.CompileCache;
+import compiler.CompileClient;
+import compiler.CompileDaemon;
+import compiler.CompilerSession;
+import compiler.FileCompiler;
+import compiler.WatchCompiler;
+import ir.Ir;
+import ir.IrStarter;
+import jvm.JvmStarter;
+import parser.ParseResult;
 import parser.ParserStarter;
+import vm.VmStarter;
+import word.TokenPipe;
+import word.TokenStream;
 import word.WordAnalyzerStarter;
 
+import java.io.IOException;
+import java.net.ConnectException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
 public class SimpleCompiler {
+    private static final String USAGE = "usage: java < -jar <jar_filename> >|SimpleCompiler [--no-dyd|--dyd=text|binary] [--stats] [--context] [--no-error-echo] [--max-errors=N] [--ast] [--ir] [--optimize] [--run[=N] [--tiered[=THRESHOLD]]|--jvm[=N]|--bench[=N]] [--input=mapped|scanner] [--parallel-lex[=N]|--pipeline] [--cache[=DIR]] [--cache-size=MB] <filePath>\n"
+            + "       java SimpleCompiler --batch [--jobs=N] [--max-errors=N] [--no-error-echo] [--cache[=DIR]] [--cache-size=MB] <目录|glob|filePath>...\n"
+            + "       java SimpleCompiler --watch [--max-errors=N] [--no-error-echo] <目录|glob|filePath>...\n"
+            + "       java SimpleCompiler --daemon [--port=N] [--idle-timeout=S] [--jobs=N] [--cache[=DIR]] [--cache-size=MB]\n"
+            + "       java SimpleCompiler --connect [--port=N] [--no-dyd|--dyd=text|binary] [--no-error-echo] [--max-errors=N] [--ast] <filePath>\n"
+            + "       java SimpleCompiler --stop-daemon [--port=N]";
+
+    // 编译单个文件时的模式名
+    private static final String SINGLE = "";
+    // 各模式可以使用的选项(按"="之前的部分)
+    private static final Map<String, Set<String>> MODE_OPTIONS = new HashMap<>();
+    // 编译单个文件时，每组的第一个选项不能与组内其他选项同时使用
+    private static final String[][] CONFLICTS = {
+            {"--pipeline", "--parallel-lex", "--stats", "--ir", "--optimize", "--run", "--tiered", "--jvm", "--bench",
+                    "--cache"},
+            {"--cache", "--input", "--parallel-lex", "--stats", "--context", "--ir", "--optimize", "--run", "--tiered",
+                    "--jvm", "--bench"},
+            // 都从标准输入读取，只能选一种运行方式
+            {"--run", "--jvm", "--bench"},
+            {"--tiered", "--jvm", "--bench"},
+            {"--jvm", "--bench"}
+    };
+
+    static {
+        allow("--daemon", "--port", "--idle-timeout", "--jobs", "--cache", "--cache-size");
+        allow("--connect", "--port", "--no-dyd", "--dyd", "--no-error-echo", "--max-errors", "--ast");
+        allow("--stop-daemon", "--port");
+        allow("--batch", "--jobs", "--max-errors", "--no-error-echo", "--cache", "--cache-size");
+        allow("--watch", "--max-errors", "--no-error-echo");
+        allow(SINGLE, "--no-dyd", "--dyd", "--stats", "--context", "--no-error-echo", "--max-errors", "--ast", "--ir",
+                "--optimize", "--run", "--tiered", "--jvm", "--bench", "--input", "--parallel-lex", "--pipeline",
+                "--cache", "--cache-size");
+    }
+
+    private static void allow(String mode, String... options) {
+        MODE_OPTIONS.put(mode, new HashSet<>(Arrays.asList(options)));
+    }
+
     public static void main(String[] args) {
-        if (args.length != 1) {
-            System.err.println("usage: java < -jar <jar_filename> >|SimpleCompiler <filePath>");
+        int dydFormat = WordAnalyzerStarter.DYD_TEXT;
+        boolean stats = false;
+        boolean showErrorContext = false;
+        boolean echoErrors = true;
+        int maxErrors = ParserStarter.DEFAULT_MAX_ERRORS;
+        int inputMode = WordAnalyzerStarter.INPUT_AUTO;
+        int lexThreads = 1;
+        boolean pipeline = false;
+        boolean writeAst = false;
+        boolean writeIr = false;
+        boolean optimize = false;
+        int runs = 0;
+        int jvmRuns = 0;
+        int benchRuns = 0;
+        int tierThreshold = 0;
+        boolean batch = false;
+        boolean watch = false;
+        int jobs = Runtime.getRuntime().availableProcessors();
+        List<String> paths = new ArrayList<>();
+        String cacheDir = null;
+        long cacheBytes = CompileCache.DEFAULT_MAX_BYTES;
+        boolean daemon = false;
+        boolean connect = false;
+        boolean stopDaemon = false;
+        int port = CompileDaemon.DEFAULT_PORT;
+        int idleSeconds = CompileDaemon.DEFAULT_IDLE_SECONDS;
+        Set<String> options = new HashSet<>();
+        try {
+            for (String arg : args) {
+                if (arg.startsWith("--")) {
+                    int equals = arg.indexOf('=');
+                    options.add(equals < 0 ? arg : arg.substring(0, equals));
+                }
+                if ("--no-dyd".equals(arg)) {
+                    dydFormat = WordAnalyzerStarter.DYD_NONE;
+                } else if ("--dyd=text".equals(arg)) {
+                    dydFormat = WordAnalyzerStarter.DYD_TEXT;
+                } else if ("--dyd=binary".equals(arg)) {
+                    dydFormat = WordAnalyzerStarter.DYD_BINARY;
+                } else if ("--stats".equals(arg)) {
+                    stats = true;
+                } else if ("--context".equals(arg)) {
+                    showErrorContext = true;
+                } else if ("--no-error-echo".equals(arg)) {
+                    echoErrors = false;
+                } else if ("--input=mapped".equals(arg)) {
+                    inputMode = WordAnalyzerStarter.INPUT_MAPPED;
+                } else if ("--input=scanner".equals(arg)) {
+                    inputMode = WordAnalyzerStarter.INPUT_SCANNER;
+                } else if ("--parallel-lex".equals(arg)) {
+                    lexThreads = Runtime.getRuntime().availableProcessors();
+                } else if (arg.startsWith("--parallel-lex=")) {
+                    lexThreads = intOption(arg, 1, Integer.MAX_VALUE);
+                } else if (arg.startsWith("--max-errors=")) {
+                    maxErrors = intOption(arg, 0, Integer.MAX_VALUE);
+                } else if ("--ast".equals(arg)) {
+                    writeAst = true;
+                } else if ("--ir".equals(arg)) {
+                    writeIr = true;
+                } else if ("--optimize".equals(arg)) {
+                    optimize = true;
+                } else if ("--run".equals(arg)) {
+                    runs = 1;
+                } else if (arg.startsWith("--run=")) {
+                    runs = intOption(arg, 1, Integer.MAX_VALUE);
+                } else if ("--tiered".equals(arg)) {
+                    tierThreshold = JvmStarter.DEFAULT_TIER_THRESHOLD;
+                } else if (arg.startsWith("--tiered=")) {
+                    tierThreshold = intOption(arg, 1, Integer.MAX_VALUE);
+                } else if ("--jvm".equals(arg)) {
+                    jvmRuns = 1;
+                } else if (arg.startsWith("--jvm=")) {
+                    jvmRuns = intOption(arg, 1, Integer.MAX_VALUE);
+                } else if ("--bench".equals(arg)) {
+                    benchRuns = 5;
+                } else if (arg.startsWith("--bench=")) {
+                    benchRuns = intOption(arg, 1, Integer.MAX_VALUE);
+                } else if ("--pipeline".equals(arg)) {
+                    pipeline = true;
+                } else if ("--batch".equals(arg)) {
+                    batch = true;
+                } else if ("--watch".equals(arg)) {
+                    watch = true;
+                } else if (arg.startsWith("--jobs=")) {
+                    jobs = intOption(arg, 1, Integer.MAX_VALUE);
+                } else if ("--cache".equals(arg)) {
+                    cacheDir = Paths.get(System.getProperty("user.home"), ".simplecompiler", "cache").toString();
+                } else if (arg.startsWith("--cache=")) {
+                    cacheDir = arg.substring("--cache=".length());
+                } else if (arg.startsWith("--cache-size=")) {
+                    cacheBytes = (long) intOption(arg, 1, Integer.MAX_VALUE) << 20;
+                } else if ("--daemon".equals(arg)) {
+                    daemon = true;
+                } else if ("--connect".equals(arg)) {
+                    connect = true;
+                } else if ("--stop-daemon".equals(arg)) {
+                    stopDaemon = true;
+                } else if (arg.startsWith("--port=")) {
+                    port = intOption(arg, 0, 65535);
+                } else if (arg.startsWith("--idle-timeout=")) {
+                    idleSeconds = intOption(arg, 1, Integer.MAX_VALUE);
+                } else if (arg.startsWith("--")) {
+                    throw new IllegalArgumentException(arg);
+                } else {
+                    paths.add(arg);
+                }
+            }
+        } catch (IllegalArgumentException e) {
+            System.err.println(USAGE);
+            return;
+        }
+        if (tierThreshold > 0 && runs == 0) {
+            runs = 1;
+        }
+        if (!validOptions(options, paths.size()) || pipeline && dydFormat == WordAnalyzerStarter.DYD_BINARY) {
+            System.err.println(USAGE);
+            return;
+        }
+        if (stopDaemon) {
+            try {
+                new CompileClient(port).shutdown();
+            } catch (IOException e) {
+                System.err.println("***编译服务未启动(端口" + port + ")");
+                System.exit(-1);
+            }
+            return;
+        }
+        CompileCache cache = null;
+        if (cacheDir != null) {
+            try {
+                cache = new CompileCache(Paths.get(cacheDir), cacheBytes);
+            } catch (IOException e) {
+                System.err.println("打开编译缓存失败: " + cacheDir);
+                System.exit(-1);
+            }
+        }
+        if (daemon) {
+            runDaemon(port, idleSeconds, jobs, cache);
+            return;
+        }
+        if (watch) {
+            runWatch(paths, maxErrors, echoErrors);
+            return;
+        }
+        if (batch) {
+            if (!compileBatch(paths, jobs, maxErrors, echoErrors, cache)) {
+                System.exit(-1);
+            }
+            return;
+        }
+        String filePath = paths.get(0);
+        if (connect) {
+            CompileClient client = new CompileClient(port);
+            try {
+                int exitCode = client.compile(filePath, dydFormat, maxErrors, writeAst, echoErrors,
+                        System.out, System.err);
+                System.out.println(String.format("***编译服务：编译耗时%.2fms，往返%.2fms",
+                        client.elapsedNanos() / 1e6, client.roundTripNanos() / 1e6));
+                if (exitCode != 0) {
+                    System.exit(exitCode);
+                }
+                return;
+            } catch (ConnectException e) {
+                System.err.println("***编译服务未启动(端口" + port + ")，在本进程中编译");
+            } catch (IOException e) {
+                System.err.println("***编译服务通信失败: " + e.getMessage());
+                System.exit(-1);
+            }
+        }
+        if (cache != null) {
+            CompilerSession session = new CompilerSession();
+            session.setMaxErrors(maxErrors);
+            session.setCache(cache);
+            if (FileCompiler.compile(session, filePath, filePath, dydFormat, writeAst, echoErrors,
+                    System.out, System.err) != 0) {
+                System.exit(-1);
+            }
+            return;
+        }
+        if (pipeline) {
+            TokenPipe pipe = WordAnalyzerStarter.pipeline(filePath, dydFormat, inputMode, echoErrors);
+            ParserStarter.parsePipelined(filePath, pipe, showErrorContext, echoErrors, maxErrors, writeAst);
+            return;
+        }
+        TokenStream tokens = WordAnalyzerStarter.analyze(filePath, dydFormat, inputMode, lexThreads, echoErrors);
+        if (stats) {
+            long bytes = tokens.memoryFootprint();
+            System.out.println(String.format("***单词数: %d, 占用内存: %d字节, 平均每个单词%.1f字节",
+                    tokens.size(), bytes, tokens.size() == 0 ? 0.0 : (double) bytes / tokens.size()));
+        }
+        ParseResult parseResult = ParserStarter.parse(filePath, tokens, showErrorContext, echoErrors, maxErrors,
+                writeAst);
+        WordAnalyzerStarter.awaitDyd();
+        if (tokens.size() == 0 || !writeIr && !optimize && runs == 0 && jvmRuns == 0 && benchRuns == 0) {
             return;
         }
-        WordAnalyzerStarter.main(args[0]);
-        ParserStarter.main(args[0]);
+        Ir ir;
+        if (writeIr) {
+            ir = IrStarter.generate(filePath, tokens, parseResult, optimize);
+        } else {
+            ir = IrStarter.generate(tokens, parseResult);
+            if (optimize) {
+                IrStarter.optimize(filePath, ir);
+            }
+        }
+        if (runs > 0 && tierThreshold > 0) {
+            JvmStarter.runTiered(filePath, ir, runs, tierThreshold);
+        } else if (runs > 0) {
+            VmStarter.run(filePath, ir, runs);
+        } else if (jvmRuns > 0) {
+            JvmStarter.run(filePath, ir, jvmRuns);
+        } else if (benchRuns > 0) {
+            JvmStarter.benchmark(filePath, ir, benchRuns);
+        }
+    }
+
+    /**
+     * "--name=N"形式的选项的值，不是min到max之间的整数时抛出IllegalArgumentException
+     */
+    private static int intOption(String arg, int min, int max) {
+        int value = Integer.parseInt(arg.substring(arg.indexOf('=') + 1));
+        if (value < min || value > max) {
+            throw new IllegalArgumentException(arg);
+        }
+        return value;
+    }
+
+    /**
+     * 检查选项的组合：最多一个模式，只使用该模式允许的选项，源文件的个数符合该模式
+     */
+    private static boolean validOptions(Set<String> options, int pathCount) {
+        String mode = SINGLE;
+        for (String option : options) {
+            if (MODE_OPTIONS.containsKey(option)) {
+                if (!mode.equals(SINGLE)) {
+                    return false;
+                }
+                mode = option;
+            }
+        }
+        Set<String> allowed = MODE_OPTIONS.get(mode);
+        for (String option : options) {
+            if (!option.equals(mode) && !allowed.contains(option)) {
+                return false;
+            }
+        }
+        if (options.contains("--cache-size") && !options.contains("--cache")) {
+            return false;
+        }
+        switch (mode) {
+            case "--daemon":
+            case "--stop-daemon":
+                return pathCount == 0;
+            case "--batch":
+            case "--watch":
+                return pathCount > 0;
+            case "--connect":
+                return pathCount == 1;
+            default:
+                for (String[] group : CONFLICTS) {
+                    if (options.contains(group[0])) {
+                        for (int i = 1; i < group.length; i++) {
+                            if (options.contains(group[i])) {
+                                return false;
+                            }
+                        }
+                    }
+                }
+                return pathCount == 1;
+        }
+    }
+
+    private static void runDaemon(int port, int idleSeconds, int jobs, CompileCache cache) {
+        try {
+            CompileDaemon daemon = new CompileDaemon(port, idleSeconds, jobs, cache);
+            daemon.warmUp();
+            System.out.println("***编译服务：监听" + daemon.port() + "端口，" + jobs + "线程，空闲" + idleSeconds + "秒后退出");
+            daemon.run();
+        } catch (IOException e) {
+            System.err.println("***编译服务启动失败: " + e.getMessage());
+            System.exit(-1);
+        }
+    }
+
+    private static void runWatch(List<String> patterns, int maxErrors, boolean echoErrors) {
+        try {
+            WatchCompiler watcher = new WatchCompiler(patterns, System.out, System.err);
+            watcher.setMaxErrors(maxErrors);
+            watcher.setEchoErrors(echoErrors);
+            watcher.run();
+        } catch (IOException e) {
+            System.err.println("***监视失败: " + e.getMessage());
+            System.exit(-1);
+        }
+    }
+
+    /**
+     * 批量编译，只在控制台输出失败的文件和汇总；全部成功时返回true
+     */
+    private static boolean compileBatch(List<String> patterns, int jobs, int maxErrors, boolean echoErrors,
+                                        CompileCache cache) {
+        List<Path> files;
+        try {
+            files = BatchCompiler.collect(patterns);
+        } catch (IOException e) {
+            System.err.println("读取目录失败: " + e.getMessage());
+            return false;
+        }
+        if (files.isEmpty()) {
+            System.err.println("没有找到源文件");
+            return false;
+        }
+        BatchCompiler compiler = new BatchCompiler(jobs);
+        compiler.setMaxErrors(maxErrors);
+        compiler.setCache(cache);
+        BatchCompiler.Summary summary = compiler.compile(files);
+        if (echoErrors) {
+            for (BatchCompiler.Outcome outcome : summary.outcomes()) {
+                if (!outcome.success()) {
+                    System.err.println(outcome);
+                }
+            }
+        }
+        System.out.println(summary);
+        if (cache != null) {
+            System.out.println(cache);
+        }
+        return summary.failed() == 0;
     }
 }
@@ -0,0 +1,261 @@
+package compiler;
+
+import output.Diagnostic;
+import parser.ParserStarter;
+
+import java.io.IOException;
+import java.nio.file.*;
+import java.util.*;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * 批量编译：在ForkJoin池上并行编译多个源文件，每个文件用各自的{@link CompilerSession}，
+ * 像命令行一样写出err文件和分析成功时的pro、var文件(不写dyd文件)。
+ * 编译过程中不输出到控制台，各文件的结果按输入顺序返回，由调用者统一输出。
+ */
+public class BatchCompiler {
+    private final int threads;
+    private int maxErrors = ParserStarter.DEFAULT_MAX_ERRORS;
+    private CompileCache cache;
+
+    public BatchCompiler(int threads) {
+        if (threads < 1) {
+            throw new IllegalArgumentException("线程数至少为1: " + threads);
+        }
+        this.threads = threads;
+    }
+
+    public void setMaxErrors(int maxErrors) {
+        this.maxErrors = maxErrors;
+    }
+
+    /**
+     * 各线程共用的编译缓存，为null时不使用缓存
+     */
+    public void setCache(CompileCache cache) {
+        this.cache = cache;
+    }
+
+    /**
+     * 展开参数：目录递归取其中的.pas文件，含*?[{的参数按glob匹配(支持**)，其他参数是单个文件。
+     * 同一目录或模式下的文件按路径排序，重复的文件只保留第一次出现
+     */
+    public static List<Path> collect(List<String> patterns) throws IOException {
+        Set<Path> files = new LinkedHashSet<>();
+        for (String pattern : patterns) {
+            Path path = Paths.get(pattern);
+            if (Files.isDirectory(path)) {
+                files.addAll(walk(path, FileSystems.getDefault().getPathMatcher("glob:**.pas")));
+            } else if (isGlob(pattern)) {
+                files.addAll(walk(globBase(pattern), FileSystems.getDefault().getPathMatcher("glob:" + pattern)));
+            } else {
+                files.add(path);
+            }
+        }
+        return new ArrayList<>(files);
+    }
+
+    static boolean isGlob(String pattern) {
+        for (int i = 0; i < pattern.length(); i++) {
+            char c = pattern.charAt(i);
+            if (c == '*' || c == '?' || c == '[' || c == '{') {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * 模式中第一个含通配符的部分之前的目录；这样遍历得到的路径与模式有相同的前缀，可以直接匹配
+     */
+    static Path globBase(String pattern) {
+        String[] parts = pattern.split("[/\\\\]", -1);
+        StringBuilder prefix = new StringBuilder();
+        for (int i = 0; i < parts.length - 1 && !isGlob(parts[i]); i++) {
+            prefix.append(parts[i]).append('/');
+        }
+        return Paths.get(prefix.toString());
+    }
+
+    private static List<Path> walk(Path base, PathMatcher matcher) throws IOException {
+        if (!Files.isDirectory(base)) {
+            return Collections.emptyList();
+        }
+        try (Stream<Path> paths = Files.walk(base)) {
+            return paths.filter(p -> matcher.matches(p) && Files.isRegularFile(p))
+                    .sorted()
+                    .collect(Collectors.toList());
+        }
+    }
+
+    public Summary compile(List<Path> files) {
+        long start = System.nanoTime();
+        ForkJoinPool pool = new ForkJoinPool(threads);
+        Outcome[] outcomes = new Outcome[files.size()];
+        try {
+            List<ForkJoinTask<Outcome>> tasks = new ArrayList<>(files.size());
+            for (final Path file : files) {
+                tasks.add(pool.submit(() -> compileFile(file)));
+            }
+            for (int i = 0; i < outcomes.length; i++) {
+                try {
+                    outcomes[i] = tasks.get(i).get();
+                } catch (ExecutionException e) {
+                    outcomes[i] = new Outcome(files.get(i), 0, 0, 0, String.valueOf(e.getCause()));
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("批量编译被中断", e);
+        } finally {
+            pool.shutdown();
+        }
+        return new Summary(Arrays.asList(outcomes), System.nanoTime() - start, threads);
+    }
+
+    private Outcome compileFile(Path file) {
+        CompilerSession session = new CompilerSession();
+        session.setMaxErrors(maxErrors);
+        session.setCache(cache);
+        CompileResult result;
+        try {
+            result = session.compile(file);
+        } catch (IOException e) {
+            return new Outcome(file, 0, 0, 0, "无法打开源文件");
+        }
+        try {
+            result.writeFiles(file.toString());
+            int lexical = 0;
+            for (Diagnostic diagnostic : result.diagnostics()) {
+                if (diagnostic.phase() == Diagnostic.LEXICAL) {
+                    lexical++;
+                }
+            }
+            return new Outcome(file, result.tokens().lineCount(), lexical,
+                    result.diagnostics().size() - lexical, null);
+        } catch (IOException e) {
+            return new Outcome(file, 0, 0, 0, e.getMessage() == null ? e.toString() : e.getMessage());
+        }
+    }
+
+    /**
+     * 一个文件的编译结果
+     */
+    public static class Outcome {
+        private final Path file;
+        private final int lines;
+        private final int lexicalErrors;
+        private final int syntaxErrors;
+        // 读写文件失败的原因
+        private final String failure;
+
+        Outcome(Path file, int lines, int lexicalErrors, int syntaxErrors, String failure) {
+            this.file = file;
+            this.lines = lines;
+            this.lexicalErrors = lexicalErrors;
+            this.syntaxErrors = syntaxErrors;
+            this.failure = failure;
+        }
+
+        public Path file() {
+            return file;
+        }
+
+        public int lines() {
+            return lines;
+        }
+
+        public int lexicalErrors() {
+            return lexicalErrors;
+        }
+
+        public int syntaxErrors() {
+            return syntaxErrors;
+        }
+
+        public String failure() {
+            return failure;
+        }
+
+        public boolean success() {
+            return failure == null && lexicalErrors == 0 && syntaxErrors == 0;
+        }
+
+        @Override
+        public String toString() {
+            if (failure != null) {
+                return file + ": " + failure;
+            }
+            if (lexicalErrors > 0) {
+                return file + ": 词法分析失败，有" + lexicalErrors + "个错误";
+            }
+            if (syntaxErrors > 0) {
+                return file + ": 语法分析失败，有" + syntaxErrors + "个错误";
+            }
+            return file + ": 成功";
+        }
+    }
+
+    public static class Summary {
+        private final List<Outcome> outcomes;
+        private final long elapsedNanos;
+        private final int threads;
+
+        Summary(List<Outcome> outcomes, long elapsedNanos, int threads) {
+            this.outcomes = Collections.unmodifiableList(outcomes);
+            this.elapsedNanos = elapsedNanos;
+            this.threads = threads;
+        }
+
+        /**
+         * 各文件的结果，与输入顺序相同
+         */
+        public List<Outcome> outcomes() {
+            return outcomes;
+        }
+
+        public int failed() {
+            int failed = 0;
+            for (Outcome outcome : outcomes) {
+                if (!outcome.success()) {
+                    failed++;
+                }
+            }
+            return failed;
+        }
+
+        public long elapsedNanos() {
+            return elapsedNanos;
+        }
+
+        @Override
+        public String toString() {
+            int lexicalFailed = 0;
+            int syntaxFailed = 0;
+            int ioFailed = 0;
+            long errors = 0;
+            long lines = 0;
+            for (Outcome outcome : outcomes) {
+                if (outcome.failure != null) {
+                    ioFailed++;
+                } else if (outcome.lexicalErrors > 0) {
+                    lexicalFailed++;
+                } else if (outcome.syntaxErrors > 0) {
+                    syntaxFailed++;
+                }
+                errors += outcome.lexicalErrors + outcome.syntaxErrors;
+                lines += outcome.lines;
+            }
+            double seconds = elapsedNanos / 1e9;
+            return String.format("***批量编译：%d个文件，成功%d个，失败%d个(词法%d个，语法%d个，读写文件%d个)，共%d个错误；"
+                            + "%d行，%d线程，耗时%.1fms，%.0f文件/秒，%.0f行/秒",
+                    outcomes.size(), outcomes.size() - failed(), failed(), lexicalFailed, syntaxFailed, ioFailed,
+                    errors, lines, threads, elapsedNanos / 1e6,
+                    seconds > 0 ? outcomes.size() / seconds : 0.0, seconds > 0 ? lines / seconds : 0.0);
+        }
+    }
+}
@@ -0,0 +1,245 @@
+package compiler;
+
+import output.Diagnostic;
+import parser.ParseResult;
+import word.TokenStream;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.nio.file.attribute.FileTime;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.*;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Stream;
+
+/**
+ * 按内容寻址的编译缓存：以(编译器版本, 源程序字节)的SHA-256为键，在目录中为每个源程序保存一个条目文件，
+ * 内有单词序列(二进制dyd格式)、错误、过程表、变量表和语法树。命中时直接读回编译结果，不再进行词法分析和语法分析。
+ * <p>
+ * 条目总大小超过上限时按最近使用时间淘汰(LRU)，使用时间即条目文件的修改时间，命中时更新，所以跨进程有效。
+ * 条目先写入临时文件再原子地改名，多个进程共用一个缓存目录时不会读到写了一半的条目；读取失败的条目当作未命中并删除。
+ * 其他进程在本进程启动后写入的条目在第一次查到时加入索引，之后同样计入总大小、参与淘汰。
+ * 可以被多个线程同时使用。
+ */
+public class CompileCache {
+    /**
+     * 编译器版本，词法分析、语法分析的结果(包括错误信息)有变化时必须修改，使旧的条目全部失效
+     */
+    public static final String COMPILER_VERSION = "SimpleCompiler-2";
+    public static final long DEFAULT_MAX_BYTES = 256L << 20;
+
+    private static final int MAGIC = 0x53434345; // "SCCE"
+    private static final String SUFFIX = ".entry";
+
+    private final Path directory;
+    private final long maxBytes;
+    // 按使用时间排列的条目及其大小，最早使用的在前
+    private final LinkedHashMap<String, Long> entries = new LinkedHashMap<>(16, 0.75f, true);
+    private long totalBytes;
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private final AtomicLong evictions = new AtomicLong();
+
+    public CompileCache(Path directory, long maxBytes) throws IOException {
+        this.directory = directory;
+        this.maxBytes = maxBytes;
+        Files.createDirectories(directory);
+        List<Path> files = new ArrayList<>();
+        try (Stream<Path> list = Files.list(directory)) {
+            list.filter(path -> path.getFileName().toString().endsWith(SUFFIX)).forEach(files::add);
+        }
+        final Map<Path, Long> times = new HashMap<>();
+        for (Path file : files) {
+            times.put(file, Files.getLastModifiedTime(file).toMillis());
+        }
+        files.sort(Comparator.comparing(times::get));
+        for (Path file : files) {
+            String name = file.getFileName().toString();
+            long size = Files.size(file);
+            entries.put(name.substring(0, name.length() - SUFFIX.length()), size);
+            totalBytes += size;
+        }
+    }
+
+    /**
+     * 源程序的键：编译器版本和源程序字节的SHA-256
+     */
+    public static String key(ByteBuffer source) {
+        MessageDigest digest;
+        try {
+            digest = MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+        digest.update(COMPILER_VERSION.getBytes(StandardCharsets.UTF_8));
+        digest.update((byte) 0);
+        digest.update(source.duplicate());
+        StringBuilder sb = new StringBuilder(64);
+        for (byte b : digest.digest()) {
+            sb.append(Character.forDigit((b >> 4) & 0xf, 16)).append(Character.forDigit(b & 0xf, 16));
+        }
+        return sb.toString();
+    }
+
+    /**
+     * 命中时返回缓存的编译结果，否则返回null
+     */
+    public CompileResult get(String key) {
+        long start = System.nanoTime();
+        Path file = entryFile(key);
+        boolean indexed;
+        synchronized (this) {
+            indexed = entries.get(key) != null;
+        }
+        if (!indexed && !adopt(key, file)) {
+            misses.incrementAndGet();
+            return null;
+        }
+        try {
+            CompileResult result;
+            try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(file), 1 << 16))) {
+                result = read(in, start);
+            }
+            Files.setLastModifiedTime(file, FileTime.fromMillis(System.currentTimeMillis()));
+            hits.incrementAndGet();
+            return result;
+        } catch (IOException | RuntimeException e) {
+            // 被其他进程淘汰或已损坏
+            remove(key);
+            misses.incrementAndGet();
+            return null;
+        }
+    }
+
+    public void put(String key, CompileResult result) throws IOException {
+        ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+        try (DataOutputStream out = new DataOutputStream(buffer)) {
+            write(result, out);
+        }
+        Path temp = Files.createTempFile(directory, key, ".tmp");
+        try {
+            Files.write(temp, buffer.toByteArray());
+            Files.move(temp, entryFile(key), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } finally {
+            Files.deleteIfExists(temp);
+        }
+        List<String> evicted = new ArrayList<>();
+        synchronized (this) {
+            Long previous = entries.put(key, (long) buffer.size());
+            totalBytes += buffer.size() - (previous == null ? 0 : previous);
+            Iterator<Map.Entry<String, Long>> iterator = entries.entrySet().iterator();
+            while (totalBytes > maxBytes && iterator.hasNext()) {
+                Map.Entry<String, Long> eldest = iterator.next();
+                if (eldest.getKey().equals(key)) {
+                    continue;
+                }
+                totalBytes -= eldest.getValue();
+                evicted.add(eldest.getKey());
+                iterator.remove();
+            }
+        }
+        for (String name : evicted) {
+            Files.deleteIfExists(entryFile(name));
+            evictions.incrementAndGet();
+        }
+    }
+
+    /**
+     * 不在索引中的键：其他进程写入了条目文件时把它加入索引，返回是否存在
+     */
+    private boolean adopt(String key, Path file) {
+        long size;
+        try {
+            size = Files.size(file);
+        } catch (IOException e) {
+            return false;
+        }
+        synchronized (this) {
+            Long previous = entries.put(key, size);
+            totalBytes += size - (previous == null ? 0 : previous);
+        }
+        return true;
+    }
+
+    private synchronized void remove(String key) {
+        Long size = entries.remove(key);
+        if (size != null) {
+            totalBytes -= size;
+        }
+        try {
+            Files.deleteIfExists(entryFile(key));
+        } catch (IOException ignored) {
+        }
+    }
+
+    private Path entryFile(String key) {
+        return directory.resolve(key + SUFFIX);
+    }
+
+    private static void write(CompileResult result, DataOutputStream out) throws IOException {
+        out.writeInt(MAGIC);
+        out.writeUTF(COMPILER_VERSION);
+        ByteArrayOutputStream tokens = new ByteArrayOutputStream();
+        result.tokens().writeBinaryDyd(tokens);
+        out.writeInt(tokens.size());
+        tokens.writeTo(out);
+        out.writeInt(result.diagnostics().size());
+        for (Diagnostic diagnostic : result.diagnostics()) {
+            out.writeByte(diagnostic.phase());
+            out.writeInt(diagnostic.line());
+            out.writeUTF(diagnostic.message());
+        }
+        ParseResult parseResult = result.parseResult();
+        out.writeBoolean(parseResult != null);
+        if (parseResult != null) {
+            parseResult.write(out);
+        }
+    }
+
+    private static CompileResult read(DataInputStream in, long start) throws IOException {
+        if (in.readInt() != MAGIC || !COMPILER_VERSION.equals(in.readUTF())) {
+            throw new IOException("不是当前版本的缓存条目");
+        }
+        byte[] tokenBytes = new byte[in.readInt()];
+        in.readFully(tokenBytes);
+        TokenStream tokens = TokenStream.readBinaryDyd(ByteBuffer.wrap(tokenBytes));
+        int count = in.readInt();
+        List<Diagnostic> diagnostics = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            int phase = in.readByte();
+            int line = in.readInt();
+            diagnostics.add(new Diagnostic(phase, line, in.readUTF()));
+        }
+        ParseResult parseResult = in.readBoolean() ? ParseResult.read(in) : null;
+        return new CompileResult(tokens, diagnostics, parseResult, System.nanoTime() - start, true);
+    }
+
+    public long hits() {
+        return hits.get();
+    }
+
+    public long misses() {
+        return misses.get();
+    }
+
+    public long evictions() {
+        return evictions.get();
+    }
+
+    public synchronized long totalBytes() {
+        return totalBytes;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("***编译缓存：命中%d次，未命中%d次，淘汰%d个条目，共%d个条目%.1fMB",
+                hits(), misses(), evictions(), entries(), totalBytes() / 1048576.0);
+    }
+
+    private synchronized int entries() {
+        return entries.size();
+    }
+}
@@ -0,0 +1,112 @@
+package compiler;
+
+import java.io.*;
+import java.net.ConnectException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.net.SocketTimeoutException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Paths;
+
+/**
+ * {@link CompileDaemon}的客户端：把源文件路径发给编译服务，输出服务传回的控制台内容。
+ * 只用到java.net和java.io，不加载词法分析、语法分析的类，客户端进程启动得尽可能快
+ */
+public class CompileClient {
+    private static final int CONNECT_TIMEOUT_MILLIS = 2000;
+    // 包括在服务中排队等待空闲线程和编译的时间
+    private static final int RESPONSE_TIMEOUT_MILLIS = 5 * 60 * 1000;
+
+    private final int port;
+    private long elapsedNanos;
+    private long roundTripNanos;
+
+    public CompileClient(int port) {
+        this.port = port;
+    }
+
+    /**
+     * 请求编译filePath，生成的文件与不使用编译服务时相同；服务未启动或连接超时时抛出{@link ConnectException}
+     *
+     * @return 退出码，成功时为0
+     */
+    public int compile(String filePath, int dydFormat, int maxErrors, boolean writeAst, boolean echoErrors,
+                       PrintStream out, PrintStream err) throws IOException {
+        long start = System.nanoTime();
+        try (Socket socket = connect()) {
+            socket.setTcpNoDelay(true);
+            DataOutputStream request = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream()));
+            request.writeInt(CompileDaemon.MAGIC);
+            request.writeByte(CompileDaemon.COMPILE);
+            request.writeUTF(Paths.get(filePath).toAbsolutePath().toString());
+            request.writeUTF(filePath);
+            request.writeByte(dydFormat);
+            request.writeInt(maxErrors);
+            request.writeBoolean(writeAst);
+            request.writeBoolean(echoErrors);
+            request.flush();
+
+            DataInputStream response = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+            int exitCode = response.readInt();
+            out.print(new String(readBytes(response), StandardCharsets.UTF_8));
+            err.print(new String(readBytes(response), StandardCharsets.UTF_8));
+            elapsedNanos = response.readLong();
+            roundTripNanos = System.nanoTime() - start;
+            return exitCode;
+        }
+    }
+
+    /**
+     * 请求编译服务在处理完当前的请求后退出
+     */
+    public void shutdown() throws IOException {
+        try (Socket socket = connect()) {
+            DataOutputStream request = new DataOutputStream(socket.getOutputStream());
+            request.writeInt(CompileDaemon.MAGIC);
+            request.writeByte(CompileDaemon.SHUTDOWN);
+            request.flush();
+            new DataInputStream(socket.getInputStream()).readInt();
+        }
+    }
+
+    /**
+     * 连接编译服务并设置读超时，服务没有响应时不会一直等待
+     */
+    private Socket connect() throws IOException {
+        Socket socket = new Socket();
+        try {
+            socket.connect(new InetSocketAddress(InetAddress.getLoopbackAddress(), port), CONNECT_TIMEOUT_MILLIS);
+            socket.setSoTimeout(RESPONSE_TIMEOUT_MILLIS);
+        } catch (SocketTimeoutException e) {
+            socket.close();
+            ConnectException timeout = new ConnectException("连接编译服务超时");
+            timeout.initCause(e);
+            throw timeout;
+        } catch (IOException e) {
+            socket.close();
+            throw e;
+        }
+        return socket;
+    }
+
+    private static byte[] readBytes(DataInputStream in) throws IOException {
+        byte[] bytes = new byte[in.readInt()];
+        in.readFully(bytes);
+        return bytes;
+    }
+
+    /**
+     * 上一次请求在服务中编译的耗时
+     */
+    public long elapsedNanos() {
+        return elapsedNanos;
+    }
+
+    /**
+     * 上一次请求从连接到收到响应的耗时
+     */
+    public long roundTripNanos() {
+        return roundTripNanos;
+    }
+}
@@ -0,0 +1,190 @@
+package compiler;
+
+import java.io.*;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketTimeoutException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 编译服务：常驻的JVM在本机回环地址上监听，由{@link CompileClient}发来源文件路径，在服务进程中编译并写出各文件，
+ * 再把控制台输出和退出码传回客户端。词法分析、语法分析的代码已经过JIT编译，关键字表等静态数据也已加载，
+ * 省去每次启动JVM和加载类的时间。
+ * <p>
+ * 多个请求在线程池上并发处理，每个线程使用各自的{@link CompilerSession}。连续空闲超过给定时间后自动退出。
+ * 只监听回环地址，但本机的其他用户也能连接，生成的文件以服务进程的权限写出。
+ * <p>
+ * 协议(DataOutputStream格式)：请求为MAGIC、类型，编译请求接着是源文件的绝对路径、显示的文件名、
+ * dyd格式、最多错误数、是否写ast、是否回显错误；响应为退出码、标准输出和标准错误的内容(UTF-8，长度在前)、编译耗时(纳秒)。
+ */
+public class CompileDaemon {
+    public static final int DEFAULT_PORT = 7419;
+    public static final int DEFAULT_IDLE_SECONDS = 600;
+
+    static final int MAGIC = 0x53434344; // "SCCD"
+    static final int COMPILE = 1;
+    static final int SHUTDOWN = 2;
+
+    // 预热用的程序，包含各种语句，第二个有语法错误，使错误处理的代码也得到编译
+    private static final String[] WARM_UP_PROGRAMS = {
+            "begin\n integer k;\n integer m;\n integer function F(n);\n  begin\n   integer n;\n"
+                    + "   if n<=0 then F:=1\n   else F:=n*F(n-1)\n  end;\n read(m);\n k:=F(m);\n write(k)\nend\n",
+            "begin\n integer k;\n k:=(1;\n if k<>2 then write(k\n else read(k);\n k:=k-3*4\nend\n"
+    };
+    private static final long WARM_UP_NANOS = 1_500_000_000L;
+    // 客户端连接后立即发出整个请求，超时未读完的连接直接关闭，不再占用工作线程
+    private static final int REQUEST_TIMEOUT_MILLIS = 5000;
+
+    private final ServerSocket server;
+    private final long idleMillis;
+    private final ExecutorService workers;
+    private final CompileCache cache;
+    private final ThreadLocal<CompilerSession> sessions;
+    private final AtomicInteger active = new AtomicInteger();
+    private final AtomicLong requests = new AtomicLong();
+    private volatile long lastActivity = System.currentTimeMillis();
+    private volatile boolean stopped;
+
+    /**
+     * @param port  为0时使用任意空闲端口，见{@link #port()}
+     * @param cache 为null时不使用编译缓存
+     */
+    public CompileDaemon(int port, int idleSeconds, int threads, final CompileCache cache) throws IOException {
+        if (threads < 1) {
+            throw new IllegalArgumentException("线程数至少为1: " + threads);
+        }
+        this.server = new ServerSocket(port, 50, InetAddress.getLoopbackAddress());
+        this.idleMillis = idleSeconds * 1000L;
+        this.workers = Executors.newFixedThreadPool(threads);
+        this.cache = cache;
+        this.sessions = new ThreadLocal<CompilerSession>() {
+            @Override
+            protected CompilerSession initialValue() {
+                CompilerSession session = new CompilerSession();
+                session.setCache(cache);
+                return session;
+            }
+        };
+    }
+
+    public int port() {
+        return server.getLocalPort();
+    }
+
+    /**
+     * 反复编译内置的小程序，直到热点代码被JIT编译；不经过编译缓存
+     */
+    public void warmUp() {
+        CompilerSession session = new CompilerSession();
+        long start = System.nanoTime();
+        int count = 0;
+        while (System.nanoTime() - start < WARM_UP_NANOS) {
+            session.compile(WARM_UP_PROGRAMS[count++ % WARM_UP_PROGRAMS.length]);
+        }
+    }
+
+    /**
+     * 接受请求直到空闲超时或收到停止请求，返回前等待正在处理的请求完成
+     */
+    public void run() throws IOException {
+        server.setSoTimeout(1000);
+        try {
+            while (!stopped) {
+                Socket socket;
+                try {
+                    socket = server.accept();
+                } catch (SocketTimeoutException e) {
+                    if (active.get() == 0 && System.currentTimeMillis() - lastActivity > idleMillis) {
+                        log("***编译服务：空闲超过" + idleMillis / 1000 + "秒，退出");
+                        break;
+                    }
+                    continue;
+                }
+                active.incrementAndGet();
+                lastActivity = System.currentTimeMillis();
+                final Socket connection = socket;
+                workers.execute(() -> handle(connection));
+            }
+        } finally {
+            server.close();
+            workers.shutdown();
+            try {
+                workers.awaitTermination(1, TimeUnit.MINUTES);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        log(String.format("***编译服务：共处理%d个请求", requests.get()) + (cache == null ? "" : "\n" + cache));
+    }
+
+    public void shutdown() {
+        stopped = true;
+    }
+
+    private void handle(Socket socket) {
+        try (Socket s = socket) {
+            s.setTcpNoDelay(true);
+            s.setSoTimeout(REQUEST_TIMEOUT_MILLIS);
+            DataInputStream in = new DataInputStream(new BufferedInputStream(s.getInputStream()));
+            DataOutputStream out = new DataOutputStream(new BufferedOutputStream(s.getOutputStream()));
+            if (in.readInt() != MAGIC) {
+                return;
+            }
+            int type = in.readByte();
+            if (type == SHUTDOWN) {
+                log("***编译服务：收到停止请求");
+                shutdown();
+                out.writeInt(0);
+                out.flush();
+                return;
+            }
+            if (type != COMPILE) {
+                return;
+            }
+            String filePath = in.readUTF();
+            String display = in.readUTF();
+            int dydFormat = in.readByte();
+            int maxErrors = in.readInt();
+            boolean writeAst = in.readBoolean();
+            boolean echoErrors = in.readBoolean();
+
+            long start = System.nanoTime();
+            ByteArrayOutputStream stdout = new ByteArrayOutputStream();
+            ByteArrayOutputStream stderr = new ByteArrayOutputStream();
+            int exitCode;
+            try (PrintStream o = new PrintStream(stdout, false, "UTF-8");
+                 PrintStream e = new PrintStream(stderr, false, "UTF-8")) {
+                CompilerSession session = sessions.get();
+                session.setMaxErrors(maxErrors);
+                exitCode = FileCompiler.compile(session, filePath, display, dydFormat, writeAst, echoErrors, o, e);
+            }
+            long elapsed = System.nanoTime() - start;
+            out.writeInt(exitCode);
+            writeBytes(out, stdout);
+            writeBytes(out, stderr);
+            out.writeLong(elapsed);
+            out.flush();
+            requests.incrementAndGet();
+            log(String.format("***编译服务：%s %s，耗时%.2fms", filePath, exitCode == 0 ? "成功" : "失败", elapsed / 1e6));
+        } catch (IOException | RuntimeException e) {
+            log("***编译服务：处理请求失败: " + e);
+        } finally {
+            lastActivity = System.currentTimeMillis();
+            active.decrementAndGet();
+        }
+    }
+
+    private static void writeBytes(DataOutputStream out, ByteArrayOutputStream bytes) throws IOException {
+        out.writeInt(bytes.size());
+        bytes.writeTo(out);
+    }
+
+    private static synchronized void log(String message) {
+        System.out.println(message);
+    }
+}
@@ -0,0 +1,173 @@
+package compiler;
+
+import ir.Ir;
+import ir.IrStarter;
+import output.Diagnostic;
+import output.TableWriter;
+import parser.Ast;
+import parser.ParseResult;
+import parser.Procedure;
+import parser.Variable;
+import word.TokenStream;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * 一次编译的结果：单词序列、错误，以及语法分析得到的语法树和过程表、变量表。
+ * 与命令行一样，有词法错误时不进行语法分析，此时没有语法树和过程表、变量表
+ */
+public class CompileResult {
+    private final TokenStream tokens;
+    private final List<Diagnostic> diagnostics;
+    private final ParseResult parseResult;
+    private final long elapsedNanos;
+    private final boolean cached;
+    private final boolean incremental;
+
+    CompileResult(TokenStream tokens, List<Diagnostic> diagnostics, ParseResult parseResult, long elapsedNanos,
+                  boolean cached) {
+        this(tokens, diagnostics, parseResult, elapsedNanos, cached, false);
+    }
+
+    CompileResult(TokenStream tokens, List<Diagnostic> diagnostics, ParseResult parseResult, long elapsedNanos,
+                  boolean cached, boolean incremental) {
+        this.tokens = tokens;
+        this.diagnostics = Collections.unmodifiableList(diagnostics);
+        this.parseResult = parseResult;
+        this.elapsedNanos = elapsedNanos;
+        this.cached = cached;
+        this.incremental = incremental;
+    }
+
+    public boolean success() {
+        return diagnostics.isEmpty();
+    }
+
+    public TokenStream tokens() {
+        return tokens;
+    }
+
+    /**
+     * 词法错误或语法错误，按报告的顺序
+     */
+    public List<Diagnostic> diagnostics() {
+        return diagnostics;
+    }
+
+    /**
+     * 有词法错误时为null
+     */
+    public Ast ast() {
+        return parseResult == null ? null : parseResult.ast();
+    }
+
+    public List<Procedure> procedures() {
+        return parseResult == null ? Collections.<Procedure>emptyList() : parseResult.procedures();
+    }
+
+    public List<Variable> variables() {
+        return parseResult == null ? Collections.<Variable>emptyList() : parseResult.variables();
+    }
+
+    /**
+     * 由分析结果生成三地址代码，每次调用重新生成；有错误或源程序没有内容时为null
+     */
+    public Ir ir() {
+        if (!success() || parseResult == null || tokens.size() == 0) {
+            return null;
+        }
+        return IrStarter.generate(tokens, parseResult);
+    }
+
+    /**
+     * 与命令行相同的err文件，以及分析成功时的pro、var文件；filename去掉扩展名后加上各文件的扩展名。
+     * 内容与已有文件相同时不重写，文件的修改时间保持不变
+     */
+    public void writeFiles(String filename) throws IOException {
+        String name = baseName(filename);
+        ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+        TableWriter out = new TableWriter(buffer);
+        for (Diagnostic diagnostic : diagnostics) {
+            out.text("***LINE:").right(diagnostic.line(), 0).text("  ").text(diagnostic.message()).newLine();
+        }
+        writeIfChanged(name + ".err", out, buffer);
+        // 与命令行一样，没有内容的源文件不写过程表和变量表
+        if (success() && parseResult != null && tokens.size() > 0) {
+            parseResult.writeProcTable(out);
+            writeIfChanged(name + ".pro", out, buffer);
+            parseResult.writeVariableTable(out);
+            writeIfChanged(name + ".var", out, buffer);
+        }
+    }
+
+    /**
+     * 写出文本(.dyd)或二进制(.dyb)格式的二元式文件，内容相同时不重写
+     */
+    public void writeDyd(String filename, boolean binary) throws IOException {
+        ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+        TableWriter out = new TableWriter(buffer);
+        if (binary) {
+            tokens.writeBinaryDyd(buffer);
+        } else {
+            tokens.writeDyd(out);
+        }
+        writeIfChanged(baseName(filename) + (binary ? ".dyb" : ".dyd"), out, buffer);
+    }
+
+    private static String baseName(String filename) {
+        int index = filename.lastIndexOf(".");
+        return index == -1 ? filename : filename.substring(0, index);
+    }
+
+    private static void writeIfChanged(String filename, TableWriter out, ByteArrayOutputStream buffer)
+            throws IOException {
+        out.flush();
+        byte[] content = buffer.toByteArray();
+        buffer.reset();
+        Path path = Paths.get(filename);
+        try {
+            if (Files.size(path) == content.length && Arrays.equals(Files.readAllBytes(path), content)) {
+                return;
+            }
+        } catch (NoSuchFileException ignored) {
+        }
+        try {
+            Files.write(path, content);
+        } catch (IOException e) {
+            throw new IOException("写入文件" + filename + "失败", e);
+        }
+    }
+
+    /**
+     * 词法分析和语法分析的耗时
+     */
+    public long elapsedNanos() {
+        return elapsedNanos;
+    }
+
+    /**
+     * 是否取自编译缓存，见{@link CompileCache}
+     */
+    public boolean cached() {
+        return cached;
+    }
+
+    /**
+     * 是否只重新分析了改动的函数体，见{@link CompilerSession#recompile(CharSequence, CharSequence, CompileResult)}
+     */
+    public boolean incremental() {
+        return incremental;
+    }
+
+    ParseResult parseResult() {
+        return parseResult;
+    }
+}
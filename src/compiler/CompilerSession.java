@@ -0,0 +1,154 @@
+package compiler;
+
+import output.Diagnostic;
+import output.ErrorLog;
+import parser.ParseResult;
+import parser.ParserStarter;
+import word.Lexer;
+import word.LineEdit;
+import word.TokenStream;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * 嵌入使用的编译器：源程序可以是文件路径、CharSequence或UTF-8编码的ByteBuffer，结果以对象返回，
+ * 不写dyd、err、var、pro文件，不输出到控制台，也不退出进程。
+ * <p>
+ * 一个会话可以反复编译任意多个源程序，各次编译互不影响，这样同一个JVM可以连续编译大量文件而不必每次重新启动。
+ * 会话只能由创建它的线程使用，多线程时每个线程使用各自的会话。
+ * 设置了{@link CompileCache}时，内容与之前编译过的源程序相同就直接取缓存的结果。
+ */
+public class CompilerSession {
+    private final Thread owner = Thread.currentThread();
+    private final Lexer lexer = new Lexer();
+    private int maxErrors = ParserStarter.DEFAULT_MAX_ERRORS;
+    private CompileCache cache;
+
+    /**
+     * 语法分析最多报告的错误数，0表示不限
+     */
+    public void setMaxErrors(int maxErrors) {
+        checkThread();
+        if (maxErrors < 0) {
+            throw new IllegalArgumentException("maxErrors不能为负数: " + maxErrors);
+        }
+        this.maxErrors = maxErrors;
+    }
+
+    /**
+     * 缓存只对默认的错误数上限有效，否则同一源程序的错误列表可能不同
+     */
+    public void setCache(CompileCache cache) {
+        checkThread();
+        this.cache = cache;
+    }
+
+    /**
+     * 按UTF-8读取源文件；读取失败时抛出IOException，编译错误在结果中返回
+     */
+    public CompileResult compile(Path source) throws IOException {
+        checkThread();
+        if (useCache()) {
+            return compileCached(ByteBuffer.wrap(Files.readAllBytes(source)));
+        }
+        long start = System.nanoTime();
+        List<Diagnostic> diagnostics = new ArrayList<>();
+        TokenStream tokens = lexer.lex(source, new ErrorLog(diagnostics, Diagnostic.LEXICAL));
+        return parse(tokens, diagnostics, start);
+    }
+
+    public CompileResult compile(CharSequence source) {
+        checkThread();
+        if (useCache()) {
+            return compileCached(StandardCharsets.UTF_8.encode(CharBuffer.wrap(source)));
+        }
+        long start = System.nanoTime();
+        List<Diagnostic> diagnostics = new ArrayList<>();
+        TokenStream tokens = lexer.lex(source, new ErrorLog(diagnostics, Diagnostic.LEXICAL));
+        return parse(tokens, diagnostics, start);
+    }
+
+    /**
+     * 编译source的[position, limit)，不改变它的位置
+     */
+    public CompileResult compile(ByteBuffer source) {
+        checkThread();
+        if (useCache()) {
+            return compileCached(source);
+        }
+        return compileBytes(source);
+    }
+
+    /**
+     * 增量编译：previous是previousSource的编译结果，只重新分析source中改动的行；
+     * 改动只在一个函数体内部时只重新分析这个函数体，结果与完整编译source相同。不使用编译缓存
+     */
+    public CompileResult recompile(CharSequence previousSource, CharSequence source, CompileResult previous) {
+        checkThread();
+        long start = System.nanoTime();
+        List<Diagnostic> diagnostics = new ArrayList<>();
+        ErrorLog lexicalLog = new ErrorLog(diagnostics, Diagnostic.LEXICAL);
+        for (Diagnostic diagnostic : previous.diagnostics()) {
+            if (diagnostic.phase() == Diagnostic.LEXICAL) {
+                // 没改动的行中的词法错误不会重新报告
+                TokenStream tokens = lexer.lex(source, lexicalLog);
+                return parse(tokens, diagnostics, start);
+            }
+        }
+        LineEdit edit = LineEdit.diff(previousSource, source);
+        TokenStream tokens = lexer.relex(previous.tokens(), edit, source, lexicalLog);
+        if (diagnostics.isEmpty() && previous.success() && previous.tokens().size() > 0 && tokens.size() > 0) {
+            ParseResult parseResult = ParserStarter.reparse(previous.parseResult(), previous.tokens(), tokens, edit);
+            if (parseResult != null) {
+                return new CompileResult(tokens, diagnostics, parseResult, System.nanoTime() - start, false, true);
+            }
+        }
+        return parse(tokens, diagnostics, start);
+    }
+
+    private CompileResult compileBytes(ByteBuffer source) {
+        long start = System.nanoTime();
+        List<Diagnostic> diagnostics = new ArrayList<>();
+        TokenStream tokens = lexer.lex(source, new ErrorLog(diagnostics, Diagnostic.LEXICAL));
+        return parse(tokens, diagnostics, start);
+    }
+
+    private CompileResult parse(TokenStream tokens, List<Diagnostic> diagnostics, long start) {
+        ParseResult parseResult = null;
+        if (diagnostics.isEmpty()) {
+            parseResult = ParserStarter.parse(tokens, new ErrorLog(diagnostics, Diagnostic.SYNTAX), maxErrors);
+        }
+        return new CompileResult(tokens, diagnostics, parseResult, System.nanoTime() - start, false);
+    }
+
+    boolean useCache() {
+        return cache != null && maxErrors == ParserStarter.DEFAULT_MAX_ERRORS;
+    }
+
+    private CompileResult compileCached(ByteBuffer source) {
+        String key = CompileCache.key(source);
+        CompileResult result = cache.get(key);
+        if (result == null) {
+            result = compileBytes(source);
+            try {
+                cache.put(key, result);
+            } catch (IOException ignored) {
+                // 缓存只是加速，写不进去不影响编译结果
+            }
+        }
+        return result;
+    }
+
+    private void checkThread() {
+        if (Thread.currentThread() != owner) {
+            throw new IllegalStateException("CompilerSession只能由创建它的线程使用");
+        }
+    }
+}
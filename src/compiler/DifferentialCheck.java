@@ -0,0 +1,637 @@
+package compiler;
+
+import ir.Ir;
+import ir.PassManager;
+import jvm.JvmStarter;
+import parser.Ast;
+import parser.Procedure;
+import parser.Variable;
+import vm.IntReader;
+import vm.IntWriter;
+import vm.Interpreter;
+import vm.VmException;
+import vm.VmStarter;
+import word.TokenStream;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import static constant.TypeCode.*;
+
+/**
+ * 差分测试：随机生成没有错误的程序和输入，在直接遍历语法树的参考解释器上运行，再与以下结果比较：
+ * 虚拟机运行原始的和优化后的中间代码、class文件运行原始的和优化后的中间代码、分层执行(同步提升，阈值1~3，
+ * 解释和生成的代码交替执行，连续运行两次)。参考解释器中递归太深或调用太多的程序跳过运行。
+ * 每个程序还随机编辑几行(删除、复制、交换、改数字、改标识符)，比较增量编译与完整编译的单词序列、错误、语法树和过程表、变量表。
+ * <p>
+ * 第i个程序使用种子seed+i，出现不一致时输出程序、输入和种子，用"java compiler.DifferentialCheck 1 种子"可以单独重现。
+ * 用法: java compiler.DifferentialCheck [程序数] [seed]
+ */
+public class DifferentialCheck {
+    private static final int EDITS = 3;
+    // 参考解释器的限制，超过时跳过这个程序
+    private static final int MAX_CALLS = 20000;
+    private static final int MAX_DEPTH = 200;
+
+    private int programs;
+    private int executed;
+    private int skipped;
+    private int edits;
+    private int incremental;
+    private int mismatches;
+
+    public static void main(String... args) {
+        int count = args.length > 0 ? Integer.parseInt(args[0]) : 1000;
+        long seed = args.length > 1 ? Long.parseLong(args[1]) : System.nanoTime();
+        DifferentialCheck check = new DifferentialCheck();
+        CompilerSession session = new CompilerSession();
+        for (int i = 0; i < count; i++) {
+            check.check(session, seed + i);
+        }
+        System.out.println(String.format("***差分测试：种子%d，%d个程序，运行%d个(跳过%d个递归太深的)，"
+                        + "增量编辑%d次(其中%d次只重新分析函数体)，不一致%d处", seed, check.programs, check.executed,
+                check.skipped, check.edits, check.incremental, check.mismatches));
+        if (check.mismatches > 0) {
+            System.exit(-1);
+        }
+    }
+
+    private void check(CompilerSession session, long seed) {
+        Random random = new Random(seed);
+        Generator generator = new Generator(random);
+        String source = generator.program();
+        byte[] input = generator.input();
+        programs++;
+        CompileResult result = session.compile(source);
+        if (!result.success()) {
+            report(seed, "生成的程序有错误", "", result.diagnostics().toString(), source, input);
+            return;
+        }
+        String expected = outcome(new Reference(result), input);
+        if (expected == null) {
+            skipped++;
+        } else {
+            executed++;
+            checkBackends(seed, result, source, input, expected, random);
+        }
+        checkEdits(session, seed, result, source, random);
+    }
+
+    private void checkBackends(long seed, CompileResult result, String source, byte[] input, String expected,
+                               Random random) {
+        Ir ir = result.ir();
+        Ir optimized = result.ir();
+        PassManager.standard().run(optimized);
+        compare(seed, "虚拟机", expected, outcome(new Interpreter(VmStarter.compile(ir))::run, input), source, input);
+        compare(seed, "虚拟机(优化)", expected, outcome(new Interpreter(VmStarter.compile(optimized))::run, input),
+                source, input);
+        compare(seed, "class文件", expected,
+                outcome(JvmStarter.load("Check", JvmStarter.compile(ir, "Check"))::run, input), source, input);
+        compare(seed, "class文件(优化)", expected,
+                outcome(JvmStarter.load("Check", JvmStarter.compile(optimized, "Check"))::run, input), source, input);
+        Interpreter interpreter = new Interpreter(VmStarter.compile(optimized));
+        int threshold = 1 + random.nextInt(3);
+        interpreter.setTiering(JvmStarter.synchronousPromoter(optimized, interpreter, "Check"), threshold);
+        for (int run = 1; run <= 2; run++) {
+            compare(seed, "分层执行(阈值" + threshold + "，第" + run + "次)", expected, outcome(interpreter::run, input),
+                    source, input);
+        }
+    }
+
+    /**
+     * 连续编辑EDITS次，每次用上一次的增量编译结果增量编译，与完整编译比较
+     */
+    private void checkEdits(CompilerSession session, long seed, CompileResult result, String source, Random random) {
+        for (int i = 0; i < EDITS; i++) {
+            String edited = edit(source, random);
+            CompileResult next = session.recompile(source, edited, result);
+            CompileResult full = session.compile(edited);
+            edits++;
+            if (next.incremental()) {
+                incremental++;
+            }
+            String difference = difference(full, next);
+            if (difference != null) {
+                report(seed, "增量编译的" + difference + "与完整编译不同", "", "", source + "\n***编辑后：\n" + edited,
+                        new byte[0]);
+                return;
+            }
+            source = edited;
+            result = next;
+        }
+    }
+
+    private static String edit(String source, Random random) {
+        List<String> lines = new ArrayList<>(Arrays.asList(source.split("\n", -1)));
+        int line = random.nextInt(lines.size() - 1);
+        String text = lines.get(line);
+        switch (random.nextInt(5)) {
+            case 0:
+                lines.remove(line);
+                break;
+            case 1:
+                lines.add(line, text);
+                break;
+            case 2:
+                lines.set(line, lines.get(line + 1));
+                lines.set(line + 1, text);
+                break;
+            case 3: {
+                // 改一个数字，没有数字时只改缩进
+                int digit = -1;
+                for (int i = 0; i < text.length(); i++) {
+                    if (Character.isDigit(text.charAt(i)) && (digit < 0 || random.nextBoolean())) {
+                        digit = i;
+                    }
+                }
+                lines.set(line, digit < 0 ? " " + text
+                        : text.substring(0, digit) + random.nextInt(10) + text.substring(digit + 1));
+                break;
+            }
+            default:
+                lines.set(line, text.replaceFirst("[a-z][0-9]+", random.nextBoolean() ? "v0" : "x"));
+                break;
+        }
+        return String.join("\n", lines);
+    }
+
+    /**
+     * 两次编译结果不同的部分，相同时返回null
+     */
+    private static String difference(CompileResult expected, CompileResult actual) {
+        if (!expected.diagnostics().toString().equals(actual.diagnostics().toString())) {
+            return "错误";
+        }
+        if (!Arrays.equals(tokens(expected.tokens()), tokens(actual.tokens()))) {
+            return "单词序列";
+        }
+        if (!Arrays.equals(ast(expected.ast()), ast(actual.ast()))) {
+            return "语法树";
+        }
+        if (!tables(expected).equals(tables(actual))) {
+            return "过程表、变量表";
+        }
+        return null;
+    }
+
+    private static byte[] tokens(TokenStream tokens) {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try {
+            tokens.writeBinaryDyd(bytes);
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+        return bytes.toByteArray();
+    }
+
+    private static byte[] ast(Ast ast) {
+        if (ast == null) {
+            return new byte[0];
+        }
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (DataOutputStream out = new DataOutputStream(bytes)) {
+            ast.write(out);
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+        return bytes.toByteArray();
+    }
+
+    private static String tables(CompileResult result) {
+        StringBuilder builder = new StringBuilder();
+        for (Procedure p : result.procedures()) {
+            builder.append(p.id()).append(' ').append(p.name()).append(' ').append(p.symbol()).append(' ')
+                    .append(p.type()).append(' ').append(p.level()).append(' ').append(p.firstVarOffset())
+                    .append(' ').append(p.lastVarOffset()).append(' ').append(p.parentId()).append('\n');
+        }
+        for (Variable v : result.variables()) {
+            builder.append(v.name()).append(' ').append(v.symbol()).append(' ').append(v.procId()).append(' ')
+                    .append(v.kind()).append(' ').append(v.type()).append(' ').append(v.level()).append(' ')
+                    .append(v.offset()).append('\n');
+        }
+        return builder.toString();
+    }
+
+    /**
+     * 运行一次，返回输出和运行错误；参考解释器中递归太深时返回null
+     */
+    private static String outcome(Execution program, byte[] input) {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        IntWriter out = new IntWriter(bytes);
+        String error = "";
+        try {
+            program.run(new IntReader(new ByteArrayInputStream(input)), out);
+        } catch (VmException e) {
+            error = "***运行错误：" + e.getMessage();
+        } catch (StackOverflowError e) {
+            error = "***运行错误：递归太深，超出了线程栈";
+        } catch (TooDeep e) {
+            return null;
+        }
+        out.flush();
+        return new String(bytes.toByteArray(), StandardCharsets.UTF_8) + error;
+    }
+
+    private void compare(long seed, String backend, String expected, String actual, String source, byte[] input) {
+        if (!expected.equals(actual)) {
+            report(seed, backend + "的结果与参考解释器不同", expected, actual, source, input);
+        }
+    }
+
+    private void report(long seed, String what, String expected, String actual, String source, byte[] input) {
+        mismatches++;
+        System.err.println("***不一致：种子" + seed + "，" + what);
+        if (!expected.isEmpty() || !actual.isEmpty()) {
+            System.err.println("期望：" + expected.replace('\n', ' '));
+            System.err.println("实际：" + actual.replace('\n', ' '));
+        }
+        System.err.println(source);
+        System.err.println("输入：" + new String(input, StandardCharsets.UTF_8));
+    }
+
+    /**
+     * 直接遍历语法树执行的参考解释器。每次调用分配一个活动记录，沿静态链查找外层过程的变量，不经过中间代码
+     */
+    private static class Reference implements Execution {
+        private final Ast ast;
+        private final TokenStream tokens;
+        private final List<Procedure> procedures;
+        private final List<Variable> variables;
+        // 各过程的说明结点，main为根结点
+        private final int[] declarations;
+        // 函数体中与形参同名的变量，进入函数时取形参的值；没有时为-1
+        private final int[] aliases;
+        private IntReader in;
+        private IntWriter out;
+        private int calls;
+        private int depth;
+
+        Reference(CompileResult result) {
+            ast = result.ast();
+            tokens = result.tokens();
+            procedures = result.procedures();
+            variables = result.variables();
+            declarations = new int[procedures.size()];
+            for (int node = 0; node < ast.size(); node++) {
+                if (ast.kind(node) == Ast.FUNC_DECLARE) {
+                    declarations[ast.symbol(node)] = node;
+                }
+            }
+            aliases = new int[procedures.size()];
+            Arrays.fill(aliases, -1);
+            for (int v = 0; v < variables.size(); v++) {
+                Variable variable = variables.get(v);
+                int param = param(variable.procId());
+                if (variable.kind() == 0 && param >= 0 && variable.symbol() == variables.get(param).symbol()) {
+                    aliases[variable.procId()] = v;
+                }
+            }
+        }
+
+        @Override
+        public void run(IntReader in, IntWriter out) {
+            this.in = in;
+            this.out = out;
+            calls = 0;
+            depth = 0;
+            execute(new Frame(0, null));
+        }
+
+        private int param(int procedure) {
+            Procedure p = procedures.get(procedure);
+            return procedure > 0 && p.lastVarOffset() > p.firstVarOffset() ? p.firstVarOffset() : -1;
+        }
+
+        private void execute(Frame frame) {
+            for (int child = ast.firstChild(declarations[frame.procedure]); child >= 0;
+                 child = ast.nextSibling(child)) {
+                if (ast.kind(child) != Ast.VAR_DECLARE && ast.kind(child) != Ast.FUNC_DECLARE) {
+                    statement(child, frame);
+                }
+            }
+        }
+
+        private void statement(int node, Frame frame) {
+            switch (ast.kind(node)) {
+                case Ast.READ:
+                    store(frame, ast.symbol(ast.firstChild(node)), in.nextInt());
+                    break;
+                case Ast.WRITE:
+                    out.write(load(frame, ast.symbol(ast.firstChild(node))));
+                    break;
+                case Ast.ASSIGN: {
+                    int target = ast.firstChild(node);
+                    store(frame, ast.symbol(target), evaluate(ast.nextSibling(target), frame));
+                    break;
+                }
+                case Ast.CONDITION: {
+                    int compare = ast.firstChild(node);
+                    int left = evaluate(ast.firstChild(compare), frame);
+                    int right = evaluate(ast.nextSibling(ast.firstChild(compare)), frame);
+                    boolean taken = compare(ast.symbol(compare), left, right);
+                    // 语句可以是空的，按语句前一个单词是不是then区分两个分支
+                    for (int child = ast.nextSibling(compare); child >= 0; child = ast.nextSibling(child)) {
+                        if ((tokens.type(ast.token(child) - 1) == THEN) == taken) {
+                            statement(child, frame);
+                        }
+                    }
+                    break;
+                }
+                default:
+                    throw new IllegalStateException("不是执行语句: " + ast.kind(node));
+            }
+        }
+
+        private static boolean compare(int operator, int left, int right) {
+            switch (operator) {
+                case EQUAL:
+                    return left == right;
+                case NOT_EQUAL:
+                    return left != right;
+                case LESS_EQUAL:
+                    return left <= right;
+                case LESS:
+                    return left < right;
+                case GREATER_EQUAL:
+                    return left >= right;
+                case GREATER:
+                    return left > right;
+                default:
+                    throw new IllegalStateException("不是关系运算符: " + operator);
+            }
+        }
+
+        private int evaluate(int node, Frame frame) {
+            switch (ast.kind(node)) {
+                case Ast.VARIABLE:
+                    return load(frame, ast.symbol(node));
+                case Ast.CONSTANT:
+                    return ast.symbol(node);
+                case Ast.FUNC_CALL:
+                    return call(ast.symbol(node), evaluate(ast.firstChild(node), frame), frame);
+                case Ast.CAL_EXPRESSION:
+                case Ast.TERM: {
+                    int child = ast.firstChild(node);
+                    int value = evaluate(child, frame);
+                    for (child = ast.nextSibling(child); child >= 0; child = ast.nextSibling(child)) {
+                        value = ast.kind(node) == Ast.TERM ? value * evaluate(child, frame)
+                                : value - evaluate(child, frame);
+                    }
+                    return value;
+                }
+                default:
+                    throw new IllegalStateException("不是表达式: " + ast.kind(node));
+            }
+        }
+
+        private int call(int procedure, int argument, Frame caller) {
+            if (++calls > MAX_CALLS || ++depth > MAX_DEPTH) {
+                throw new TooDeep();
+            }
+            Frame outer = caller;
+            while (outer.procedure != procedures.get(procedure).parentId()) {
+                outer = outer.outer;
+            }
+            Frame frame = new Frame(procedure, outer);
+            if (param(procedure) >= 0) {
+                frame.values[param(procedure)] = argument;
+            }
+            if (aliases[procedure] >= 0) {
+                frame.values[aliases[procedure]] = argument;
+            }
+            execute(frame);
+            depth--;
+            return frame.values[procedures.get(procedure).firstVarOffset() - 1];
+        }
+
+        private Frame owner(Frame frame, int variable) {
+            while (frame.procedure != variables.get(variable).procId()) {
+                frame = frame.outer;
+            }
+            return frame;
+        }
+
+        private int load(Frame frame, int variable) {
+            return owner(frame, variable).values[variable];
+        }
+
+        private void store(Frame frame, int variable, int value) {
+            owner(frame, variable).values[variable] = value;
+        }
+
+        private class Frame {
+            final int procedure;
+            // 静态链：直接外层过程最近的活动记录
+            final Frame outer;
+            final int[] values = new int[variables.size()];
+
+            Frame(int procedure, Frame outer) {
+                this.procedure = procedure;
+                this.outer = outer;
+            }
+        }
+    }
+
+    /**
+     * 被比较的一种运行方式
+     */
+    private interface Execution {
+        void run(IntReader in, IntWriter out);
+    }
+
+    private static class TooDeep extends RuntimeException {
+        private static final long serialVersionUID = 1L;
+    }
+
+    /**
+     * 随机生成没有错误的程序：变量、函数、形参的名字各不相同，只引用已经说明的变量和函数，函数最多嵌套两层。
+     * 函数体常以"if n<=0 then f:=... else f:=...f(n-1)"开始，使递归能够结束
+     */
+    private static class Generator {
+        private static final String[] RELATIONS = {"=", "<>", "<=", "<", ">=", ">"};
+        private static final int[] LARGE_CONSTANTS = {100, 65536, 100000, 2147483647};
+
+        private final Random random;
+        private int names;
+        private int reads;
+
+        Generator(Random random) {
+            this.random = random;
+        }
+
+        String program() {
+            Scope main = new Scope(null, null, null);
+            StringBuilder source = new StringBuilder("begin\n");
+            List<String> items = declarations(main, "  ", 0);
+            for (String variable : main.variables) {
+                if (random.nextInt(3) > 0) {
+                    items.add("  read(" + variable + ")");
+                    reads++;
+                }
+            }
+            statements(main, "  ", items, 2 + random.nextInt(5));
+            for (String variable : main.variables) {
+                items.add("  write(" + variable + ")");
+            }
+            source.append(String.join(";\n", items)).append("\nend\n");
+            return source.toString();
+        }
+
+        /**
+         * 输入通常足够；有时不够或不是整数，检查运行错误
+         */
+        byte[] input() {
+            int count = random.nextInt(8) > 0 ? reads * 3 + 5 : random.nextInt(reads + 2);
+            StringBuilder input = new StringBuilder();
+            for (int i = 0; i < count; i++) {
+                int value = random.nextInt(10) > 0 ? random.nextInt(14) - 3 : random.nextInt();
+                input.append(value).append(random.nextInt(4) > 0 ? " " : "\n");
+            }
+            if (random.nextInt(30) == 0) {
+                input.append(random.nextBoolean() ? "x1" : "é");
+            }
+            return input.toString().getBytes(StandardCharsets.UTF_8);
+        }
+
+        private List<String> declarations(Scope scope, String indent, int level) {
+            List<String> items = new ArrayList<>();
+            if (scope.param != null) {
+                // 形参要在函数体中说明为变量才能引用
+                items.add(indent + "integer " + scope.param);
+            }
+            int variables = 1 + random.nextInt(3);
+            int functions = level < 2 ? random.nextInt(3) : 0;
+            while (variables + functions > 0) {
+                if (random.nextInt(variables + functions) < variables) {
+                    String name = "v" + names++;
+                    scope.variables.add(name);
+                    items.add(indent + "integer " + name);
+                    variables--;
+                } else {
+                    items.add(function(scope, indent, level + 1));
+                    functions--;
+                }
+            }
+            return items;
+        }
+
+        private String function(Scope scope, String indent, int level) {
+            String name = "f" + names++;
+            String param = "n" + names++;
+            scope.functions.add(name);
+            Scope inner = new Scope(scope, name, param);
+            List<String> items = declarations(inner, indent + "    ", level);
+            String body = indent + "    ";
+            if (random.nextInt(5) < 3) {
+                items.add(body + "if " + param + "<=0 then " + name + ":=" + expression(inner, 2) + " else " + name
+                        + ":=" + factor(inner, 2) + "*" + name + "(" + param + "-1)"
+                        + (random.nextBoolean() ? "-" + expression(inner, 1) : ""));
+            }
+            statements(inner, body, items, 1 + random.nextInt(3));
+            return indent + "integer function " + name + "(" + param + ");\n"
+                    + indent + "  begin\n" + String.join(";\n", items) + "\n" + indent + "  end";
+        }
+
+        private void statements(Scope scope, String indent, List<String> items, int count) {
+            for (int i = 0; i < count; i++) {
+                items.add(indent + statement(scope, 0));
+            }
+        }
+
+        private String statement(Scope scope, int depth) {
+            switch (random.nextInt(depth < 2 ? 6 : 4)) {
+                case 0:
+                    reads++;
+                    return "read(" + variable(scope) + ")";
+                case 1:
+                    return "write(" + variable(scope) + ")";
+                case 2:
+                case 3:
+                    return variable(scope) + ":=" + expression(scope, 0);
+                default:
+                    return "if " + expression(scope, 1) + RELATIONS[random.nextInt(RELATIONS.length)]
+                            + expression(scope, 1) + " then " + branch(scope, depth) + " else " + branch(scope, depth);
+            }
+        }
+
+        private String branch(Scope scope, int depth) {
+            return random.nextInt(8) == 0 ? "" : statement(scope, depth + 1);
+        }
+
+        private String expression(Scope scope, int depth) {
+            StringBuilder builder = new StringBuilder(term(scope, depth));
+            for (int terms = random.nextInt(3); terms > 0; terms--) {
+                builder.append('-').append(term(scope, depth));
+            }
+            return builder.toString();
+        }
+
+        private String term(Scope scope, int depth) {
+            StringBuilder builder = new StringBuilder(factor(scope, depth));
+            for (int factors = random.nextInt(3) == 0 ? 1 : 0; factors > 0; factors--) {
+                builder.append('*').append(factor(scope, depth));
+            }
+            return builder.toString();
+        }
+
+        private String factor(Scope scope, int depth) {
+            List<String> functions = scope.visibleFunctions();
+            int choice = random.nextInt(8);
+            if (choice < 1 && depth < 2 && !functions.isEmpty()) {
+                return functions.get(random.nextInt(functions.size())) + "(" + expression(scope, depth + 1) + ")";
+            } else if (choice < 4) {
+                return variable(scope);
+            } else if (choice < 7) {
+                return String.valueOf(random.nextInt(10));
+            }
+            return String.valueOf(LARGE_CONSTANTS[random.nextInt(LARGE_CONSTANTS.length)]);
+        }
+
+        private String variable(Scope scope) {
+            List<String> variables = scope.visibleVariables();
+            return variables.get(random.nextInt(variables.size()));
+        }
+    }
+
+    /**
+     * 生成程序时的作用域：已说明的变量和函数，函数名(返回值)和形参也作为函数内的变量
+     */
+    private static class Scope {
+        final Scope outer;
+        final String param;
+        final List<String> variables = new ArrayList<>();
+        final List<String> functions = new ArrayList<>();
+
+        Scope(Scope outer, String function, String param) {
+            this.outer = outer;
+            this.param = param;
+            if (function != null) {
+                variables.add(function);
+                variables.add(param);
+            }
+        }
+
+        List<String> visibleVariables() {
+            List<String> visible = new ArrayList<>();
+            for (Scope scope = this; scope != null; scope = scope.outer) {
+                visible.addAll(scope.variables);
+            }
+            return visible;
+        }
+
+        List<String> visibleFunctions() {
+            List<String> visible = new ArrayList<>();
+            for (Scope scope = this; scope != null; scope = scope.outer) {
+                visible.addAll(scope.functions);
+            }
+            return visible;
+        }
+    }
+}
@@ -0,0 +1,85 @@
+package compiler;
+
+import output.Diagnostic;
+import word.WordAnalyzerStarter;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.file.Paths;
+import java.util.List;
+
+/**
+ * 用{@link CompilerSession}像命令行一样编译一个源文件：写出dyd、err、pro、var(以及ast)文件，
+ * 控制台输出与逐阶段运行时相同，但输出到给定的流、以返回值代替退出码，供命令行的缓存模式和编译服务使用
+ */
+public class FileCompiler {
+    private FileCompiler() {
+    }
+
+    /**
+     * @param filePath 源文件路径，生成的文件与它放在一起
+     * @param display  控制台输出中显示的文件名
+     * @return 成功时为0，否则为-1
+     */
+    public static int compile(CompilerSession session, String filePath, String display, int dydFormat,
+                              boolean writeAst, boolean echoErrors, PrintStream out, PrintStream err) {
+        out.println("***词法分析：" + display);
+        CompileResult result;
+        try {
+            result = session.compile(Paths.get(filePath));
+        } catch (IOException e) {
+            err.println("无法打开源文件");
+            return -1;
+        }
+        try {
+            if (dydFormat != WordAnalyzerStarter.DYD_NONE) {
+                result.writeDyd(filePath, dydFormat == WordAnalyzerStarter.DYD_BINARY);
+            }
+            result.writeFiles(filePath);
+            if (writeAst && result.success() && result.tokens().size() > 0) {
+                result.ast().write(new File(baseName(filePath) + ".ast"));
+            }
+        } catch (IOException e) {
+            err.println(e.getMessage());
+            return -1;
+        }
+        String errFilename = baseName(display) + ".err";
+        List<Diagnostic> diagnostics = result.diagnostics();
+        if (!diagnostics.isEmpty() && diagnostics.get(0).phase() == Diagnostic.LEXICAL) {
+            echo(diagnostics, echoErrors, err);
+            err.println("***词法分析：失败。有" + diagnostics.size() + "个错误, 具体查看" + errFilename + "文件");
+            return -1;
+        }
+        out.println("***词法分析完成");
+        out.println("***语法分析：" + display);
+        if (result.tokens().size() == 0) {
+            err.println("No content in source file.");
+        }
+        if (!diagnostics.isEmpty()) {
+            // 与逐阶段运行时一样，语法错误在"***语法分析："之后输出
+            echo(diagnostics, echoErrors, err);
+            err.println("***语法分析：失败。有" + diagnostics.size() + "个错误, 具体查看" + errFilename + "文件");
+            return -1;
+        }
+        out.println("***语法分析完成");
+        if (session.useCache()) {
+            out.println((result.cached() ? "***编译缓存命中，" : "***编译缓存未命中，")
+                    + String.format("耗时%.2fms", result.elapsedNanos() / 1e6));
+        }
+        return 0;
+    }
+
+    private static void echo(List<Diagnostic> diagnostics, boolean echoErrors, PrintStream err) {
+        if (echoErrors) {
+            for (Diagnostic diagnostic : diagnostics) {
+                err.println(diagnostic);
+            }
+        }
+    }
+
+    private static String baseName(String filename) {
+        int index = filename.lastIndexOf(".");
+        return index == -1 ? filename : filename.substring(0, index);
+    }
+}
@@ -0,0 +1,254 @@
+package compiler;
+
+import output.Diagnostic;
+import parser.ParserStarter;
+
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.util.*;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+import static java.nio.file.StandardWatchEventKinds.*;
+
+/**
+ * 监视模式：先编译所有源文件，然后用WatchService监视它们所在的目录，文件保存后立即重新编译。
+ * 每个文件保留上一次的源程序和编译结果，重新编译时只分析改动的行和所在的函数体，
+ * 见{@link CompilerSession#recompile(CharSequence, CharSequence, CompileResult)}。
+ * 像批量编译一样写出err文件和分析成功时的pro、var文件(不写dyd文件)，每次编译在控制台输出一行。
+ * <p>
+ * 源文件按UTF-8解码后整体交给会话，同一个文件前后两个版本的单词位置才能对应。
+ */
+public class WatchCompiler {
+    // 编辑器保存时可能分几次写入，收到事件后等这么久没有新事件再编译
+    private static final long QUIET_MILLIS = 30;
+    private static final PathMatcher SOURCE = FileSystems.getDefault().getPathMatcher("glob:**.pas");
+
+    private final List<String> patterns;
+    private final PrintStream out;
+    private final PrintStream err;
+    private final WatchService watchService;
+    private final Map<WatchKey, Path> directories = new HashMap<>();
+    // 各文件上一次编译的源程序和结果，键是规范化的路径
+    private final Map<Path, Snapshot> snapshots = new HashMap<>();
+    private int maxErrors = ParserStarter.DEFAULT_MAX_ERRORS;
+    private boolean echoErrors = true;
+    private volatile boolean closed;
+
+    /**
+     * @param patterns 与{@link BatchCompiler#collect(List)}相同：目录、glob或单个文件
+     */
+    public WatchCompiler(List<String> patterns, PrintStream out, PrintStream err) throws IOException {
+        this.patterns = new ArrayList<>(patterns);
+        this.out = out;
+        this.err = err;
+        this.watchService = FileSystems.getDefault().newWatchService();
+    }
+
+    public void setMaxErrors(int maxErrors) {
+        this.maxErrors = maxErrors;
+    }
+
+    public void setEchoErrors(boolean echoErrors) {
+        this.echoErrors = echoErrors;
+    }
+
+    /**
+     * 编译并监视，直到{@link #close()}；会话属于调用这个方法的线程
+     */
+    public void run() throws IOException {
+        CompilerSession session = new CompilerSession();
+        session.setMaxErrors(maxErrors);
+        for (String pattern : patterns) {
+            Path path = Paths.get(pattern);
+            if (Files.isDirectory(path)) {
+                registerTree(path);
+            } else if (BatchCompiler.isGlob(pattern)) {
+                registerTree(BatchCompiler.globBase(pattern));
+            } else {
+                register(path.getParent() == null ? Paths.get(".") : path.getParent());
+            }
+        }
+        List<Path> files = BatchCompiler.collect(patterns);
+        for (Path file : files) {
+            compile(session, file);
+        }
+        out.println("***监视：" + directories.size() + "个目录，" + snapshots.size() + "个源文件，按Ctrl+C退出");
+        try {
+            while (!closed) {
+                Set<Path> changed = new LinkedHashSet<>();
+                boolean overflow = false;
+                WatchKey key = watchService.take();
+                while (key != null) {
+                    overflow |= drain(key, changed);
+                    key = watchService.poll(QUIET_MILLIS, TimeUnit.MILLISECONDS);
+                }
+                if (overflow) {
+                    // 丢失了事件，重新检查所有文件，内容没变的文件不会重新编译
+                    changed.addAll(snapshots.keySet());
+                    changed.addAll(BatchCompiler.collect(patterns));
+                }
+                for (Path file : changed) {
+                    compile(session, file);
+                }
+            }
+        } catch (ClosedWatchServiceException e) {
+            // close()
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    public void close() throws IOException {
+        closed = true;
+        watchService.close();
+    }
+
+    /**
+     * 取出一个目录的事件，改动的源文件加入changed；返回是否丢失了事件
+     */
+    private boolean drain(WatchKey key, Set<Path> changed) throws IOException {
+        Path directory = directories.get(key);
+        boolean overflow = false;
+        for (WatchEvent<?> event : key.pollEvents()) {
+            if (event.kind() == OVERFLOW) {
+                overflow = true;
+                continue;
+            }
+            Path path = directory.resolve((Path) event.context());
+            if (event.kind() == ENTRY_CREATE && Files.isDirectory(path, LinkOption.NOFOLLOW_LINKS)) {
+                if (isUnderTree(path)) {
+                    // 新建的目录中可能已经有文件
+                    registerTree(path);
+                    try (Stream<Path> paths = Files.walk(path)) {
+                        paths.filter(this::isSource).forEach(changed::add);
+                    }
+                }
+            } else if (isSource(path)) {
+                changed.add(path);
+            }
+        }
+        if (!key.reset()) {
+            directories.remove(key);
+        }
+        return overflow;
+    }
+
+    private void compile(CompilerSession session, Path file) {
+        Path normalized = file.normalize();
+        byte[] bytes;
+        try {
+            bytes = Files.readAllBytes(file);
+        } catch (NoSuchFileException e) {
+            if (snapshots.remove(normalized) != null) {
+                out.println("***监视：" + normalized + " 已删除");
+            }
+            return;
+        } catch (IOException e) {
+            err.println("***监视：无法读取" + normalized + ": " + e.getMessage());
+            return;
+        }
+        String source = new String(bytes, StandardCharsets.UTF_8);
+        Snapshot previous = snapshots.get(normalized);
+        if (previous != null && previous.source.equals(source)) {
+            return;
+        }
+        long start = System.nanoTime();
+        CompileResult result = previous == null ? session.compile(source)
+                : session.recompile(previous.source, source, previous.result);
+        snapshots.put(normalized, new Snapshot(source, result));
+        try {
+            result.writeFiles(file.toString());
+        } catch (IOException e) {
+            err.println("***监视：" + e.getMessage());
+        }
+        if (echoErrors) {
+            for (Diagnostic diagnostic : result.diagnostics()) {
+                err.println(diagnostic);
+            }
+        }
+        String status;
+        List<Diagnostic> diagnostics = result.diagnostics();
+        if (diagnostics.isEmpty()) {
+            status = "成功";
+        } else if (diagnostics.get(0).phase() == Diagnostic.LEXICAL) {
+            status = "词法分析失败，有" + diagnostics.size() + "个错误";
+        } else {
+            status = "语法分析失败，有" + diagnostics.size() + "个错误";
+        }
+        out.println(String.format("***监视：%s %s，%s，分析%.2fms，共%.2fms", normalized, status,
+                previous == null ? "首次编译" : result.incremental() ? "增量分析" : "完整分析",
+                result.elapsedNanos() / 1e6, (System.nanoTime() - start) / 1e6));
+    }
+
+    private boolean isSource(Path path) {
+        for (String pattern : patterns) {
+            Path base = Paths.get(pattern);
+            if (Files.isDirectory(base)) {
+                if (isWithin(path, base) && SOURCE.matches(path)) {
+                    return true;
+                }
+            } else if (BatchCompiler.isGlob(pattern)) {
+                if (FileSystems.getDefault().getPathMatcher("glob:" + pattern).matches(path)) {
+                    return true;
+                }
+            } else if (path.normalize().equals(base.normalize())) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * path是否在某个目录或glob要递归监视的目录中
+     */
+    private boolean isUnderTree(Path path) {
+        for (String pattern : patterns) {
+            Path base = Files.isDirectory(Paths.get(pattern)) ? Paths.get(pattern)
+                    : BatchCompiler.isGlob(pattern) ? BatchCompiler.globBase(pattern) : null;
+            if (base != null && isWithin(path, base)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * 规范化之后"."和globBase("*.pas")都是空路径，表示当前目录
+     */
+    private static boolean isWithin(Path path, Path directory) {
+        Path base = directory.normalize();
+        return base.toString().isEmpty() ? !path.isAbsolute() : path.normalize().startsWith(base);
+    }
+
+    private void registerTree(Path root) throws IOException {
+        if (!Files.isDirectory(root)) {
+            return;
+        }
+        try (Stream<Path> paths = Files.walk(root)) {
+            Iterator<Path> iterator = paths.filter(p -> Files.isDirectory(p)).iterator();
+            while (iterator.hasNext()) {
+                register(iterator.next());
+            }
+        }
+    }
+
+    private void register(Path directory) throws IOException {
+        if (Files.isDirectory(directory)) {
+            // 同一目录重复注册时返回同一个WatchKey
+            directories.put(directory.register(watchService, ENTRY_CREATE, ENTRY_MODIFY, ENTRY_DELETE), directory);
+        }
+    }
+
+    private static class Snapshot {
+        private final String source;
+        private final CompileResult result;
+
+        Snapshot(String source, CompileResult result) {
+            this.source = source;
+            this.result = result;
+        }
+    }
+}
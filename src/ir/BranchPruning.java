@@ -0,0 +1,125 @@
+package ir;
+
+import java.util.Arrays;
+
+/**
+ * 条件分支裁剪：条件在编译时就能确定(两边都是常数或者是同一个操作数)的条件跳转，成立时改为JUMP，
+ * 不成立时删除，if…then…else只留下会执行的分支。然后删除没有跳转到的标号、JUMP和RETURN之后
+ * 到下一个标号之前执行不到的指令，以及跳到紧接着的标号的JUMP(中间只隔着标号也算)
+ */
+class BranchPruning implements Pass {
+    private int[] references = new int[16];
+
+    @Override
+    public String name() {
+        return "分支裁剪";
+    }
+
+    @Override
+    public int run(Ir ir) {
+        int changes = 0;
+        for (int i = 0; i < ir.size(); i++) {
+            int op = ir.op(i);
+            if (!Ir.isBranch(op)) {
+                continue;
+            }
+            int a = ir.arg1(i);
+            int b = ir.arg2(i);
+            int outcome;
+            if (a == b) {
+                outcome = op == Ir.JEQ || op == Ir.JLE || op == Ir.JGE ? 1 : 0;
+            } else if (Ir.kind(a) == Ir.CONSTANT && Ir.kind(b) == Ir.CONSTANT) {
+                outcome = holds(op, ir.constantValue(a), ir.constantValue(b)) ? 1 : 0;
+            } else {
+                continue;
+            }
+            if (outcome == 1) {
+                ir.set(i, Ir.JUMP, 0, 0, ir.result(i));
+            } else {
+                ir.delete(i);
+            }
+            changes++;
+        }
+        countReferences(ir);
+        for (int p = 0; p < ir.procedureCount(); p++) {
+            changes += sweep(ir, ir.start(p), ir.end(p));
+        }
+        return changes;
+    }
+
+    private static boolean holds(int op, int a, int b) {
+        switch (op) {
+            case Ir.JEQ:
+                return a == b;
+            case Ir.JNE:
+                return a != b;
+            case Ir.JLE:
+                return a <= b;
+            case Ir.JLT:
+                return a < b;
+            case Ir.JGE:
+                return a >= b;
+            default:
+                return a > b;
+        }
+    }
+
+    private void countReferences(Ir ir) {
+        if (references.length < ir.labelCount()) {
+            references = new int[ir.labelCount()];
+        }
+        Arrays.fill(references, 0, ir.labelCount(), 0);
+        for (int i = 0; i < ir.size(); i++) {
+            int op = ir.op(i);
+            if (op == Ir.JUMP || Ir.isBranch(op)) {
+                references[ir.result(i)]++;
+            }
+        }
+    }
+
+    private int sweep(Ir ir, int start, int end) {
+        int changes = 0;
+        boolean reachable = true;
+        int lastJump = -1;
+        for (int i = start; i < end; i++) {
+            int op = ir.op(i);
+            if (op == Ir.NOP) {
+                continue;
+            }
+            if (op == Ir.LABEL) {
+                int label = ir.result(i);
+                if (lastJump >= 0 && ir.result(lastJump) == label) {
+                    // 跳到紧接着的标号(中间只有标号)，改为顺序执行
+                    ir.delete(lastJump);
+                    references[label]--;
+                    changes++;
+                    reachable = true;
+                    lastJump = -1;
+                }
+                if (references[label] == 0) {
+                    ir.delete(i);
+                    changes++;
+                } else {
+                    reachable = true;
+                }
+                continue;
+            }
+            lastJump = -1;
+            if (!reachable) {
+                if (op == Ir.JUMP || Ir.isBranch(op)) {
+                    references[ir.result(i)]--;
+                }
+                ir.delete(i);
+                changes++;
+                continue;
+            }
+            if (op == Ir.JUMP) {
+                lastJump = i;
+                reachable = false;
+            } else if (op == Ir.RETURN) {
+                reachable = false;
+            }
+        }
+        return changes;
+    }
+}
@@ -0,0 +1,61 @@
+package ir;
+
+/**
+ * 常量折叠：两个操作数都是常数的减法、乘法在编译时算出，改为赋值；
+ * 再化简 a*1、1*a、a-0 为 a，a*0、0*a、a-a 为 0。操作数只是变量和常数，取值没有副作用。
+ * 运算按int回绕，与运行时相同
+ */
+class ConstantFolding implements Pass {
+    @Override
+    public String name() {
+        return "常量折叠";
+    }
+
+    @Override
+    public int run(Ir ir) {
+        int changes = 0;
+        for (int i = 0; i < ir.size(); i++) {
+            int op = ir.op(i);
+            if (op != Ir.SUB && op != Ir.MUL) {
+                continue;
+            }
+            int a = ir.arg1(i);
+            int b = ir.arg2(i);
+            int value = fold(ir, op, a, b);
+            if (value != 0) {
+                ir.set(i, Ir.ASSIGN, value, 0, ir.result(i));
+                changes++;
+            }
+        }
+        return changes;
+    }
+
+    /**
+     * 化简后的操作数，不能化简时返回0
+     */
+    private static int fold(Ir ir, int op, int a, int b) {
+        boolean constantA = Ir.kind(a) == Ir.CONSTANT;
+        boolean constantB = Ir.kind(b) == Ir.CONSTANT;
+        int valueA = constantA ? ir.constantValue(a) : 0;
+        int valueB = constantB ? ir.constantValue(b) : 0;
+        if (op == Ir.SUB) {
+            if (constantA && constantB) {
+                return ir.constant(valueA - valueB);
+            }
+            if (constantB && valueB == 0) {
+                return a;
+            }
+            return a == b ? ir.constant(0) : 0;
+        }
+        if (constantA && constantB) {
+            return ir.constant(valueA * valueB);
+        }
+        if (constantA && valueA == 0 || constantB && valueB == 0) {
+            return ir.constant(0);
+        }
+        if (constantB && valueB == 1) {
+            return a;
+        }
+        return constantA && valueA == 1 ? b : 0;
+    }
+}
@@ -0,0 +1,158 @@
+package ir;
+
+/**
+ * 复写传播：x := y 之后，在x、y都没有被重新赋值之前，用到x的地方直接用y，常数也随之传播。
+ * 只在基本块内传播，标号处清空；被调用的函数可能给它能访问到的变量赋值，调用之后涉及这些变量的复写都失效。
+ * 只有所属过程自己访问的变量不受调用影响：递归调用赋值的是新的活动记录。
+ * <p>
+ * 不逐个删除失效的复写：每个操作数记录被赋值的次数(版本)，复写记录建立时y的版本、所在的基本块和之前的调用次数，
+ * 使用时对照，不一致就是失效了。x := x 这样的赋值直接删除
+ */
+class CopyPropagation implements Pass {
+    // 下标：变量为变量表下标，临时变量为变量个数+编号
+    private int[] versions;
+    private int[] values;
+    private int[] valueVersions;
+    private int[] blocks;
+    private int[] callCounts;
+    // 所属过程以外的过程也访问了的变量
+    private boolean[] shared;
+    private int block;
+    private int calls;
+    private int variableCount;
+
+    @Override
+    public String name() {
+        return "复写传播";
+    }
+
+    @Override
+    public int run(Ir ir) {
+        variableCount = ir.variableCount();
+        int maxTemps = 0;
+        for (int p = 0; p < ir.procedureCount(); p++) {
+            maxTemps = Math.max(maxTemps, ir.tempCount(p));
+        }
+        int keys = variableCount + maxTemps;
+        versions = new int[keys];
+        values = new int[keys];
+        valueVersions = new int[keys];
+        blocks = new int[keys];
+        callCounts = new int[keys];
+        shared = new boolean[variableCount];
+        for (int p = 0; p < ir.procedureCount(); p++) {
+            for (int i = ir.start(p); i < ir.end(p); i++) {
+                int op = ir.op(i);
+                if (op == Ir.NOP || op == Ir.JUMP || op == Ir.LABEL) {
+                    continue;
+                }
+                if (op != Ir.CALL) {
+                    share(ir, p, ir.arg1(i));
+                }
+                share(ir, p, ir.arg2(i));
+                share(ir, p, ir.result(i));
+            }
+        }
+        block = 0;
+        calls = 0;
+        int changes = 0;
+        for (int p = 0; p < ir.procedureCount(); p++) {
+            block++;
+            for (int i = ir.start(p); i < ir.end(p); i++) {
+                int op = ir.op(i);
+                switch (op) {
+                    case Ir.NOP:
+                    case Ir.JUMP:
+                        break;
+                    case Ir.LABEL:
+                        block++;
+                        break;
+                    case Ir.ASSIGN: {
+                        int value = resolve(ir.arg1(i));
+                        int result = ir.result(i);
+                        if (value == result) {
+                            ir.delete(i);
+                            changes++;
+                            break;
+                        }
+                        if (value != ir.arg1(i)) {
+                            ir.set(i, op, value, 0, result);
+                            changes++;
+                        }
+                        int key = key(result);
+                        versions[key]++;
+                        values[key] = value;
+                        valueVersions[key] = Ir.kind(value) == Ir.CONSTANT ? 0 : versions[key(value)];
+                        blocks[key] = block;
+                        callCounts[key] = calls;
+                        break;
+                    }
+                    case Ir.CALL:
+                        calls++;
+                        define(ir.result(i));
+                        break;
+                    case Ir.READ:
+                        define(ir.result(i));
+                        break;
+                    default: {
+                        // main的RETURN没有操作数
+                        int a = ir.arg1(i) == 0 ? 0 : resolve(ir.arg1(i));
+                        int b = ir.arg2(i) == 0 ? 0 : resolve(ir.arg2(i));
+                        if (a != ir.arg1(i) || b != ir.arg2(i)) {
+                            changes += (a != ir.arg1(i) ? 1 : 0) + (b != ir.arg2(i) ? 1 : 0);
+                            ir.set(i, op, a, b, ir.result(i));
+                        }
+                        if (op == Ir.SUB || op == Ir.MUL) {
+                            define(ir.result(i));
+                        }
+                    }
+                }
+            }
+        }
+        return changes;
+    }
+
+    private void share(Ir ir, int p, int operand) {
+        if (Ir.kind(operand) == Ir.VARIABLE && ir.owner(Ir.index(operand)) != p) {
+            shared[Ir.index(operand)] = true;
+        }
+    }
+
+    private boolean isShared(int operand) {
+        return Ir.kind(operand) == Ir.VARIABLE && shared[Ir.index(operand)];
+    }
+
+    private int key(int operand) {
+        return Ir.kind(operand) == Ir.TEMP ? variableCount + Ir.index(operand) : Ir.index(operand);
+    }
+
+    /**
+     * 不是复写的赋值
+     */
+    private void define(int operand) {
+        int key = key(operand);
+        versions[key]++;
+        blocks[key] = 0;
+    }
+
+    /**
+     * operand当前可以替换成的操作数，没有有效的复写时是它自己
+     */
+    private int resolve(int operand) {
+        if (Ir.kind(operand) == Ir.CONSTANT) {
+            return operand;
+        }
+        int key = key(operand);
+        if (blocks[key] != block) {
+            return operand;
+        }
+        int value = values[key];
+        if (Ir.kind(value) != Ir.CONSTANT && versions[key(value)] != valueVersions[key]) {
+            return operand;
+        }
+        if ((isShared(operand) || isShared(value)) && callCounts[key] != calls) {
+            return operand;
+        }
+        return value;
+    }
+}
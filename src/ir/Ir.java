@@ -0,0 +1,408 @@
+package ir;
+
+import output.TableWriter;
+
+import java.io.IOException;
+import java.util.Arrays;
+
+/**
+ * 三地址中间代码：每条指令是一个四元式(op, arg1, arg2, result)，按列存放在int数组中，不为每条指令创建对象。
+ * 各过程的代码依次存放，过程p的指令是[start(p), end(p))，下标即过程ID，main为0。
+ * <p>
+ * 操作数是 种类 &lt;&lt; 24 | 编号，没有操作数时为0：
+ * <pre>
+ * TEMP      过程内的临时变量编号，从0开始
+ * VARIABLE  变量表下标，按所属过程的层次和帧内偏移寻址，见{@link #level(int)}、{@link #slot(int)}
+ * CONSTANT  常数池下标
+ * </pre>
+ * 标号和过程ID不是操作数，直接存放编号。各指令：
+ * <pre>
+ * ASSIGN   a            result   result := a
+ * SUB      a     b      result   result := a - b
+ * MUL      a     b      result   result := a * b
+ * JUMP                  label    goto label
+ * JEQ..JGT a     b      label    if a 关系 b goto label，关系与TypeCode中EQUAL..GREATER的顺序相同
+ * LABEL                 label
+ * PARAM    a                     实参
+ * CALL     procId       result   result := 调用procId，实参是之前的PARAM
+ * RETURN   a                     返回a；main没有返回值，a为0
+ * READ                  result   read(result)
+ * WRITE    a                     write(a)
+ * </pre>
+ * 优化遍(见{@link PassManager})直接修改指令，删除的指令先改为NOP，每遍结束后移除。
+ * <p>
+ * 函数的形参在帧中有自己的位置，调用时实参存入形参；函数体中与形参同名的变量说明是形参的类型说明，
+ * 函数开始处有一条把形参赋给这个变量的ASSIGN。函数名变量保存返回值，函数结束处RETURN它。
+ */
+public class Ir {
+    public static final int NOP = 0;
+    public static final int ASSIGN = 1;
+    public static final int SUB = 2;
+    public static final int MUL = 3;
+    public static final int JUMP = 4;
+    public static final int JEQ = 5;
+    public static final int JNE = 6;
+    public static final int JLE = 7;
+    public static final int JLT = 8;
+    public static final int JGE = 9;
+    public static final int JGT = 10;
+    public static final int LABEL = 11;
+    public static final int PARAM = 12;
+    public static final int CALL = 13;
+    public static final int RETURN = 14;
+    public static final int READ = 15;
+    public static final int WRITE = 16;
+
+    public static final int TEMP = 1;
+    public static final int VARIABLE = 2;
+    public static final int CONSTANT = 3;
+
+    private static final String[] OP_NAMES = {"nop", ":=", "-", "*", "j", "j=", "j<>", "j<=", "j<", "j>=", "j>",
+            "label", "param", "call", "ret", "read", "write"};
+    private static final int INITIAL_CAPACITY = 256;
+
+    private int size;
+    private int[] ops = new int[INITIAL_CAPACITY];
+    private int[] args1 = new int[INITIAL_CAPACITY];
+    private int[] args2 = new int[INITIAL_CAPACITY];
+    private int[] results = new int[INITIAL_CAPACITY];
+
+    private int constantCount;
+    private int[] constants = new int[16];
+    // 按值查常数池的开放定址表，存放 下标 + 1
+    private int[] constantSlots = new int[32];
+    private int labelCount;
+
+    // 变量：所属过程、所属过程的层次、帧内偏移
+    private final String[] variableNames;
+    private final int[] owners;
+    private final int[] levels;
+    private final int[] slots;
+
+    // 过程：代码范围、外层过程(main为-1)、层次、帧的大小(变量个数)、临时变量个数、形参和函数名变量的变量表下标(main为-1)
+    private final String[] procedureNames;
+    private final int[] parents;
+    private final int[] starts;
+    private final int[] ends;
+    private final int[] procedureLevels;
+    private final int[] frameSizes;
+    private final int[] tempCounts;
+    private final int[] params;
+    private final int[] resultVariables;
+
+    Ir(String[] variableNames, int[] owners, int[] levels, int[] slots, String[] procedureNames, int[] parents,
+       int[] procedureLevels, int[] frameSizes, int[] params, int[] resultVariables) {
+        this.variableNames = variableNames;
+        this.owners = owners;
+        this.levels = levels;
+        this.slots = slots;
+        this.procedureNames = procedureNames;
+        this.parents = parents;
+        this.procedureLevels = procedureLevels;
+        this.frameSizes = frameSizes;
+        this.params = params;
+        this.resultVariables = resultVariables;
+        starts = new int[procedureNames.length];
+        ends = new int[procedureNames.length];
+        tempCounts = new int[procedureNames.length];
+    }
+
+    public static int operand(int kind, int index) {
+        return kind << 24 | index;
+    }
+
+    public static int kind(int operand) {
+        return operand >>> 24;
+    }
+
+    public static int index(int operand) {
+        return operand & 0xffffff;
+    }
+
+    /**
+     * 条件跳转指令的关系取反，JEQ与JNE、JLE与JGT、JLT与JGE互换
+     */
+    public static int negate(int op) {
+        switch (op) {
+            case JEQ:
+                return JNE;
+            case JNE:
+                return JEQ;
+            case JLE:
+                return JGT;
+            case JLT:
+                return JGE;
+            case JGE:
+                return JLT;
+            case JGT:
+                return JLE;
+            default:
+                throw new IllegalArgumentException("不是条件跳转: " + op);
+        }
+    }
+
+    public static boolean isBranch(int op) {
+        return op >= JEQ && op <= JGT;
+    }
+
+    /**
+     * 改写第index条指令
+     */
+    public void set(int index, int op, int arg1, int arg2, int result) {
+        ops[index] = op;
+        args1[index] = arg1;
+        args2[index] = arg2;
+        results[index] = result;
+    }
+
+    /**
+     * 删除第index条指令：改为NOP，由PassManager在这一遍结束后移除
+     */
+    public void delete(int index) {
+        set(index, NOP, 0, 0, 0);
+    }
+
+    /**
+     * 移除所有NOP，过程的代码范围随之前移，返回移除的条数
+     */
+    int compact() {
+        int removed = 0;
+        int p = 0;
+        for (int i = 0; i < size; i++) {
+            while (p < starts.length && starts[p] == i) {
+                starts[p] -= removed;
+                p++;
+            }
+            if (ops[i] == NOP) {
+                removed++;
+            } else if (removed > 0) {
+                set(i - removed, ops[i], args1[i], args2[i], results[i]);
+            }
+        }
+        for (; p < starts.length; p++) {
+            starts[p] -= removed;
+        }
+        for (int q = 0; q < ends.length; q++) {
+            ends[q] = q + 1 < starts.length ? starts[q + 1] : size - removed;
+        }
+        size -= removed;
+        return removed;
+    }
+
+    /**
+     * 从帧中去掉removed中的变量(帧内偏移改为-1)，其余变量按原来的顺序重新排列偏移
+     */
+    void removeVariables(boolean[] removed) {
+        Arrays.fill(frameSizes, 0);
+        for (int v = 0; v < slots.length; v++) {
+            slots[v] = removed[v] ? -1 : frameSizes[owners[v]]++;
+        }
+    }
+
+    void setTempCount(int procId, int tempCount) {
+        tempCounts[procId] = tempCount;
+    }
+
+    int add(int op, int arg1, int arg2, int result) {
+        if (size == ops.length) {
+            int capacity = size << 1;
+            ops = Arrays.copyOf(ops, capacity);
+            args1 = Arrays.copyOf(args1, capacity);
+            args2 = Arrays.copyOf(args2, capacity);
+            results = Arrays.copyOf(results, capacity);
+        }
+        ops[size] = op;
+        args1[size] = arg1;
+        args2[size] = arg2;
+        results[size] = result;
+        return size++;
+    }
+
+    /**
+     * 常数在常数池中的操作数，相同的值不重复加入
+     */
+    public int constant(int value) {
+        int mask = constantSlots.length - 1;
+        int slot = (value * 0x9e3779b9) >>> 16 & mask;
+        for (; constantSlots[slot] != 0; slot = (slot + 1) & mask) {
+            if (constants[constantSlots[slot] - 1] == value) {
+                return operand(CONSTANT, constantSlots[slot] - 1);
+            }
+        }
+        if (constantCount == constants.length) {
+            constants = Arrays.copyOf(constants, constantCount << 1);
+        }
+        constants[constantCount++] = value;
+        constantSlots[slot] = constantCount;
+        if (constantCount * 2 > constantSlots.length) {
+            constantSlots = new int[constantSlots.length << 1];
+            mask = constantSlots.length - 1;
+            for (int i = 0; i < constantCount; i++) {
+                slot = (constants[i] * 0x9e3779b9) >>> 16 & mask;
+                while (constantSlots[slot] != 0) {
+                    slot = (slot + 1) & mask;
+                }
+                constantSlots[slot] = i + 1;
+            }
+        }
+        return operand(CONSTANT, constantCount - 1);
+    }
+
+    int newLabel() {
+        return labelCount++;
+    }
+
+    void setRange(int procId, int start, int end, int tempCount) {
+        starts[procId] = start;
+        ends[procId] = end;
+        tempCounts[procId] = tempCount;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public int op(int index) {
+        return ops[index];
+    }
+
+    public int arg1(int index) {
+        return args1[index];
+    }
+
+    public int arg2(int index) {
+        return args2[index];
+    }
+
+    public int result(int index) {
+        return results[index];
+    }
+
+    public int constantValue(int operand) {
+        return constants[index(operand)];
+    }
+
+    public int labelCount() {
+        return labelCount;
+    }
+
+    public int variableCount() {
+        return levels.length;
+    }
+
+    public String variableName(int variable) {
+        return variableNames[variable];
+    }
+
+    /**
+     * 变量所属过程的ID
+     */
+    public int owner(int variable) {
+        return owners[variable];
+    }
+
+    /**
+     * 变量所属过程的层次，main为0
+     */
+    public int level(int variable) {
+        return levels[variable];
+    }
+
+    /**
+     * 变量在所属过程的帧中的偏移，被优化去掉的变量为-1
+     */
+    public int slot(int variable) {
+        return slots[variable];
+    }
+
+    public int procedureCount() {
+        return starts.length;
+    }
+
+    public int start(int procId) {
+        return starts[procId];
+    }
+
+    public int end(int procId) {
+        return ends[procId];
+    }
+
+    /**
+     * 直接外层过程的ID，main为-1
+     */
+    public int parent(int procId) {
+        return parents[procId];
+    }
+
+    public int procedureLevel(int procId) {
+        return procedureLevels[procId];
+    }
+
+    public int frameSize(int procId) {
+        return frameSizes[procId];
+    }
+
+    public int tempCount(int procId) {
+        return tempCounts[procId];
+    }
+
+    /**
+     * 形参的变量表下标，main为-1
+     */
+    public int param(int procId) {
+        return params[procId];
+    }
+
+    /**
+     * 函数名变量(返回值)的变量表下标，main为-1
+     */
+    public int resultVariable(int procId) {
+        return resultVariables[procId];
+    }
+
+    public String procedureName(int procId) {
+        return procedureNames[procId];
+    }
+
+    /**
+     * 按过程输出四元式，变量显示为 名字(层次,偏移)，临时变量为T编号，标号为L编号
+     */
+    public void write(TableWriter out) throws IOException {
+        for (int p = 0; p < starts.length; p++) {
+            out.text("procedure ").text(procedureNames[p]).text("  level ").text(String.valueOf(procedureLevels[p]))
+                    .text("  frame ").text(String.valueOf(frameSizes[p]))
+                    .text("  temps ").text(String.valueOf(tempCounts[p])).newLine();
+            for (int i = starts[p]; i < ends[p]; i++) {
+                int op = ops[i];
+                out.right(i, 6).text("  (").text(OP_NAMES[op]).text(", ");
+                if (op == CALL) {
+                    out.text(procedureNames[args1[i]]);
+                } else {
+                    out.text(operandName(args1[i]));
+                }
+                out.text(", ").text(operandName(args2[i])).text(", ");
+                if (op == JUMP || op == LABEL || isBranch(op)) {
+                    out.text("L" + results[i]);
+                } else {
+                    out.text(operandName(results[i]));
+                }
+                out.text(")").newLine();
+            }
+        }
+        out.flush();
+    }
+
+    private String operandName(int operand) {
+        switch (kind(operand)) {
+            case TEMP:
+                return "T" + index(operand);
+            case VARIABLE:
+                int variable = index(operand);
+                return variableNames[variable] + "(" + levels[variable] + "," + slots[variable] + ")";
+            case CONSTANT:
+                return String.valueOf(constants[index(operand)]);
+            default:
+                return "_";
+        }
+    }
+}
@@ -0,0 +1,324 @@
+package ir;
+
+import parser.Ast;
+import parser.ParseResult;
+import parser.Procedure;
+import parser.Variable;
+import word.TokenStream;
+
+import java.util.Arrays;
+import java.util.List;
+
+import static constant.TypeCode.EQUAL;
+import static constant.TypeCode.THEN;
+
+/**
+ * 由语法树生成三地址代码。与语法分析一样用显式的工作栈代替递归，嵌套很深的条件语句和函数调用不会栈溢出；
+ * 表达式的值(操作数)放在另一个栈中。只能处理没有错误的分析结果
+ */
+class IrGenerator {
+    // 工作栈中的动作，每项是 动作、参数a、参数b
+    private static final int STATEMENT = 1;
+    private static final int EXPRESSION = 2;
+    private static final int BINARY = 3;
+    private static final int ASSIGN_END = 4;
+    private static final int BRANCH = 5;
+    private static final int JUMP = 6;
+    private static final int LABEL = 7;
+    private static final int CALL_END = 8;
+
+    private final Ast ast;
+    private final TokenStream tokens;
+    private final List<Procedure> procedures;
+    private final List<Variable> variables;
+    private Ir ir;
+
+    private int[] work = new int[192];
+    private int workSize;
+    private int[] values = new int[64];
+    private int valueSize;
+    private int tempCount;
+    private int[] children = new int[16];
+
+    IrGenerator(TokenStream tokens, ParseResult parseResult) {
+        this.tokens = tokens;
+        this.ast = parseResult.ast();
+        this.procedures = parseResult.procedures();
+        this.variables = parseResult.variables();
+    }
+
+    Ir generate() {
+        int variableCount = variables.size();
+        int procedureCount = procedures.size();
+        String[] variableNames = new String[variableCount];
+        int[] owners = new int[variableCount];
+        int[] levels = new int[variableCount];
+        int[] slots = new int[variableCount];
+        String[] procedureNames = new String[procedureCount];
+        int[] parents = new int[procedureCount];
+        int[] procedureLevels = new int[procedureCount];
+        int[] frameSizes = new int[procedureCount];
+        int[] params = new int[procedureCount];
+        int[] resultVariables = new int[procedureCount];
+        for (int p = 0; p < procedureCount; p++) {
+            Procedure procedure = procedures.get(p);
+            procedureNames[p] = procedure.name();
+            parents[p] = procedure.parentId();
+            procedureLevels[p] = procedure.level();
+            // 变量表中函数名变量之后紧接着是形参
+            boolean hasParam = p > 0 && procedure.lastVarOffset() > procedure.firstVarOffset();
+            params[p] = hasParam ? procedure.firstVarOffset() : -1;
+            resultVariables[p] = p > 0 ? procedure.firstVarOffset() - 1 : -1;
+        }
+        // 帧内偏移：变量在所属过程的变量中的序号；嵌套的函数说明可能夹在中间，所以不直接用offset
+        int[] aliases = new int[procedureCount];
+        Arrays.fill(aliases, -1);
+        for (int v = 0; v < variableCount; v++) {
+            Variable variable = variables.get(v);
+            int p = variable.procId();
+            variableNames[v] = variable.name();
+            owners[v] = p;
+            levels[v] = variable.level();
+            slots[v] = frameSizes[p]++;
+            if (variable.kind() == 0 && params[p] >= 0 && variable.symbol() == variables.get(params[p]).symbol()) {
+                aliases[p] = v;
+            }
+        }
+        ir = new Ir(variableNames, owners, levels, slots, procedureNames, parents, procedureLevels, frameSizes,
+                params, resultVariables);
+
+        int[] declarations = new int[procedureCount];
+        for (int node = 0; node < ast.size(); node++) {
+            if (ast.kind(node) == Ast.FUNC_DECLARE) {
+                declarations[ast.symbol(node)] = node;
+            }
+        }
+        for (int p = 0; p < procedureCount; p++) {
+            int start = ir.size();
+            tempCount = 0;
+            if (aliases[p] >= 0) {
+                ir.add(Ir.ASSIGN, variable(params[p]), 0, variable(aliases[p]));
+            }
+            pushStatements(declarations[p]);
+            run();
+            ir.add(Ir.RETURN, p > 0 ? variable(resultVariables[p]) : 0, 0, 0);
+            ir.setRange(p, start, ir.size(), tempCount);
+        }
+        return ir;
+    }
+
+    private void run() {
+        while (workSize > 0) {
+            workSize -= 3;
+            int action = work[workSize];
+            int a = work[workSize + 1];
+            int b = work[workSize + 2];
+            switch (action) {
+                case STATEMENT:
+                    statement(a);
+                    break;
+                case EXPRESSION:
+                    expression(a);
+                    break;
+                case BINARY: {
+                    int right = pop();
+                    int left = pop();
+                    int temp = newTemp();
+                    ir.add(a, left, right, temp);
+                    pushValue(temp);
+                    break;
+                }
+                case ASSIGN_END:
+                    ir.add(Ir.ASSIGN, pop(), 0, variable(a));
+                    break;
+                case BRANCH: {
+                    int right = pop();
+                    int left = pop();
+                    // 条件不成立时跳到else分支
+                    ir.add(Ir.negate(Ir.JEQ + ast.symbol(a) - EQUAL), left, right, b);
+                    break;
+                }
+                case JUMP:
+                    ir.add(Ir.JUMP, 0, 0, a);
+                    break;
+                case LABEL:
+                    ir.add(Ir.LABEL, 0, 0, a);
+                    break;
+                case CALL_END: {
+                    int argument = pop();
+                    saveVariables();
+                    ir.add(Ir.PARAM, argument, 0, 0);
+                    int temp = newTemp();
+                    ir.add(Ir.CALL, a, 0, temp);
+                    pushValue(temp);
+                    break;
+                }
+                default:
+                    throw new IllegalStateException("未知的动作: " + action);
+            }
+        }
+    }
+
+    /**
+     * 把过程说明结点中的执行语句按倒序压栈，说明语句不生成代码
+     */
+    private void pushStatements(int node) {
+        int count = collectChildren(node);
+        for (int i = count - 1; i >= 0; i--) {
+            int kind = ast.kind(children[i]);
+            if (kind != Ast.VAR_DECLARE && kind != Ast.FUNC_DECLARE) {
+                push(STATEMENT, children[i], 0);
+            }
+        }
+    }
+
+    private void statement(int node) {
+        switch (ast.kind(node)) {
+            case Ast.READ:
+                ir.add(Ir.READ, 0, 0, variable(ast.symbol(ast.firstChild(node))));
+                break;
+            case Ast.WRITE:
+                ir.add(Ir.WRITE, variable(ast.symbol(ast.firstChild(node))), 0, 0);
+                break;
+            case Ast.ASSIGN: {
+                int target = ast.firstChild(node);
+                push(ASSIGN_END, ast.symbol(target), 0);
+                push(EXPRESSION, ast.nextSibling(target), 0);
+                break;
+            }
+            case Ast.CONDITION:
+                condition(node);
+                break;
+            default:
+                throw new IllegalStateException("不是执行语句: " + ast.kind(node));
+        }
+    }
+
+    /**
+     * if 左 关系 右 then S1 else S2 =>
+     * 左、右；if not 关系 goto Lelse；S1；goto Lend；Lelse: S2；Lend:
+     * 语句可以是空的，空语句没有结点；按语句前一个单词是不是then区分两个分支
+     */
+    private void condition(int node) {
+        int compare = ast.firstChild(node);
+        int thenStatement = -1;
+        int elseStatement = -1;
+        for (int child = ast.nextSibling(compare); child >= 0; child = ast.nextSibling(child)) {
+            if (tokens.type(ast.token(child) - 1) == THEN) {
+                thenStatement = child;
+            } else {
+                elseStatement = child;
+            }
+        }
+        int end = ir.newLabel();
+        if (elseStatement >= 0) {
+            int otherwise = ir.newLabel();
+            push(LABEL, end, 0);
+            push(STATEMENT, elseStatement, 0);
+            push(LABEL, otherwise, 0);
+            push(JUMP, end, 0);
+            pushThen(compare, thenStatement, otherwise);
+        } else {
+            push(LABEL, end, 0);
+            pushThen(compare, thenStatement, end);
+        }
+    }
+
+    private void pushThen(int compare, int thenStatement, int otherwise) {
+        if (thenStatement >= 0) {
+            push(STATEMENT, thenStatement, 0);
+        }
+        int left = ast.firstChild(compare);
+        push(BRANCH, compare, otherwise);
+        push(EXPRESSION, ast.nextSibling(left), 0);
+        push(EXPRESSION, left, 0);
+    }
+
+    /**
+     * 计算表达式，值压入操作数栈。变量和常数直接作为操作数，只有一项(因子)的表达式(项)不生成指令
+     */
+    private void expression(int node) {
+        switch (ast.kind(node)) {
+            case Ast.VARIABLE:
+                pushValue(variable(ast.symbol(node)));
+                break;
+            case Ast.CONSTANT:
+                pushValue(ir.constant(ast.symbol(node)));
+                break;
+            case Ast.FUNC_CALL:
+                push(CALL_END, ast.symbol(node), 0);
+                push(EXPRESSION, ast.firstChild(node), 0);
+                break;
+            case Ast.CAL_EXPRESSION:
+            case Ast.TERM: {
+                // 依次相减(相乘)：a0 a1 op a2 op ...，倒序压栈
+                int op = ast.kind(node) == Ast.CAL_EXPRESSION ? Ir.SUB : Ir.MUL;
+                int count = collectChildren(node);
+                for (int i = count - 1; i > 0; i--) {
+                    push(BINARY, op, 0);
+                    push(EXPRESSION, children[i], 0);
+                }
+                push(EXPRESSION, children[0], 0);
+                break;
+            }
+            default:
+                throw new IllegalStateException("不是表达式: " + ast.kind(node));
+        }
+    }
+
+    /**
+     * 被调用的函数可能给操作数栈中还没有用到的变量赋值，调用前先把它们的值存入临时变量，保证按从左到右的顺序取值
+     */
+    private void saveVariables() {
+        for (int i = 0; i < valueSize; i++) {
+            if (Ir.kind(values[i]) == Ir.VARIABLE) {
+                int temp = newTemp();
+                ir.add(Ir.ASSIGN, values[i], 0, temp);
+                values[i] = temp;
+            }
+        }
+    }
+
+    /**
+     * node的子结点放入children，返回个数
+     */
+    private int collectChildren(int node) {
+        int count = 0;
+        for (int child = ast.firstChild(node); child >= 0; child = ast.nextSibling(child)) {
+            if (count == children.length) {
+                children = Arrays.copyOf(children, count << 1);
+            }
+            children[count++] = child;
+        }
+        return count;
+    }
+
+    private static int variable(int index) {
+        return Ir.operand(Ir.VARIABLE, index);
+    }
+
+    private int newTemp() {
+        return Ir.operand(Ir.TEMP, tempCount++);
+    }
+
+    private void push(int action, int a, int b) {
+        if (workSize + 3 > work.length) {
+            work = Arrays.copyOf(work, work.length << 1);
+        }
+        work[workSize] = action;
+        work[workSize + 1] = a;
+        work[workSize + 2] = b;
+        workSize += 3;
+    }
+
+    private void pushValue(int operand) {
+        if (valueSize == values.length) {
+            values = Arrays.copyOf(values, valueSize << 1);
+        }
+        values[valueSize++] = operand;
+    }
+
+    private int pop() {
+        return values[--valueSize];
+    }
+}
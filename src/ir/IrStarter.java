@@ -0,0 +1,50 @@
+package ir;
+
+import output.TableWriter;
+import parser.ParseResult;
+import word.TokenStream;
+
+import java.io.IOException;
+
+public class IrStarter {
+    private IrStarter() {
+    }
+
+    /**
+     * 由没有错误的分析结果生成三地址代码，不读写文件；tokens是分析的单词序列，用来区分条件语句的两个分支
+     */
+    public static Ir generate(TokenStream tokens, ParseResult parseResult) {
+        return new IrGenerator(tokens, parseResult).generate();
+    }
+
+    /**
+     * 命令行：生成三地址代码并写入ir文件，optimize为true时写入优化后的代码
+     */
+    public static Ir generate(String filename, TokenStream tokens, ParseResult parseResult, boolean optimize) {
+        System.out.println("***中间代码生成：" + filename);
+        Ir ir = generate(tokens, parseResult);
+        if (optimize) {
+            optimize(filename, ir);
+        }
+        int index = filename.lastIndexOf(".");
+        String irFilename = (index == -1 ? filename : filename.substring(0, index)) + ".ir";
+        try (TableWriter out = new TableWriter(irFilename)) {
+            ir.write(out);
+        } catch (IOException e) {
+            System.err.println("写入文件" + irFilename + "失败");
+            System.exit(-1);
+        }
+        System.out.println("***中间代码生成完成：" + ir.size() + "条指令");
+        return ir;
+    }
+
+    /**
+     * 命令行：运行标准的优化遍，输出每遍的改动和耗时
+     */
+    public static void optimize(String filename, Ir ir) {
+        System.out.println("***优化：" + filename);
+        PassManager passes = PassManager.standard();
+        passes.run(ir);
+        System.out.println(passes);
+    }
+}
@@ -0,0 +1,16 @@
+package ir;
+
+/**
+ * 三地址代码上的一个优化遍，由{@link PassManager}依次运行
+ */
+public interface Pass {
+    /**
+     * 报告中显示的名字
+     */
+    String name();
+
+    /**
+     * 直接修改ir，删除的指令用{@link Ir#delete(int)}标记，返回改动的个数，没有改动时返回0
+     */
+    int run(Ir ir);
+}
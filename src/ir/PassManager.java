@@ -0,0 +1,98 @@
+package ir;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * 依次运行各个优化遍，每遍之后移除删除的指令；一轮中有改动时再运行一轮，直到没有改动或达到轮数上限。
+ * 累计每个遍的改动个数、删除的指令条数和耗时
+ */
+public class PassManager {
+    public static final int DEFAULT_MAX_ROUNDS = 8;
+
+    private final List<Pass> passes = new ArrayList<>();
+    private int maxRounds = DEFAULT_MAX_ROUNDS;
+
+    private long[] changes = new long[0];
+    private long[] removed = new long[0];
+    private long[] nanos = new long[0];
+    private int rounds;
+    private int sizeBefore;
+    private int sizeAfter;
+
+    /**
+     * 常量折叠、条件分支裁剪、复写传播、消除未使用的变量
+     */
+    public static PassManager standard() {
+        return new PassManager()
+                .add(new ConstantFolding())
+                .add(new BranchPruning())
+                .add(new CopyPropagation())
+                .add(new UnusedVariableElimination());
+    }
+
+    public PassManager add(Pass pass) {
+        passes.add(pass);
+        return this;
+    }
+
+    public void setMaxRounds(int maxRounds) {
+        this.maxRounds = maxRounds;
+    }
+
+    public void run(Ir ir) {
+        int count = passes.size();
+        changes = new long[count];
+        removed = new long[count];
+        nanos = new long[count];
+        sizeBefore = ir.size();
+        rounds = 0;
+        boolean changed = true;
+        while (changed && rounds < maxRounds) {
+            changed = false;
+            rounds++;
+            for (int i = 0; i < count; i++) {
+                long start = System.nanoTime();
+                int passChanges = passes.get(i).run(ir);
+                removed[i] += ir.compact();
+                nanos[i] += System.nanoTime() - start;
+                changes[i] += passChanges;
+                changed |= passChanges > 0;
+            }
+        }
+        sizeAfter = ir.size();
+    }
+
+    public int rounds() {
+        return rounds;
+    }
+
+    public long changes(int pass) {
+        return changes[pass];
+    }
+
+    public long removed(int pass) {
+        return removed[pass];
+    }
+
+    public long nanos(int pass) {
+        return nanos[pass];
+    }
+
+    /**
+     * 每个遍一行，最后一行是合计
+     */
+    @Override
+    public String toString() {
+        StringBuilder builder = new StringBuilder();
+        long total = 0;
+        for (int i = 0; i < passes.size(); i++) {
+            total += nanos[i];
+            builder.append(String.format("***优化：%s 改动%d处，删除%d条指令，耗时%.2fms%n", passes.get(i).name(),
+                    changes[i], removed[i], nanos[i] / 1e6));
+        }
+        builder.append(String.format("***优化完成：%d条指令 -> %d条指令，%d轮，耗时%.2fms", sizeBefore, sizeAfter,
+                rounds, total / 1e6));
+        return builder.toString();
+    }
+}
@@ -0,0 +1,191 @@
+package ir;
+
+import java.util.Arrays;
+
+/**
+ * 消除未使用的变量：值从来没有被用到的临时变量和变量(任何过程中都没有读取它)，给它们赋值、计算的指令是多余的，删除；
+ * 删除后又有操作数不再被用到时继续删除。函数调用和read有副作用，保留。
+ * 之后没有任何指令再提到的变量从帧中去掉，临时变量重新编号，帧随之变小。形参和函数名变量不删除
+ */
+class UnusedVariableElimination implements Pass {
+    private int[] variableReads;
+    private int[] tempReads = new int[16];
+
+    @Override
+    public String name() {
+        return "消除未使用的变量";
+    }
+
+    @Override
+    public int run(Ir ir) {
+        int variableCount = ir.variableCount();
+        boolean[] kept = new boolean[variableCount];
+        for (int p = 1; p < ir.procedureCount(); p++) {
+            if (ir.param(p) >= 0) {
+                kept[ir.param(p)] = true;
+            }
+            kept[ir.resultVariable(p)] = true;
+        }
+        variableReads = new int[variableCount];
+        for (int i = 0; i < ir.size(); i++) {
+            countReads(ir, i, 1, true);
+        }
+        int changes = 0;
+        boolean changed = true;
+        while (changed) {
+            changed = false;
+            for (int p = 0; p < ir.procedureCount(); p++) {
+                int removed = removeDeadAssignments(ir, p, kept);
+                changes += removed;
+                changed |= removed > 0;
+            }
+        }
+        changes += removeVariables(ir, kept);
+        for (int p = 0; p < ir.procedureCount(); p++) {
+            changes += renumberTemps(ir, p);
+        }
+        return changes;
+    }
+
+    /**
+     * 倒序扫描过程p，临时变量只在定义之后使用，删除一条指令后它用到的临时变量在同一遍中就能看到
+     */
+    private int removeDeadAssignments(Ir ir, int p, boolean[] kept) {
+        int temps = ir.tempCount(p);
+        if (tempReads.length < temps) {
+            tempReads = new int[temps];
+        }
+        Arrays.fill(tempReads, 0, temps, 0);
+        for (int i = ir.start(p); i < ir.end(p); i++) {
+            countReads(ir, i, 1, false);
+        }
+        int removed = 0;
+        for (int i = ir.end(p) - 1; i >= ir.start(p); i--) {
+            int op = ir.op(i);
+            if (op != Ir.ASSIGN && op != Ir.SUB && op != Ir.MUL) {
+                continue;
+            }
+            int result = ir.result(i);
+            int index = Ir.index(result);
+            boolean unused = Ir.kind(result) == Ir.TEMP ? tempReads[index] == 0
+                    : variableReads[index] == 0 && !kept[index];
+            if (unused) {
+                countReads(ir, i, -1, true);
+                countReads(ir, i, -1, false);
+                ir.delete(i);
+                removed++;
+            }
+        }
+        return removed;
+    }
+
+    /**
+     * 第i条指令读取的操作数，variables为true时计数变量，否则计数临时变量
+     */
+    private void countReads(Ir ir, int i, int delta, boolean variables) {
+        int op = ir.op(i);
+        if (op == Ir.NOP || op == Ir.JUMP || op == Ir.LABEL || op == Ir.CALL || op == Ir.READ) {
+            return;
+        }
+        countRead(ir.arg1(i), delta, variables);
+        countRead(ir.arg2(i), delta, variables);
+    }
+
+    private void countRead(int operand, int delta, boolean variables) {
+        int kind = Ir.kind(operand);
+        if (variables && kind == Ir.VARIABLE) {
+            variableReads[Ir.index(operand)] += delta;
+        } else if (!variables && kind == Ir.TEMP) {
+            tempReads[Ir.index(operand)] += delta;
+        }
+    }
+
+    /**
+     * 没有任何指令提到的变量从帧中去掉，返回去掉的个数
+     */
+    private static int removeVariables(Ir ir, boolean[] kept) {
+        int variableCount = ir.variableCount();
+        boolean[] removed = new boolean[variableCount];
+        Arrays.fill(removed, true);
+        for (int i = 0; i < ir.size(); i++) {
+            int op = ir.op(i);
+            if (op == Ir.NOP || op == Ir.JUMP || op == Ir.LABEL) {
+                continue;
+            }
+            if (op != Ir.CALL) {
+                mention(removed, ir.arg1(i));
+            }
+            mention(removed, ir.arg2(i));
+            mention(removed, ir.result(i));
+        }
+        int count = 0;
+        for (int v = 0; v < variableCount; v++) {
+            if (kept[v]) {
+                removed[v] = false;
+            } else if (removed[v] && ir.slot(v) >= 0) {
+                count++;
+            }
+        }
+        if (count > 0) {
+            ir.removeVariables(removed);
+        }
+        return count;
+    }
+
+    private static void mention(boolean[] removed, int operand) {
+        if (Ir.kind(operand) == Ir.VARIABLE) {
+            removed[Ir.index(operand)] = false;
+        }
+    }
+
+    /**
+     * 过程p中还在使用的临时变量依次重新编号，返回减少的个数
+     */
+    private static int renumberTemps(Ir ir, int p) {
+        int temps = ir.tempCount(p);
+        int[] numbers = new int[temps];
+        Arrays.fill(numbers, -1);
+        int count = 0;
+        for (int i = ir.start(p); i < ir.end(p); i++) {
+            int op = ir.op(i);
+            if (op == Ir.NOP || op == Ir.JUMP || op == Ir.LABEL) {
+                continue;
+            }
+            if (op != Ir.CALL) {
+                count = number(numbers, ir.arg1(i), count);
+            }
+            count = number(numbers, ir.arg2(i), count);
+            // 条件跳转的结果是标号
+            if (!Ir.isBranch(op)) {
+                count = number(numbers, ir.result(i), count);
+            }
+        }
+        if (count == temps) {
+            return 0;
+        }
+        for (int i = ir.start(p); i < ir.end(p); i++) {
+            int op = ir.op(i);
+            if (op == Ir.NOP || op == Ir.JUMP || op == Ir.LABEL) {
+                continue;
+            }
+            ir.set(i, op, op == Ir.CALL ? ir.arg1(i) : renumber(numbers, ir.arg1(i)), renumber(numbers, ir.arg2(i)),
+                    Ir.isBranch(op) ? ir.result(i) : renumber(numbers, ir.result(i)));
+        }
+        ir.setTempCount(p, count);
+        return temps - count;
+    }
+
+    /**
+     * 第一次出现的临时变量编为count号，返回下一个编号
+     */
+    private static int number(int[] numbers, int operand, int count) {
+        if (Ir.kind(operand) == Ir.TEMP && numbers[Ir.index(operand)] < 0) {
+            numbers[Ir.index(operand)] = count++;
+        }
+        return count;
+    }
+
+    private static int renumber(int[] numbers, int operand) {
+        return Ir.kind(operand) == Ir.TEMP ? Ir.operand(Ir.TEMP, numbers[Ir.index(operand)]) : operand;
+    }
+}
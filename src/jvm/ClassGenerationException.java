@@ -0,0 +1,12 @@
+package jvm;
+
+/**
+ * 程序超出了class文件的限制，不能生成：方法的代码超过64KB、常量池超过65535项等
+ */
+public class ClassGenerationException extends RuntimeException {
+    private static final long serialVersionUID = 1L;
+
+    public ClassGenerationException(String message) {
+        super(message);
+    }
+}
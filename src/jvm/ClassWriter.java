@@ -0,0 +1,193 @@
+package jvm;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * 最简单的class文件写出器：常量池、字段、方法和Code属性，版本49(Java 5)，不需要StackMapTable，
+ * 由类型推导的校验器校验。只支持生成的程序用到的常量种类
+ */
+class ClassWriter {
+    static final int VERSION = 49;
+
+    static final int ACC_PUBLIC = 0x0001;
+    static final int ACC_PRIVATE = 0x0002;
+    static final int ACC_STATIC = 0x0008;
+    static final int ACC_FINAL = 0x0010;
+    static final int ACC_SUPER = 0x0020;
+
+    private static final int CONSTANT_UTF8 = 1;
+    private static final int CONSTANT_INTEGER = 3;
+    private static final int CONSTANT_CLASS = 7;
+    private static final int CONSTANT_FIELDREF = 9;
+    private static final int CONSTANT_METHODREF = 10;
+    private static final int CONSTANT_INTERFACE_METHODREF = 11;
+    private static final int CONSTANT_NAME_AND_TYPE = 12;
+
+    private final ByteArrayOutputStream poolBytes = new ByteArrayOutputStream();
+    private final DataOutputStream pool = new DataOutputStream(poolBytes);
+    // 常量的 种类+内容 -> 常量池下标，相同的常量只加入一次
+    private final Map<String, Integer> constants = new HashMap<>();
+    private int poolCount = 1;
+
+    private final int thisClass;
+    private final int superClass;
+    private final int[] interfaces;
+    private final ByteArrayOutputStream fields = new ByteArrayOutputStream();
+    private int fieldCount;
+    private final List<MethodWriter> methods = new ArrayList<>();
+    private final int codeName;
+
+    ClassWriter(String name, String superName, String... interfaceNames) {
+        thisClass = classConstant(name);
+        superClass = classConstant(superName);
+        interfaces = new int[interfaceNames.length];
+        for (int i = 0; i < interfaceNames.length; i++) {
+            interfaces[i] = classConstant(interfaceNames[i]);
+        }
+        codeName = utf8("Code");
+    }
+
+    void field(int access, String name, String descriptor) {
+        DataOutputStream out = new DataOutputStream(fields);
+        try {
+            out.writeShort(access);
+            out.writeShort(utf8(name));
+            out.writeShort(utf8(descriptor));
+            out.writeShort(0);
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+        fieldCount++;
+    }
+
+    MethodWriter method(int access, String name, String descriptor) {
+        MethodWriter method = new MethodWriter(this, access, utf8(name), utf8(descriptor));
+        methods.add(method);
+        return method;
+    }
+
+    byte[] toByteArray() {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bytes);
+        try {
+            out.writeInt(0xCAFEBABE);
+            out.writeShort(0);
+            out.writeShort(VERSION);
+            if (poolCount > 0xffff) {
+                throw new ClassGenerationException("常量池超过65535项");
+            }
+            out.writeShort(poolCount);
+            poolBytes.writeTo(out);
+            out.writeShort(ACC_PUBLIC | ACC_FINAL | ACC_SUPER);
+            out.writeShort(thisClass);
+            out.writeShort(superClass);
+            out.writeShort(interfaces.length);
+            for (int i : interfaces) {
+                out.writeShort(i);
+            }
+            out.writeShort(fieldCount);
+            fields.writeTo(out);
+            out.writeShort(methods.size());
+            for (MethodWriter method : methods) {
+                method.write(out, codeName);
+            }
+            out.writeShort(0);
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+        return bytes.toByteArray();
+    }
+
+    int utf8(String value) {
+        String key = "U" + value;
+        Integer index = constants.get(key);
+        if (index != null) {
+            return index;
+        }
+        try {
+            pool.writeByte(CONSTANT_UTF8);
+            pool.writeUTF(value);
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+        return add(key);
+    }
+
+    int integerConstant(int value) {
+        String key = "I" + value;
+        Integer index = constants.get(key);
+        if (index != null) {
+            return index;
+        }
+        write(CONSTANT_INTEGER, value >>> 16, value & 0xffff);
+        return add(key);
+    }
+
+    int classConstant(String name) {
+        String key = "C" + name;
+        Integer index = constants.get(key);
+        if (index != null) {
+            return index;
+        }
+        int nameIndex = utf8(name);
+        try {
+            pool.writeByte(CONSTANT_CLASS);
+            pool.writeShort(nameIndex);
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+        return add(key);
+    }
+
+    int fieldConstant(String owner, String name, String descriptor) {
+        return memberConstant(CONSTANT_FIELDREF, owner, name, descriptor);
+    }
+
+    int methodConstant(String owner, String name, String descriptor) {
+        return memberConstant(CONSTANT_METHODREF, owner, name, descriptor);
+    }
+
+    int interfaceMethodConstant(String owner, String name, String descriptor) {
+        return memberConstant(CONSTANT_INTERFACE_METHODREF, owner, name, descriptor);
+    }
+
+    private int memberConstant(int tag, String owner, String name, String descriptor) {
+        String key = tag + owner + "." + name + ":" + descriptor;
+        Integer index = constants.get(key);
+        if (index != null) {
+            return index;
+        }
+        int ownerIndex = classConstant(owner);
+        String typeKey = "N" + name + ":" + descriptor;
+        Integer nameAndType = constants.get(typeKey);
+        if (nameAndType == null) {
+            int nameIndex = utf8(name);
+            int descriptorIndex = utf8(descriptor);
+            write(CONSTANT_NAME_AND_TYPE, nameIndex, descriptorIndex);
+            nameAndType = add(typeKey);
+        }
+        write(tag, ownerIndex, nameAndType);
+        return add(key);
+    }
+
+    private void write(int tag, int first, int second) {
+        try {
+            pool.writeByte(tag);
+            pool.writeShort(first);
+            pool.writeShort(second);
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private int add(String key) {
+        constants.put(key, poolCount);
+        return poolCount++;
+    }
+}
@@ -0,0 +1,403 @@
+package jvm;
+
+import ir.Ir;
+
+import java.util.Arrays;
+
+import static jvm.ClassWriter.ACC_FINAL;
+import static jvm.ClassWriter.ACC_PRIVATE;
+import static jvm.ClassWriter.ACC_PUBLIC;
+import static jvm.ClassWriter.ACC_STATIC;
+import static jvm.MethodWriter.*;
+
+/**
+ * 由三地址代码生成class文件。每个过程是一个静态方法 int 名字$ID(int 实参)，main是 void main$0()；
+ * 变量和临时变量是方法的局部变量。被内层过程访问的变量做成静态字段，所属过程进入时把字段的旧值保存在
+ * 局部变量中并清零，返回前恢复，内层过程访问的总是所属过程最近的一次活动，与解释器的display相同。
+ * <p>
+ * 分层执行时只编译从一个过程出发能调用到的过程(见{@link #region(Ir, int)})，类实现CompiledProcedure
+ */
+class JvmCompiler {
+    private static final String OBJECT = "java/lang/Object";
+    private static final String READER = "vm/IntReader";
+    private static final String WRITER = "vm/IntWriter";
+    // JEQ..JGT对应的JVM条件跳转
+    private static final int[] BRANCHES = {IF_ICMPEQ, IF_ICMPNE, IF_ICMPLE, IF_ICMPLT, IF_ICMPGE, IF_ICMPGT};
+
+    private final Ir ir;
+    private final String className;
+    private final int entry;
+    // 要生成方法的过程
+    private final boolean[] included;
+    private ClassWriter writer;
+
+    // 被内层过程访问、做成静态字段的变量
+    private final boolean[] fields;
+    private final int[] fieldConstants;
+    // 变量在所属过程的方法中的局部变量下标；字段变量是保存旧值的局部变量
+    private final int[] locals;
+    // 按所属过程排列的变量，过程p的变量是ordered[firsts[p]..firsts[p+1])
+    private final int[] ordered;
+    private final int[] firsts;
+    private final int[] methodConstants;
+    private int readerField;
+    private int writerField;
+
+    // 当前过程
+    private int procedure;
+    private int tempBase;
+
+    JvmCompiler(Ir ir, String className) {
+        this(ir, className, 0, null);
+    }
+
+    /**
+     * region为null时生成整个程序，否则只生成region中的过程，由entry进入
+     */
+    JvmCompiler(Ir ir, String className, int entry, boolean[] region) {
+        this.ir = ir;
+        this.className = className;
+        this.entry = entry;
+        int variableCount = ir.variableCount();
+        int procedureCount = ir.procedureCount();
+        fields = new boolean[variableCount];
+        fieldConstants = new int[variableCount];
+        locals = new int[variableCount];
+        ordered = new int[variableCount];
+        firsts = new int[procedureCount + 1];
+        methodConstants = new int[procedureCount];
+        if (region == null) {
+            region = new boolean[procedureCount];
+            Arrays.fill(region, true);
+        }
+        included = region;
+        // 优化时从帧中去掉的变量不再分配局部变量
+        for (int v = 0; v < variableCount; v++) {
+            if (ir.slot(v) >= 0) {
+                firsts[ir.owner(v) + 1]++;
+            }
+        }
+        for (int p = 0; p < procedureCount; p++) {
+            firsts[p + 1] += firsts[p];
+        }
+        int[] next = firsts.clone();
+        for (int v = 0; v < variableCount; v++) {
+            if (ir.slot(v) >= 0) {
+                ordered[next[ir.owner(v)]++] = v;
+            }
+        }
+    }
+
+    /**
+     * 从entry出发能调用到的过程；其中有过程访问了不在其中、也不在entry之内的过程的变量时返回null。
+     * 这样的变量最近的活动可能在解释器中，编译好的代码看不到它的值
+     */
+    static boolean[] region(Ir ir, int entry) {
+        boolean[] region = new boolean[ir.procedureCount()];
+        int[] work = new int[region.length];
+        int size = 0;
+        region[entry] = true;
+        work[size++] = entry;
+        while (size > 0) {
+            int p = work[--size];
+            for (int i = ir.start(p); i < ir.end(p); i++) {
+                int op = ir.op(i);
+                if (op == Ir.CALL) {
+                    if (!region[ir.arg1(i)]) {
+                        region[ir.arg1(i)] = true;
+                        work[size++] = ir.arg1(i);
+                    }
+                    continue;
+                }
+                if (!visible(ir, ir.arg1(i), p, entry) || !visible(ir, ir.arg2(i), p, entry)
+                        || op != Ir.JUMP && op != Ir.LABEL && !Ir.isBranch(op)
+                        && !visible(ir, ir.result(i), p, entry)) {
+                    return null;
+                }
+            }
+        }
+        return region;
+    }
+
+    /**
+     * 过程p中的操作数：p自己的变量，或者entry及其内层过程的变量
+     */
+    private static boolean visible(Ir ir, int operand, int p, int entry) {
+        if (Ir.kind(operand) != Ir.VARIABLE) {
+            return true;
+        }
+        int owner = ir.owner(Ir.index(operand));
+        if (owner == p) {
+            return true;
+        }
+        for (; owner >= 0; owner = ir.parent(owner)) {
+            if (owner == entry) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    byte[] compile() {
+        boolean program = entry == 0;
+        writer = new ClassWriter(className, OBJECT, program ? "jvm/Program" : "vm/CompiledProcedure");
+        findFields();
+        writer.field(ACC_PRIVATE | ACC_STATIC, "in", "L" + READER + ";");
+        writer.field(ACC_PRIVATE | ACC_STATIC, "out", "L" + WRITER + ";");
+        readerField = writer.fieldConstant(className, "in", "L" + READER + ";");
+        writerField = writer.fieldConstant(className, "out", "L" + WRITER + ";");
+        for (int v = 0; v < fields.length; v++) {
+            if (fields[v] && included[ir.owner(v)]) {
+                String name = ir.variableName(v) + "$" + v;
+                writer.field(ACC_PRIVATE | ACC_STATIC, name, "I");
+                fieldConstants[v] = writer.fieldConstant(className, name, "I");
+            }
+        }
+        for (int p = 0; p < methodConstants.length; p++) {
+            if (included[p]) {
+                methodConstants[p] = writer.methodConstant(className, methodName(p), descriptor(p));
+            }
+        }
+        constructor();
+        if (program) {
+            runMethod();
+            mainMethod();
+        } else {
+            callMethod();
+        }
+        for (int p = 0; p < methodConstants.length; p++) {
+            if (!included[p]) {
+                continue;
+            }
+            MethodWriter method = writer.method(ACC_PRIVATE | ACC_STATIC, methodName(p), descriptor(p));
+            procedure(p, method);
+            if (method.length() > Short.MAX_VALUE) {
+                // 条件跳转的16位偏移可能不够
+                method.reset(true);
+                procedure(p, method);
+            }
+        }
+        return writer.toByteArray();
+    }
+
+    private String methodName(int p) {
+        return ir.procedureName(p) + "$" + p;
+    }
+
+    private static String descriptor(int p) {
+        return p == 0 ? "()V" : "(I)I";
+    }
+
+    private void findFields() {
+        for (int p = 0; p < methodConstants.length; p++) {
+            if (!included[p]) {
+                continue;
+            }
+            int level = ir.procedureLevel(p);
+            for (int i = ir.start(p); i < ir.end(p); i++) {
+                int op = ir.op(i);
+                if (op != Ir.CALL) {
+                    findField(ir.arg1(i), level);
+                }
+                findField(ir.arg2(i), level);
+                if (op != Ir.JUMP && op != Ir.LABEL && !Ir.isBranch(op)) {
+                    findField(ir.result(i), level);
+                }
+            }
+        }
+    }
+
+    private void findField(int operand, int level) {
+        if (Ir.kind(operand) == Ir.VARIABLE && ir.level(Ir.index(operand)) != level) {
+            fields[Ir.index(operand)] = true;
+        }
+    }
+
+    private void constructor() {
+        MethodWriter method = writer.method(ACC_PUBLIC, "<init>", "()V");
+        method.aload(0);
+        method.member(INVOKESPECIAL, writer.methodConstant(OBJECT, "<init>", "()V"), -1);
+        method.op(RETURN, 0);
+        method.setMaxLocals(1);
+    }
+
+    /**
+     * Program.run：保存输入输出后调用main
+     */
+    private void runMethod() {
+        MethodWriter method = writer.method(ACC_PUBLIC | ACC_FINAL, "run", "(L" + READER + ";L" + WRITER + ";)V");
+        method.aload(1);
+        method.member(PUTSTATIC, readerField, -1);
+        method.aload(2);
+        method.member(PUTSTATIC, writerField, -1);
+        method.member(INVOKESTATIC, methodConstants[0], 0);
+        method.op(RETURN, 0);
+        method.setMaxLocals(3);
+    }
+
+    /**
+     * CompiledProcedure.call：保存输入输出后调用entry
+     */
+    private void callMethod() {
+        MethodWriter method = writer.method(ACC_PUBLIC | ACC_FINAL, "call", "(IL" + READER + ";L" + WRITER + ";)I");
+        method.aload(2);
+        method.member(PUTSTATIC, readerField, -1);
+        method.aload(3);
+        method.member(PUTSTATIC, writerField, -1);
+        method.iload(1);
+        method.member(INVOKESTATIC, methodConstants[entry], 0);
+        method.op(IRETURN, -1);
+        method.setMaxLocals(4);
+    }
+
+    /**
+     * 可以用java命令直接运行：读标准输入，写标准输出
+     */
+    private void mainMethod() {
+        MethodWriter method = writer.method(ACC_PUBLIC | ACC_STATIC, "main", "([Ljava/lang/String;)V");
+        method.member(NEW, writer.classConstant(READER), 1);
+        method.op(DUP, 1);
+        method.member(GETSTATIC, writer.fieldConstant("java/lang/System", "in", "Ljava/io/InputStream;"), 1);
+        method.member(INVOKESPECIAL, writer.methodConstant(READER, "<init>", "(Ljava/io/InputStream;)V"), -2);
+        method.member(PUTSTATIC, readerField, -1);
+        method.member(NEW, writer.classConstant(WRITER), 1);
+        method.op(DUP, 1);
+        method.member(GETSTATIC, writer.fieldConstant("java/lang/System", "out", "Ljava/io/PrintStream;"), 1);
+        method.member(INVOKESPECIAL, writer.methodConstant(WRITER, "<init>", "(Ljava/io/OutputStream;)V"), -2);
+        method.member(PUTSTATIC, writerField, -1);
+        method.member(INVOKESTATIC, methodConstants[0], 0);
+        method.member(GETSTATIC, writerField, 1);
+        method.member(INVOKEVIRTUAL, writer.methodConstant(WRITER, "flush", "()V"), -1);
+        method.op(RETURN, 0);
+        method.setMaxLocals(1);
+    }
+
+    private void procedure(int p, MethodWriter method) {
+        procedure = p;
+        int param = ir.param(p);
+        // 函数的局部变量0是实参
+        int next = p > 0 ? 1 : 0;
+        for (int i = firsts[p]; i < firsts[p + 1]; i++) {
+            int v = ordered[i];
+            locals[v] = v == param && !fields[v] ? 0 : next++;
+        }
+        tempBase = next;
+        method.setMaxLocals(next + ir.tempCount(p));
+        // 变量初值为0，形参为实参
+        for (int i = firsts[p]; i < firsts[p + 1]; i++) {
+            int v = ordered[i];
+            if (fields[v]) {
+                method.member(GETSTATIC, fieldConstants[v], 1);
+                method.istore(locals[v]);
+                if (v == param) {
+                    method.iload(0);
+                } else {
+                    method.intConstant(0);
+                }
+                method.member(PUTSTATIC, fieldConstants[v], -1);
+            } else if (v != param) {
+                method.intConstant(0);
+                method.istore(locals[v]);
+            }
+        }
+        for (int i = ir.start(p); i < ir.end(p); i++) {
+            instruction(method, i);
+        }
+    }
+
+    private void instruction(MethodWriter method, int i) {
+        int op = ir.op(i);
+        int a = ir.arg1(i);
+        int b = ir.arg2(i);
+        int result = ir.result(i);
+        switch (op) {
+            case Ir.ASSIGN:
+                load(method, a);
+                store(method, result);
+                break;
+            case Ir.SUB:
+            case Ir.MUL:
+                load(method, a);
+                load(method, b);
+                method.op(op == Ir.SUB ? ISUB : IMUL, -1);
+                store(method, result);
+                break;
+            case Ir.JUMP:
+                method.jump(GOTO, result);
+                break;
+            case Ir.LABEL:
+                method.mark(result);
+                break;
+            case Ir.PARAM:
+                load(method, a);
+                break;
+            case Ir.CALL:
+                method.member(INVOKESTATIC, methodConstants[a], 0);
+                store(method, result);
+                break;
+            case Ir.RETURN:
+                if (a != 0) {
+                    load(method, a);
+                }
+                // 恢复字段变量的旧值
+                for (int j = firsts[procedure]; j < firsts[procedure + 1]; j++) {
+                    int v = ordered[j];
+                    if (fields[v]) {
+                        method.iload(locals[v]);
+                        method.member(PUTSTATIC, fieldConstants[v], -1);
+                    }
+                }
+                method.op(a != 0 ? IRETURN : RETURN, a != 0 ? -1 : 0);
+                break;
+            case Ir.READ:
+                method.member(GETSTATIC, readerField, 1);
+                method.member(INVOKEVIRTUAL, writer.methodConstant(READER, "nextInt", "()I"), 0);
+                store(method, result);
+                break;
+            case Ir.WRITE:
+                method.member(GETSTATIC, writerField, 1);
+                load(method, a);
+                method.member(INVOKEVIRTUAL, writer.methodConstant(WRITER, "write", "(I)V"), -2);
+                break;
+            default:
+                if (!Ir.isBranch(op)) {
+                    throw new IllegalStateException("未知的指令: " + op);
+                }
+                load(method, a);
+                load(method, b);
+                method.jump(BRANCHES[op - Ir.JEQ], result);
+        }
+    }
+
+    private void load(MethodWriter method, int operand) {
+        int index = Ir.index(operand);
+        switch (Ir.kind(operand)) {
+            case Ir.CONSTANT:
+                method.intConstant(ir.constantValue(operand));
+                break;
+            case Ir.TEMP:
+                method.iload(tempBase + index);
+                break;
+            case Ir.VARIABLE:
+                if (fields[index]) {
+                    method.member(GETSTATIC, fieldConstants[index], 1);
+                } else {
+                    method.iload(locals[index]);
+                }
+                break;
+            default:
+                throw new IllegalStateException("没有操作数");
+        }
+    }
+
+    private void store(MethodWriter method, int operand) {
+        int index = Ir.index(operand);
+        if (Ir.kind(operand) == Ir.TEMP) {
+            method.istore(tempBase + index);
+        } else if (fields[index]) {
+            method.member(PUTSTATIC, fieldConstants[index], -1);
+        } else {
+            method.istore(locals[index]);
+        }
+    }
+}
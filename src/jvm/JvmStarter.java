@@ -0,0 +1,244 @@
+package jvm;
+
+import ir.Ir;
+import vm.CompiledProcedure;
+import vm.IntReader;
+import vm.IntWriter;
+import vm.Interpreter;
+import vm.Promoter;
+import vm.VmException;
+import vm.VmStarter;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Arrays;
+
+public class JvmStarter {
+    public static final int DEFAULT_TIER_THRESHOLD = 1000;
+    // 运行生成的代码的线程栈大小，递归调用都在JVM栈上
+    private static final long STACK_SIZE = 1L << 30;
+
+    private JvmStarter() {
+    }
+
+    /**
+     * 由中间代码生成class文件的内容，类在默认包中
+     */
+    public static byte[] compile(Ir ir, String className) {
+        return new JvmCompiler(ir, className).compile();
+    }
+
+    /**
+     * 在本进程中加载生成的类。每次用新的类加载器，同名的类可以加载多次
+     */
+    public static Program load(String className, byte[] classFile) {
+        return (Program) instantiate(className, classFile);
+    }
+
+    static Object instantiate(String className, byte[] classFile) {
+        try {
+            Class<?> type = new ProgramLoader(JvmStarter.class.getClassLoader()).define(className, classFile);
+            return type.getDeclaredConstructor().newInstance();
+        } catch (ReflectiveOperationException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * 源文件名去掉目录和扩展名，不能用作类名的字符换成_
+     */
+    public static String className(String filename) {
+        String name = Paths.get(filename).getFileName().toString();
+        int index = name.lastIndexOf('.');
+        if (index > 0) {
+            name = name.substring(0, index);
+        }
+        StringBuilder builder = new StringBuilder(name.length() + 1);
+        if (name.isEmpty() || !Character.isJavaIdentifierStart(name.charAt(0))) {
+            builder.append('_');
+        }
+        for (int i = 0; i < name.length(); i++) {
+            char c = name.charAt(i);
+            builder.append(Character.isJavaIdentifierPart(c) ? c : '_');
+        }
+        return builder.toString();
+    }
+
+    /**
+     * 命令行：生成class文件写在源文件旁边，加载后把main连续运行times次，输入输出与{@link VmStarter#run}相同
+     */
+    public static void run(String filename, Ir ir, int times) {
+        System.out.println("***生成class文件：" + filename);
+        String className = className(filename);
+        byte[] classFile = generate(className, ir);
+        Path parent = Paths.get(filename).toAbsolutePath().getParent();
+        Path classPath = parent.resolve(className + ".class");
+        try {
+            Files.write(classPath, classFile);
+        } catch (IOException e) {
+            System.err.println("写出class文件失败: " + classPath);
+            System.exit(-1);
+        }
+        System.out.println("***生成class文件完成：" + classPath.getFileName() + "，" + classFile.length + "字节");
+        System.out.println("***运行：" + filename);
+        final Program program = load(className, classFile);
+        final IntReader in = new IntReader(System.in);
+        final IntWriter out = new IntWriter(System.out);
+        long elapsed = execute(() -> {
+            for (int i = 0; i < times; i++) {
+                program.run(in, out);
+            }
+        }, out);
+        out.flush();
+        System.out.println(String.format("***运行：%d次，耗时%.1fms", times, elapsed / 1e6));
+    }
+
+    /**
+     * 命令行：分层执行，先在解释器上运行，调用次数与回边次数之和达到threshold的过程在后台编译成class，
+     * 之后的调用改为调用生成的代码。提升的过程输出到标准错误，不与程序的输出混在一起
+     */
+    public static void runTiered(String filename, Ir ir, int times, int threshold) {
+        System.out.println("***分层运行：" + filename + "，阈值" + threshold);
+        Interpreter interpreter = new Interpreter(VmStarter.compile(ir));
+        TieredCompiler compiler = new TieredCompiler(ir, interpreter, className(filename), System.err);
+        interpreter.setTiering(compiler, threshold);
+        IntReader in = new IntReader(System.in);
+        IntWriter out = new IntWriter(System.out);
+        long elapsed = execute(() -> {
+            for (int i = 0; i < times; i++) {
+                interpreter.run(in, out);
+            }
+        }, out);
+        compiler.shutdown();
+        out.flush();
+        System.out.println(interpreter);
+        System.out.println(String.format("***分层：提升%d个过程，%d次调用进入生成的代码，共耗时%.1fms",
+                compiler.promotions(), interpreter.compiledCalls(), elapsed / 1e6));
+    }
+
+    /**
+     * 同步提升：过程达到阈值时在解释器的线程上立即生成class并安装，不输出提升的过程。
+     * 解释执行和生成的代码从第一次达到阈值起就交替执行，供差分测试使用
+     */
+    public static Promoter synchronousPromoter(Ir ir, Interpreter interpreter, String className) {
+        return procedure -> {
+            boolean[] region = JvmCompiler.region(ir, procedure);
+            if (region != null) {
+                String name = className + "$" + procedure;
+                byte[] classFile = new JvmCompiler(ir, name, procedure, region).compile();
+                interpreter.install(procedure, (CompiledProcedure) instantiate(name, classFile));
+            }
+        };
+    }
+
+    /**
+     * 命令行：读入全部标准输入，分别在解释器和生成的类上各运行times次，每次使用相同的输入，
+     * 比较两者的输出，输出各自最快一次的耗时
+     */
+    public static void benchmark(String filename, Ir ir, int times) {
+        System.out.println("***基准测试：" + filename);
+        byte[] input = readAll(System.in);
+        Interpreter interpreter = new Interpreter(VmStarter.compile(ir));
+        Program program = load(className(filename), generate(className(filename), ir));
+        ByteArrayOutputStream expected = new ByteArrayOutputStream();
+        ByteArrayOutputStream actual = new ByteArrayOutputStream();
+        long[] best = {Long.MAX_VALUE, Long.MAX_VALUE};
+        execute(() -> {
+            for (int i = 0; i < times; i++) {
+                expected.reset();
+                IntWriter out = new IntWriter(expected);
+                long start = System.nanoTime();
+                interpreter.run(new IntReader(new ByteArrayInputStream(input)), out);
+                best[0] = Math.min(best[0], System.nanoTime() - start);
+                out.flush();
+            }
+            for (int i = 0; i < times; i++) {
+                actual.reset();
+                IntWriter out = new IntWriter(actual);
+                long start = System.nanoTime();
+                program.run(new IntReader(new ByteArrayInputStream(input)), out);
+                best[1] = Math.min(best[1], System.nanoTime() - start);
+                out.flush();
+            }
+        }, null);
+        if (!Arrays.equals(expected.toByteArray(), actual.toByteArray())) {
+            System.err.println("***基准测试：解释器与class文件的输出不同");
+            System.exit(-1);
+        }
+        System.out.println(String.format("***基准测试：各运行%d次，最快一次 解释器%.2fms，class文件%.2fms，快%.1f倍",
+                times, best[0] / 1e6, best[1] / 1e6, (double) best[0] / best[1]));
+        System.out.println(String.format("***基准测试：解释器%.0f指令/秒，%.0f调用/秒",
+                interpreter.instructions() / (interpreter.elapsedNanos() / 1e9),
+                interpreter.calls() / (interpreter.elapsedNanos() / 1e9)));
+    }
+
+    private static byte[] generate(String className, Ir ir) {
+        try {
+            return compile(ir, className);
+        } catch (ClassGenerationException e) {
+            System.err.println("***生成class文件失败：" + e.getMessage());
+            System.exit(-1);
+            return null;
+        }
+    }
+
+    /**
+     * 在栈足够大的线程上运行，返回耗时；运行错误时输出错误并退出
+     */
+    private static long execute(Runnable task, IntWriter out) {
+        Throwable[] error = new Throwable[1];
+        long start = System.nanoTime();
+        Thread thread = new Thread(null, () -> {
+            try {
+                task.run();
+            } catch (VmException | StackOverflowError e) {
+                error[0] = e;
+            }
+        }, "program", STACK_SIZE);
+        thread.start();
+        try {
+            thread.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        long elapsed = System.nanoTime() - start;
+        if (error[0] != null) {
+            if (out != null) {
+                out.flush();
+            }
+            System.err.println("***运行错误：" + (error[0] instanceof StackOverflowError
+                    ? "递归太深，超出了线程栈" : error[0].getMessage()));
+            System.exit(-1);
+        }
+        return elapsed;
+    }
+
+    private static byte[] readAll(InputStream in) {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        byte[] buffer = new byte[1 << 16];
+        try {
+            for (int n; (n = in.read(buffer)) > 0; ) {
+                bytes.write(buffer, 0, n);
+            }
+        } catch (IOException e) {
+            System.err.println("读取标准输入失败: " + e.getMessage());
+            System.exit(-1);
+        }
+        return bytes.toByteArray();
+    }
+
+    private static class ProgramLoader extends ClassLoader {
+        ProgramLoader(ClassLoader parent) {
+            super(parent);
+        }
+
+        Class<?> define(String name, byte[] classFile) {
+            return defineClass(name, classFile, 0, classFile.length);
+        }
+    }
+}
@@ -0,0 +1,239 @@
+package jvm;
+
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+
+/**
+ * 一个方法的Code属性：写入指令时记录操作数栈的深度，跳转目标用标号，写出时回填偏移。
+ * 条件跳转的偏移只有16位，方法超过32KB时用长跳转重新生成(见{@link #reset(boolean)})
+ */
+class MethodWriter {
+    static final int ICONST_M1 = 0x02;
+    static final int ICONST_0 = 0x03;
+    static final int BIPUSH = 0x10;
+    static final int SIPUSH = 0x11;
+    static final int LDC = 0x12;
+    static final int LDC_W = 0x13;
+    static final int ILOAD = 0x15;
+    static final int ALOAD = 0x19;
+    static final int ILOAD_0 = 0x1a;
+    static final int ALOAD_0 = 0x2a;
+    static final int ISTORE = 0x36;
+    static final int ISTORE_0 = 0x3b;
+    static final int DUP = 0x59;
+    static final int ISUB = 0x64;
+    static final int IMUL = 0x68;
+    static final int IF_ICMPEQ = 0x9f;
+    static final int IF_ICMPNE = 0xa0;
+    static final int IF_ICMPLT = 0xa1;
+    static final int IF_ICMPGE = 0xa2;
+    static final int IF_ICMPGT = 0xa3;
+    static final int IF_ICMPLE = 0xa4;
+    static final int GOTO = 0xa7;
+    static final int IRETURN = 0xac;
+    static final int RETURN = 0xb1;
+    static final int GETSTATIC = 0xb2;
+    static final int PUTSTATIC = 0xb3;
+    static final int INVOKEVIRTUAL = 0xb6;
+    static final int INVOKESPECIAL = 0xb7;
+    static final int INVOKESTATIC = 0xb8;
+    static final int NEW = 0xbb;
+    static final int WIDE = 0xc4;
+    static final int GOTO_W = 0xc8;
+
+    static final int MAX_CODE_LENGTH = 65535;
+
+    private final ClassWriter owner;
+    private final int access;
+    private final int name;
+    private final int descriptor;
+
+    private byte[] code = new byte[256];
+    private int length;
+    private int depth;
+    private int maxStack;
+    private int maxLocals;
+    private boolean wide;
+
+    private int[] labels = new int[16];
+    // 待回填的跳转：指令位置、偏移的位置、标号
+    private int[] fixups = new int[48];
+    private int fixupCount;
+
+    MethodWriter(ClassWriter owner, int access, int name, int descriptor) {
+        this.owner = owner;
+        this.access = access;
+        this.name = name;
+        this.descriptor = descriptor;
+    }
+
+    /**
+     * 清空已生成的代码，wide为true时跳转都用32位偏移的goto_w
+     */
+    void reset(boolean wide) {
+        this.wide = wide;
+        length = 0;
+        depth = 0;
+        maxStack = 0;
+        fixupCount = 0;
+    }
+
+    int length() {
+        return length;
+    }
+
+    void setMaxLocals(int maxLocals) {
+        this.maxLocals = maxLocals;
+    }
+
+    /**
+     * 没有操作数的指令，stackEffect是它对操作数栈深度的影响
+     */
+    void op(int opcode, int stackEffect) {
+        put(opcode);
+        stack(stackEffect);
+    }
+
+    /**
+     * 以常量池下标为操作数的指令：字段、方法、new
+     */
+    void member(int opcode, int index, int stackEffect) {
+        put(opcode);
+        putShort(index);
+        stack(stackEffect);
+    }
+
+    void intConstant(int value) {
+        if (value >= -1 && value <= 5) {
+            put(ICONST_0 + value);
+        } else if (value >= Byte.MIN_VALUE && value <= Byte.MAX_VALUE) {
+            put(BIPUSH);
+            put(value);
+        } else if (value >= Short.MIN_VALUE && value <= Short.MAX_VALUE) {
+            put(SIPUSH);
+            putShort(value);
+        } else {
+            int index = owner.integerConstant(value);
+            if (index <= 0xff) {
+                put(LDC);
+                put(index);
+            } else {
+                put(LDC_W);
+                putShort(index);
+            }
+        }
+        stack(1);
+    }
+
+    void iload(int local) {
+        local(ILOAD, ILOAD_0, local);
+        stack(1);
+    }
+
+    void istore(int local) {
+        local(ISTORE, ISTORE_0, local);
+        stack(-1);
+    }
+
+    void aload(int local) {
+        local(ALOAD, ALOAD_0, local);
+        stack(1);
+    }
+
+    private void local(int opcode, int shortOpcode, int local) {
+        if (local <= 3) {
+            put(shortOpcode + local);
+        } else if (local <= 0xff) {
+            put(opcode);
+            put(local);
+        } else {
+            put(WIDE);
+            put(opcode);
+            putShort(local);
+        }
+    }
+
+    /**
+     * 跳转到标号：GOTO或IF_ICMPEQ..IF_ICMPLE
+     */
+    void jump(int opcode, int label) {
+        if (opcode != GOTO) {
+            stack(-2);
+            if (wide) {
+                // 条件取反跳过后面的goto_w
+                put(((opcode - IF_ICMPEQ) ^ 1) + IF_ICMPEQ);
+                putShort(8);
+                opcode = GOTO;
+            }
+        }
+        if (fixupCount + 3 > fixups.length) {
+            fixups = Arrays.copyOf(fixups, fixups.length << 1);
+        }
+        fixups[fixupCount++] = length;
+        if (wide) {
+            put(GOTO_W);
+            fixups[fixupCount++] = length;
+            putShort(0);
+            putShort(0);
+        } else {
+            put(opcode);
+            fixups[fixupCount++] = length;
+            putShort(0);
+        }
+        fixups[fixupCount++] = label;
+    }
+
+    void mark(int label) {
+        if (label >= labels.length) {
+            labels = Arrays.copyOf(labels, Math.max(labels.length << 1, label + 1));
+        }
+        labels[label] = length;
+    }
+
+    void write(DataOutputStream out, int codeName) throws IOException {
+        if (length > MAX_CODE_LENGTH) {
+            throw new ClassGenerationException("方法的代码超过" + MAX_CODE_LENGTH + "字节");
+        }
+        for (int i = 0; i < fixupCount; i += 3) {
+            int offset = labels[fixups[i + 2]] - fixups[i];
+            int position = fixups[i + 1];
+            if (wide) {
+                code[position++] = (byte) (offset >>> 24);
+                code[position++] = (byte) (offset >>> 16);
+            }
+            code[position] = (byte) (offset >>> 8);
+            code[position + 1] = (byte) offset;
+        }
+        out.writeShort(access);
+        out.writeShort(name);
+        out.writeShort(descriptor);
+        out.writeShort(1);
+        out.writeShort(codeName);
+        // max_stack、max_locals、code_length、code、异常表长度、属性个数
+        out.writeInt(2 + 2 + 4 + length + 2 + 2);
+        out.writeShort(maxStack);
+        out.writeShort(maxLocals);
+        out.writeInt(length);
+        out.write(code, 0, length);
+        out.writeShort(0);
+        out.writeShort(0);
+    }
+
+    private void stack(int effect) {
+        depth += effect;
+        maxStack = Math.max(maxStack, depth);
+    }
+
+    private void put(int b) {
+        if (length == code.length) {
+            code = Arrays.copyOf(code, length << 1);
+        }
+        code[length++] = (byte) b;
+    }
+
+    private void putShort(int value) {
+        put(value >>> 8);
+        put(value);
+    }
+}
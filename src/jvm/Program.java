@@ -0,0 +1,11 @@
+package jvm;
+
+import vm.IntReader;
+import vm.IntWriter;
+
+/**
+ * 生成的类实现这个接口，在本进程中加载后运行main。输出留在out的缓冲区中，由调用者flush
+ */
+public interface Program {
+    void run(IntReader in, IntWriter out);
+}
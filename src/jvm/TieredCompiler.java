@@ -0,0 +1,90 @@
+package jvm;
+
+import ir.Ir;
+import vm.CompiledProcedure;
+import vm.Interpreter;
+import vm.Promoter;
+
+import java.io.PrintStream;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 分层执行的后台编译：解释器报告热过程后，在一个后台线程上生成它的class并加载，再安装到解释器中。
+ * 每次提升输出一行：达到阈值时的调用、回边次数和时刻，生成加载的耗时，开始使用的时刻
+ */
+class TieredCompiler implements Promoter {
+    private final Ir ir;
+    private final Interpreter interpreter;
+    private final String className;
+    private final PrintStream log;
+    private final long start = System.nanoTime();
+    private final ExecutorService executor = Executors.newSingleThreadExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "tiered-compiler");
+        thread.setDaemon(true);
+        return thread;
+    });
+    private volatile int promotions;
+
+    TieredCompiler(Ir ir, Interpreter interpreter, String className, PrintStream log) {
+        this.ir = ir;
+        this.interpreter = interpreter;
+        this.className = className;
+        this.log = log;
+    }
+
+    @Override
+    public void hot(int procedure) {
+        long reached = System.nanoTime();
+        int invocations = interpreter.invocations(procedure);
+        int backEdges = interpreter.backEdges(procedure);
+        executor.execute(() -> compile(procedure, invocations, backEdges, reached));
+    }
+
+    private void compile(int procedure, int invocations, int backEdges, long reached) {
+        String name = ir.procedureName(procedure);
+        String hot = String.format("***分层：%s调用%d次、回边%d次，+%.1fms时达到阈值", name, invocations, backEdges,
+                (reached - start) / 1e6);
+        boolean[] region = JvmCompiler.region(ir, procedure);
+        if (region == null) {
+            log.println(hot + "，访问了外层过程的变量，不提升");
+            return;
+        }
+        long compileStart = System.nanoTime();
+        byte[] classFile;
+        try {
+            classFile = new JvmCompiler(ir, className + "$" + name + "$" + procedure, procedure, region).compile();
+        } catch (ClassGenerationException e) {
+            log.println(hot + "，生成class文件失败：" + e.getMessage());
+            return;
+        }
+        CompiledProcedure target = (CompiledProcedure) JvmStarter.instantiate(
+                className + "$" + name + "$" + procedure, classFile);
+        long installedAt = System.nanoTime();
+        interpreter.install(procedure, target);
+        promotions++;
+        int count = 0;
+        for (boolean included : region) {
+            count += included ? 1 : 0;
+        }
+        log.println(String.format("%s，后台生成并加载%.1fms(%d个过程，%d字节)，+%.1fms起调用生成的代码", hot,
+                (installedAt - compileStart) / 1e6, count, classFile.length, (installedAt - start) / 1e6));
+    }
+
+    int promotions() {
+        return promotions;
+    }
+
+    /**
+     * 停止后台编译，等待正在进行的编译结束
+     */
+    void shutdown() {
+        executor.shutdownNow();
+        try {
+            executor.awaitTermination(1, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
@@ -0,0 +1,40 @@
+package output;
+
+/**
+ * 一条编译错误，不写文件时由{@link ErrorLog}收集
+ */
+public class Diagnostic {
+    // 阶段
+    public static final int LEXICAL = 1;
+    public static final int SYNTAX = 2;
+
+    private final int phase;
+    private final int line;
+    private final String message;
+
+    public Diagnostic(int phase, int line, String message) {
+        this.phase = phase;
+        this.line = line;
+        this.message = message;
+    }
+
+    public int phase() {
+        return phase;
+    }
+
+    public int line() {
+        return line;
+    }
+
+    public String message() {
+        return message;
+    }
+
+    /**
+     * 与err文件中的格式相同
+     */
+    @Override
+    public String toString() {
+        return "***LINE:" + line + "  " + message;
+    }
+}
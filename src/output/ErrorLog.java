@@ -0,0 +1,119 @@
+package output;
+
+import java.io.Closeable;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.util.List;
+
+/**
+ * 错误文件(.err)：每条错误写成"***LINE:行号  原因"。
+ * 控制台回显是可选的，并且攒成一批再输出到System.err，不再每条错误都同步打印。
+ * 与PrintWriter一样，写入时不抛出异常，出错时在close()时抛出。
+ * <p>
+ * 延迟模式下错误先留在内存中，close()时才创建文件、回显，用于err文件此时还在被词法分析写入的流水线模式。
+ * 收集模式下不写文件也不回显，错误作为{@link Diagnostic}加入调用者给出的列表。
+ */
+public class ErrorLog implements Closeable {
+    private static final int ECHO_BATCH_SIZE = 1 << 14;
+
+    private final String filename;
+    private TableWriter writer;
+    // 延迟模式下待写入文件的错误
+    private final StringBuilder pending;
+    private final StringBuilder echo;
+    private int count;
+    private IOException failure;
+    private final List<Diagnostic> sink;
+    private final int phase;
+
+    public ErrorLog(String filename, boolean echoToConsole) throws FileNotFoundException {
+        this(filename, echoToConsole, false);
+    }
+
+    public ErrorLog(String filename, boolean echoToConsole, boolean deferred) throws FileNotFoundException {
+        this.filename = filename;
+        writer = deferred ? null : new TableWriter(filename);
+        pending = deferred ? new StringBuilder() : null;
+        echo = echoToConsole ? new StringBuilder() : null;
+        sink = null;
+        phase = 0;
+    }
+
+    /**
+     * 收集模式：错误加入sink，phase见Diagnostic.LEXICAL、Diagnostic.SYNTAX
+     */
+    public ErrorLog(List<Diagnostic> sink, int phase) {
+        filename = null;
+        pending = null;
+        echo = null;
+        this.sink = sink;
+        this.phase = phase;
+    }
+
+    public void error(int line, String reason) {
+        count++;
+        if (sink != null) {
+            sink.add(new Diagnostic(phase, line, reason));
+            return;
+        }
+        if (pending != null) {
+            pending.append("***LINE:").append(line).append("  ").append(reason).append(System.lineSeparator());
+        } else try {
+            writer.text("***LINE:").right(line, 0).text("  ").text(reason).newLine();
+        } catch (IOException e) {
+            if (failure == null) {
+                failure = e;
+            }
+        }
+        if (echo != null) {
+            echo.append("***LINE:").append(line).append("  ").append(reason).append(System.lineSeparator());
+            if (pending == null && echo.length() >= ECHO_BATCH_SIZE) {
+                flushEcho();
+            }
+        }
+    }
+
+    /**
+     * 只在控制台回显的附加信息(如出错的源代码行)，不写入错误文件
+     */
+    public void echo(String s) {
+        if (echo != null) {
+            echo.append(s).append(System.lineSeparator());
+        }
+    }
+
+    public boolean isEchoing() {
+        return echo != null;
+    }
+
+    public int count() {
+        return count;
+    }
+
+    private void flushEcho() {
+        System.err.print(echo);
+        System.err.flush();
+        echo.setLength(0);
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (sink != null) {
+            return;
+        }
+        try {
+            if (pending != null) {
+                writer = new TableWriter(filename);
+                writer.text(pending.toString());
+            }
+            writer.close();
+        } finally {
+            if (echo != null) {
+                flushEcho();
+            }
+        }
+        if (failure != null) {
+            throw failure;
+        }
+    }
+}
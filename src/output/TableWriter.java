@@ -0,0 +1,127 @@
+package output;
+
+import java.io.Closeable;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.Charset;
+
+/**
+ * dyd、err、var、pro文件的输出：定宽字段直接填充到可复用的字符缓冲区，缓冲区满了才写出，
+ * 输出结果与String.format("%16s")、String.format("%16d")相同，但不分配对象，也不解析格式串。
+ * 编码与PrintWriter(String)相同，使用平台默认编码。
+ */
+public class TableWriter implements Closeable {
+    private static final int BUFFER_SIZE = 1 << 16;
+    private static final char[] LINE_SEPARATOR = System.lineSeparator().toCharArray();
+    private static final char[] MIN_INT = String.valueOf(Integer.MIN_VALUE).toCharArray();
+
+    private final Writer out;
+    private final char[] buffer = new char[BUFFER_SIZE];
+    private int position;
+    private final char[] digits = new char[11];
+
+    public TableWriter(String filename) throws FileNotFoundException {
+        this(new FileOutputStream(filename));
+    }
+
+    public TableWriter(OutputStream out) {
+        this.out = new OutputStreamWriter(out, Charset.defaultCharset());
+    }
+
+    /**
+     * 右对齐到width列，超长时原样输出
+     */
+    public TableWriter right(String s, int width) throws IOException {
+        int length = s.length();
+        pad(width - length);
+        if (length > buffer.length - position) {
+            flushBuffer();
+            if (length > buffer.length) {
+                out.write(s);
+                return this;
+            }
+        }
+        s.getChars(0, length, buffer, position);
+        position += length;
+        return this;
+    }
+
+    public TableWriter right(char[] chars, int offset, int length, int width) throws IOException {
+        pad(width - length);
+        if (length > buffer.length - position) {
+            flushBuffer();
+            if (length > buffer.length) {
+                out.write(chars, offset, length);
+                return this;
+            }
+        }
+        System.arraycopy(chars, offset, buffer, position, length);
+        position += length;
+        return this;
+    }
+
+    public TableWriter right(int value, int width) throws IOException {
+        if (value == Integer.MIN_VALUE) {
+            return right(MIN_INT, 0, MIN_INT.length, width);
+        }
+        int start = digits.length;
+        int v = Math.abs(value);
+        do {
+            digits[--start] = (char) ('0' + v % 10);
+            v /= 10;
+        } while (v != 0);
+        if (value < 0) {
+            digits[--start] = '-';
+        }
+        return right(digits, start, digits.length - start, width);
+    }
+
+    public TableWriter text(String s) throws IOException {
+        return right(s, 0);
+    }
+
+    public TableWriter space() throws IOException {
+        return pad(1);
+    }
+
+    public TableWriter newLine() throws IOException {
+        return right(LINE_SEPARATOR, 0, LINE_SEPARATOR.length, 0);
+    }
+
+    private TableWriter pad(int count) throws IOException {
+        while (count > 0) {
+            if (position == buffer.length) {
+                flushBuffer();
+            }
+            int n = Math.min(count, buffer.length - position);
+            for (int i = 0; i < n; i++) {
+                buffer[position++] = ' ';
+            }
+            count -= n;
+        }
+        return this;
+    }
+
+    private void flushBuffer() throws IOException {
+        out.write(buffer, 0, position);
+        position = 0;
+    }
+
+    public void flush() throws IOException {
+        flushBuffer();
+        out.flush();
+    }
+
+    @Override
+    public void close() throws IOException {
+        try {
+            flushBuffer();
+        } finally {
+            out.close();
+        }
+    }
+}
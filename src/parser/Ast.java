@@ -0,0 +1,330 @@
+package parser;
+
+import java.io.*;
+import java.util.Arrays;
+
+/**
+ * 语法分析生成的抽象语法树。结点按列存放在几个int数组中(结点种类、第一个子结点、下一个兄弟结点、单词下标、符号)，
+ * 结点ID即数组下标，根结点为0，没有子结点、兄弟结点时为-1。每个结点24字节，不为每个结点创建对象。
+ * <p>
+ * 各种结点的符号列和子结点：
+ * <pre>
+ * PROGRAM         main的过程ID(0)     说明语句和执行语句
+ * FUNC_DECLARE    过程ID              函数名变量(返回值)、形参的VAR_DECLARE，然后是函数体的说明语句和执行语句
+ * VAR_DECLARE     变量表下标
+ * READ/WRITE                          VARIABLE
+ * ASSIGN                              VARIABLE、CAL_EXPRESSION
+ * CONDITION                           COMPARE、then分支、else分支
+ * COMPARE         关系运算符的类型码   左右两个CAL_EXPRESSION
+ * CAL_EXPRESSION                      各项，依次相减
+ * TERM                                各因子，依次相乘
+ * VARIABLE        变量表下标
+ * CONSTANT        常数值
+ * FUNC_CALL       过程ID              实参CAL_EXPRESSION
+ * </pre>
+ * 因子(&lt;因子&gt;)直接是VARIABLE、CONSTANT或FUNC_CALL结点。未定义的变量、函数，符号为-1。
+ * 有语法错误时树可能不完整，只有分析成功时的树才能交给后续阶段。
+ */
+public class Ast {
+    public static final int PROGRAM = 1;
+    public static final int FUNC_DECLARE = 2;
+    public static final int VAR_DECLARE = 3;
+    public static final int READ = 4;
+    public static final int WRITE = 5;
+    public static final int ASSIGN = 6;
+    public static final int CONDITION = 7;
+    public static final int COMPARE = 8;
+    public static final int CAL_EXPRESSION = 9;
+    public static final int TERM = 10;
+    public static final int VARIABLE = 11;
+    public static final int CONSTANT = 12;
+    public static final int FUNC_CALL = 13;
+
+    private static final int MAGIC = 0x41535442; // "ASTB"
+    private static final int VERSION = 1;
+    private static final int INITIAL_CAPACITY = 256;
+
+    private int size;
+    private int[] kinds;
+    private int[] firstChildren;
+    private int[] nextSiblings;
+    // 结点开始处的单词在单词序列中的下标
+    private int[] tokens;
+    private int[] symbols;
+    private int[] lines;
+
+    // 构造时尚未结束的结点，及其目前的最后一个子结点
+    private int[] openNodes = new int[64];
+    private int[] openLast = new int[64];
+    private int openSize;
+
+    Ast() {
+        this(INITIAL_CAPACITY);
+    }
+
+    private Ast(int capacity) {
+        kinds = new int[capacity];
+        firstChildren = new int[capacity];
+        nextSiblings = new int[capacity];
+        tokens = new int[capacity];
+        symbols = new int[capacity];
+        lines = new int[capacity];
+    }
+
+    /**
+     * 新结点作为当前未结束结点的最后一个子结点
+     */
+    int add(int kind, int token, int symbol, int line) {
+        if (size == kinds.length) {
+            int capacity = size << 1;
+            kinds = Arrays.copyOf(kinds, capacity);
+            firstChildren = Arrays.copyOf(firstChildren, capacity);
+            nextSiblings = Arrays.copyOf(nextSiblings, capacity);
+            tokens = Arrays.copyOf(tokens, capacity);
+            symbols = Arrays.copyOf(symbols, capacity);
+            lines = Arrays.copyOf(lines, capacity);
+        }
+        int node = size++;
+        kinds[node] = kind;
+        firstChildren[node] = -1;
+        nextSiblings[node] = -1;
+        tokens[node] = token;
+        symbols[node] = symbol;
+        lines[node] = line;
+        if (openSize > 0) {
+            int last = openLast[openSize - 1];
+            if (last < 0) {
+                firstChildren[openNodes[openSize - 1]] = node;
+            } else {
+                nextSiblings[last] = node;
+            }
+            openLast[openSize - 1] = node;
+        }
+        return node;
+    }
+
+    /**
+     * 添加结点，之后添加的结点都是它的子结点，直到close()
+     */
+    int open(int kind, int token, int symbol, int line) {
+        int node = add(kind, token, symbol, line);
+        if (openSize == openNodes.length) {
+            openNodes = Arrays.copyOf(openNodes, openSize << 1);
+            openLast = Arrays.copyOf(openLast, openSize << 1);
+        }
+        openNodes[openSize] = node;
+        openLast[openSize] = -1;
+        openSize++;
+        return node;
+    }
+
+    void close() {
+        if (openSize > 0) {
+            openSize--;
+        }
+    }
+
+    /**
+     * 当前未结束的结点，没有时为-1
+     */
+    int current() {
+        return openSize > 0 ? openNodes[openSize - 1] : -1;
+    }
+
+    void set(int node, int token, int symbol) {
+        tokens[node] = token;
+        symbols[node] = symbol;
+    }
+
+    /**
+     * 构造结束，释放多余的容量
+     */
+    void finish() {
+        openSize = 0;
+        openNodes = null;
+        openLast = null;
+        kinds = Arrays.copyOf(kinds, size);
+        firstChildren = Arrays.copyOf(firstChildren, size);
+        nextSiblings = Arrays.copyOf(nextSiblings, size);
+        tokens = Arrays.copyOf(tokens, size);
+        symbols = Arrays.copyOf(symbols, size);
+        lines = Arrays.copyOf(lines, size);
+    }
+
+    /**
+     * 增量分析：用replacement(以结点0为根的子树)替换previous中[from, to)这棵子树，replacement为null时不替换(from == to)。
+     * 子树之后的结点：单词下标不小于tokenFrom的加上tokenDelta，行号不小于lineFrom的加上lineDelta，
+     * 不小于variableFrom的变量表下标加上variableDelta，不小于procedureFrom的过程ID加上procedureDelta
+     */
+    static Ast splice(Ast previous, int from, int to, Ast replacement, int tokenFrom, int tokenDelta,
+                      int lineFrom, int lineDelta, int variableFrom, int variableDelta,
+                      int procedureFrom, int procedureDelta) {
+        int replaced = replacement == null ? 0 : replacement.size;
+        int nodeDelta = replaced - (to - from);
+        int after = previous.size - to;
+        Ast ast = new Ast(previous.size + nodeDelta);
+        ast.size = previous.size + nodeDelta;
+        ast.openNodes = null;
+        ast.openLast = null;
+        // 之前的结点只有链接可能指向子树之后，其余各列原样复制
+        System.arraycopy(previous.kinds, 0, ast.kinds, 0, from);
+        System.arraycopy(previous.tokens, 0, ast.tokens, 0, from);
+        System.arraycopy(previous.symbols, 0, ast.symbols, 0, from);
+        System.arraycopy(previous.lines, 0, ast.lines, 0, from);
+        relink(previous.firstChildren, 0, ast.firstChildren, 0, from, to, nodeDelta);
+        relink(previous.nextSiblings, 0, ast.nextSiblings, 0, from, to, nodeDelta);
+
+        int next = from + replaced;
+        System.arraycopy(previous.kinds, to, ast.kinds, next, after);
+        relink(previous.firstChildren, to, ast.firstChildren, next, after, to, nodeDelta);
+        relink(previous.nextSiblings, to, ast.nextSiblings, next, after, to, nodeDelta);
+        shift(previous.tokens, to, ast.tokens, next, after, tokenFrom, tokenDelta);
+        shift(previous.lines, to, ast.lines, next, after, lineFrom, lineDelta);
+        for (int i = 0; i < after; i++) {
+            int kind = previous.kinds[to + i];
+            int symbol = previous.symbols[to + i];
+            if ((kind == VARIABLE || kind == VAR_DECLARE) && symbol >= variableFrom) {
+                symbol += variableDelta;
+            } else if ((kind == PROGRAM || kind == FUNC_DECLARE || kind == FUNC_CALL) && symbol >= procedureFrom) {
+                symbol += procedureDelta;
+            }
+            ast.symbols[next + i] = symbol;
+        }
+
+        if (replaced > 0) {
+            System.arraycopy(replacement.kinds, 0, ast.kinds, from, replaced);
+            System.arraycopy(replacement.tokens, 0, ast.tokens, from, replaced);
+            System.arraycopy(replacement.symbols, 0, ast.symbols, from, replaced);
+            System.arraycopy(replacement.lines, 0, ast.lines, from, replaced);
+            for (int i = 0; i < replaced; i++) {
+                ast.firstChildren[from + i] = replacement.firstChildren[i] < 0 ? -1 : replacement.firstChildren[i] + from;
+                ast.nextSiblings[from + i] = replacement.nextSiblings[i] < 0 ? -1 : replacement.nextSiblings[i] + from;
+            }
+            ast.nextSiblings[from] = relink(previous.nextSiblings[from], to, nodeDelta);
+        }
+        return ast;
+    }
+
+    private static void relink(int[] source, int sourceFrom, int[] target, int targetFrom, int length,
+                               int to, int nodeDelta) {
+        if (nodeDelta == 0) {
+            System.arraycopy(source, sourceFrom, target, targetFrom, length);
+            return;
+        }
+        for (int i = 0; i < length; i++) {
+            target[targetFrom + i] = relink(source[sourceFrom + i], to, nodeDelta);
+        }
+    }
+
+    /**
+     * 复制一列，不小于from的值加上delta
+     */
+    private static void shift(int[] source, int sourceFrom, int[] target, int targetFrom, int length,
+                              int from, int delta) {
+        if (delta == 0) {
+            System.arraycopy(source, sourceFrom, target, targetFrom, length);
+            return;
+        }
+        for (int i = 0; i < length; i++) {
+            int value = source[sourceFrom + i];
+            target[targetFrom + i] = value >= from ? value + delta : value;
+        }
+    }
+
+    private static int relink(int node, int to, int nodeDelta) {
+        return node >= to ? node + nodeDelta : node;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public int kind(int node) {
+        return kinds[node];
+    }
+
+    public int firstChild(int node) {
+        return firstChildren[node];
+    }
+
+    public int nextSibling(int node) {
+        return nextSiblings[node];
+    }
+
+    public int token(int node) {
+        return tokens[node];
+    }
+
+    public int symbol(int node) {
+        return symbols[node];
+    }
+
+    public int line(int node) {
+        return lines[node];
+    }
+
+    /**
+     * 结点数组占用的内存(字节)
+     */
+    public long memoryFootprint() {
+        return 6L * 4 * kinds.length;
+    }
+
+    /**
+     * 二进制格式：文件头"ASTB"、版本号、结点数，然后按列依次存放各数组
+     */
+    public void write(File file) throws IOException {
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file), 1 << 16))) {
+            write(out);
+        }
+    }
+
+    public void write(DataOutputStream out) throws IOException {
+        out.writeInt(MAGIC);
+        out.writeInt(VERSION);
+        out.writeInt(size);
+        for (int[] column : new int[][]{kinds, firstChildren, nextSiblings, tokens, symbols, lines}) {
+            for (int i = 0; i < size; i++) {
+                out.writeInt(column[i]);
+            }
+        }
+    }
+
+    public static Ast read(File file) throws IOException {
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file), 1 << 16))) {
+            return read(in);
+        }
+    }
+
+    public static Ast read(DataInputStream in) throws IOException {
+        if (in.readInt() != MAGIC) {
+            throw new IOException("不是语法树文件");
+        }
+        int version = in.readInt();
+        if (version != VERSION) {
+            throw new IOException("不支持的语法树文件版本: " + version);
+        }
+        int size = in.readInt();
+        if (size < 0) {
+            throw new IOException("语法树文件结点数错误: " + size);
+        }
+        Ast ast = new Ast(size);
+        ast.size = size;
+        for (int[] column : new int[][]{ast.kinds, ast.firstChildren, ast.nextSiblings, ast.tokens, ast.symbols,
+                ast.lines}) {
+            for (int i = 0; i < size; i++) {
+                column[i] = in.readInt();
+            }
+        }
+        for (int i = 0; i < size; i++) {
+            // 子结点、兄弟结点总在自己之后添加，这样读回的树一定无环
+            if (ast.firstChildren[i] != -1 && (ast.firstChildren[i] <= i || ast.firstChildren[i] >= size)
+                    || ast.nextSiblings[i] != -1 && (ast.nextSiblings[i] <= i || ast.nextSiblings[i] >= size)) {
+                throw new IOException("语法树文件结点" + i + "的链接越界");
+            }
+        }
+        ast.openNodes = null;
+        ast.openLast = null;
+        return ast;
+    }
+}
@@ -0,0 +1,205 @@
+package parser;
+
+import output.Diagnostic;
+import output.ErrorLog;
+import word.LineEdit;
+import word.TokenStream;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static constant.TypeCode.BEGIN;
+import static constant.TypeCode.END;
+
+/**
+ * 增量语法分析：源程序只改动了一个函数体内部时，只重新分析这个函数体，其余部分的语法树、过程表、变量表
+ * 从上一次的结果复制，平移其中的单词下标、行号、变量表下标和过程ID。
+ * <p>
+ * 函数体外的代码看不到函数体内的说明，所以函数体之后的分析与函数体内容无关，只是编号整体平移。
+ * 函数体开始时的作用域由过程表、变量表重建：外层各过程在此之前登记的变量和函数。
+ * 只处理上一次和这一次都没有语法错误的情况，否则恐慌模式的恢复可能越过函数体的边界，此时返回null，由调用者完整分析。
+ */
+class IncrementalParser {
+    // 函数头 ID ( ID ) ; 之后就是函数体的begin
+    private static final int HEADER_LENGTH = 5;
+
+    private IncrementalParser() {
+    }
+
+    /**
+     * previous是previousTokens没有语法错误时的分析结果，tokens是按edit增量分析得到的新单词序列
+     */
+    static ParseResult reparse(ParseResult previous, TokenStream previousTokens, TokenStream tokens, LineEdit edit) {
+        int editStart = previousTokens.firstTokenAtLine(edit.firstLine());
+        int previousEditEnd = previousTokens.firstTokenAtLine(edit.previousLastLine() + 1);
+        int editEnd = tokens.firstTokenAtLine(edit.lastLine() + 1);
+        int tokenDelta = editEnd - previousEditEnd;
+        int lineFrom = edit.previousLastLine() + 1;
+        Ast ast = previous.ast();
+        List<Procedure> procedures = previous.procedures();
+        List<Variable> variables = previous.variables();
+
+        if (editStart == previousEditEnd && editStart == editEnd) {
+            // 只改动了空白：单词不变，只平移行号
+            return new ParseResult(Ast.splice(ast, ast.size(), ast.size(), null, 0, 0, lineFrom, edit.lineDelta(),
+                    Integer.MAX_VALUE, 0, Integer.MAX_VALUE, 0), procedures, variables);
+        }
+
+        // 由外向内找包含改动的最内层函数，改动不能涉及函数体的begin和end
+        int node = -1;
+        int begin = -1;
+        int end = -1;
+        for (int parent = 0; ; ) {
+            int candidate = -1;
+            for (int child = ast.firstChild(parent); child >= 0 && ast.token(child) < editStart;
+                 child = ast.nextSibling(child)) {
+                if (ast.kind(child) == Ast.FUNC_DECLARE) {
+                    candidate = child;
+                }
+            }
+            if (candidate < 0) {
+                break;
+            }
+            int candidateBegin = ast.token(candidate) + HEADER_LENGTH;
+            if (candidateBegin >= editStart || previousTokens.type(candidateBegin) != BEGIN) {
+                break;
+            }
+            int candidateEnd = matchingEnd(previousTokens, candidateBegin);
+            if (candidateEnd < previousEditEnd) {
+                break;
+            }
+            node = candidate;
+            begin = candidateBegin;
+            end = candidateEnd;
+            parent = candidate;
+        }
+        if (node < 0) {
+            return null;
+        }
+
+        int procId = ast.symbol(node);
+        Procedure procedure = procedures.get(procId);
+        int procedureEnd = procId + 1;
+        while (procedureEnd < procedures.size() && isNested(procedures, procedureEnd, procId)) {
+            procedureEnd++;
+        }
+        int variableStart = procedure.lastVarOffset;
+        int variableEnd = variableStart;
+        while (variableEnd < variables.size() && (variables.get(variableEnd).procId == procId
+                || variables.get(variableEnd).procId > procId && variables.get(variableEnd).procId < procedureEnd)) {
+            variableEnd++;
+        }
+        restoreScopes(procedures, variables, procId, variableStart);
+
+        List<Diagnostic> errors = new ArrayList<>();
+        Parser parser = new Parser(tokens, new ErrorLog(errors, Diagnostic.SYNTAX));
+        int stop = parser.analyzeBody(procedure, procedures.subList(0, procId + 1),
+                variables.subList(0, variableStart), ast, node, begin);
+        if (!errors.isEmpty() || stop != end + tokenDelta + 1) {
+            return null;
+        }
+
+        List<Procedure> bodyProcedures = parser.procedures();
+        List<Variable> bodyVariables = parser.variables();
+        int procedureDelta = bodyProcedures.size() - procedureEnd;
+        int variableDelta = bodyVariables.size() - variableEnd;
+        List<Procedure> newProcedures = new ArrayList<>(procedures.size() + procedureDelta);
+        newProcedures.addAll(bodyProcedures);
+        // 标识符首次出现在改动之后时，符号ID可能变了
+        Procedure main = newProcedures.get(0);
+        int mainSymbol = tokens.symbolTable().lookup(main.name);
+        if (main.symbol != mainSymbol) {
+            newProcedures.set(0, new Procedure(0, main.name, mainSymbol, main.type, main.level,
+                    main.firstVarOffset, main.lastVarOffset, null));
+        }
+        for (int i = procedureEnd; i < procedures.size(); i++) {
+            Procedure p = procedures.get(i);
+            int parentId = p.parentId();
+            Procedure parent = newProcedures.get(parentId > procId ? parentId + procedureDelta : parentId);
+            newProcedures.add(new Procedure(i + procedureDelta, p.name, tokens.symbolTable().lookup(p.name), p.type,
+                    p.level, p.firstVarOffset + variableDelta, p.lastVarOffset + variableDelta, parent));
+        }
+        List<Variable> newVariables = new ArrayList<>(variables.size() + variableDelta);
+        newVariables.addAll(bodyVariables);
+        for (int i = variableEnd; i < variables.size(); i++) {
+            Variable v = variables.get(i);
+            newVariables.add(new Variable(v.name, tokens.symbolTable().lookup(v.name),
+                    v.procId >= procedureEnd ? v.procId + procedureDelta : v.procId, v.kind, v.type, v.level,
+                    v.offset + variableDelta));
+        }
+
+        // 子树的结点都在end之前，之后的结点都在end之后
+        int low = node + 1;
+        int high = ast.size();
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (ast.token(mid) <= end) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+        Ast newAst = Ast.splice(ast, node, low, parser.ast(), previousEditEnd, tokenDelta, lineFrom, edit.lineDelta(),
+                variableEnd, variableDelta, procedureEnd, procedureDelta);
+        return new ParseResult(newAst, newProcedures, newVariables);
+    }
+
+    /**
+     * 与第begin个单词(begin)配对的end的下标
+     */
+    private static int matchingEnd(TokenStream tokens, int begin) {
+        int depth = 0;
+        for (int i = begin; i < tokens.size(); i++) {
+            int type = tokens.type(i);
+            if (type == BEGIN) {
+                depth++;
+            } else if (type == END && --depth == 0) {
+                return i;
+            }
+        }
+        return tokens.size();
+    }
+
+    /**
+     * 过程id是否嵌套在过程ancestor之内
+     */
+    private static boolean isNested(List<Procedure> procedures, int id, int ancestor) {
+        for (int p = procedures.get(id).parentId(); p >= ancestor; p = procedures.get(p).parentId()) {
+            if (p == ancestor) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * 重建从main到过程procId各层的作用域，恢复到procId的函数体开始时的状态：
+     * 这些过程在变量表前variableEnd项中的变量，以及过程表中在procId之前、直接声明在这些过程中的函数
+     */
+    private static void restoreScopes(List<Procedure> procedures, List<Variable> variables, int procId,
+                                      int variableEnd) {
+        boolean[] inChain = new boolean[procId + 1];
+        List<Procedure> chain = new ArrayList<>();
+        for (int p = procId; p >= 0; p = procedures.get(p).parentId()) {
+            inChain[p] = true;
+            chain.add(procedures.get(p));
+        }
+        Scope scope = null;
+        for (int i = chain.size() - 1; i >= 0; i--) {
+            scope = new Scope(scope);
+            chain.get(i).scope = scope;
+        }
+        for (int i = 0; i < variableEnd; i++) {
+            Variable variable = variables.get(i);
+            if (variable.procId <= procId && inChain[variable.procId]) {
+                procedures.get(variable.procId).scope.add(variable.symbol, variable.kind, i);
+            }
+        }
+        for (int i = 1; i <= procId; i++) {
+            Procedure p = procedures.get(i);
+            if (inChain[p.parentId()]) {
+                procedures.get(p.parentId()).scope.add(p.symbol, Scope.PROCEDURE, i);
+            }
+        }
+    }
+}
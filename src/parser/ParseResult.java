@@ -0,0 +1,117 @@
+package parser;
+
+import output.TableWriter;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * 不读写文件时语法分析的结果：语法树及过程表、变量表，见{@link ParserStarter#parse(word.TokenStream, output.ErrorLog, int)}
+ */
+public class ParseResult {
+    private final Ast ast;
+    private final List<Procedure> procedures;
+    private final List<Variable> variables;
+
+    ParseResult(Ast ast, List<Procedure> procedures, List<Variable> variables) {
+        this.ast = ast;
+        this.procedures = Collections.unmodifiableList(procedures);
+        this.variables = Collections.unmodifiableList(variables);
+    }
+
+    public Ast ast() {
+        return ast;
+    }
+
+    /**
+     * 过程表，下标即过程ID
+     */
+    public List<Procedure> procedures() {
+        return procedures;
+    }
+
+    /**
+     * 变量表，语法树中VARIABLE、VAR_DECLARE结点的符号即其下标
+     */
+    public List<Variable> variables() {
+        return variables;
+    }
+
+    /**
+     * 与命令行相同格式的过程表(pro文件)
+     */
+    public void writeProcTable(TableWriter out) throws IOException {
+        Parser.writeProcTable(procedures, out);
+    }
+
+    /**
+     * 与命令行相同格式的变量表(var文件)
+     */
+    public void writeVariableTable(TableWriter out) throws IOException {
+        Parser.writeVariableTable(variables, out);
+    }
+
+    /**
+     * 序列化过程表、变量表和语法树，供编译缓存使用
+     */
+    public void write(DataOutputStream out) throws IOException {
+        out.writeInt(procedures.size());
+        for (Procedure procedure : procedures) {
+            out.writeUTF(procedure.name);
+            out.writeInt(procedure.symbol);
+            out.writeUTF(procedure.type);
+            out.writeInt(procedure.level);
+            out.writeInt(procedure.firstVarOffset);
+            out.writeInt(procedure.lastVarOffset);
+            out.writeInt(procedure.parentId());
+        }
+        out.writeInt(variables.size());
+        for (Variable variable : variables) {
+            out.writeUTF(variable.name);
+            out.writeInt(variable.symbol);
+            out.writeInt(variable.procId);
+            out.writeInt(variable.kind);
+            out.writeUTF(variable.type);
+            out.writeInt(variable.level);
+            out.writeInt(variable.offset);
+        }
+        ast.write(out);
+    }
+
+    public static ParseResult read(DataInputStream in) throws IOException {
+        int procedureCount = in.readInt();
+        List<Procedure> procedures = new ArrayList<>();
+        for (int id = 0; id < procedureCount; id++) {
+            String name = in.readUTF();
+            int symbol = in.readInt();
+            String type = in.readUTF();
+            int level = in.readInt();
+            int firstVarOffset = in.readInt();
+            int lastVarOffset = in.readInt();
+            int parentId = in.readInt();
+            // 外层过程总是先登记
+            if (parentId < -1 || parentId >= id) {
+                throw new IOException("过程" + name + "的外层过程ID错误: " + parentId);
+            }
+            procedures.add(new Procedure(id, name, symbol, type, level, firstVarOffset, lastVarOffset,
+                    parentId < 0 ? null : procedures.get(parentId)));
+        }
+        int variableCount = in.readInt();
+        List<Variable> variables = new ArrayList<>();
+        for (int i = 0; i < variableCount; i++) {
+            String name = in.readUTF();
+            int symbol = in.readInt();
+            int procId = in.readInt();
+            int kind = in.readInt();
+            String type = in.readUTF();
+            int level = in.readInt();
+            int offset = in.readInt();
+            variables.add(new Variable(name, symbol, procId, kind, type, level, offset));
+        }
+        return new ParseResult(Ast.read(in), procedures, variables);
+    }
+}
@@ -1,42 +1,66 @@
 package parser;
 
-import constant.TypeCode;
+import output.ErrorLog;
+import output.TableWriter;
+import word.TokenPipe;
+import word.TokenStream;
 
 import java.io.File;
 import java.io.FileNotFoundException;
-import java.io.FileOutputStream;
-import java.io.PrintWriter;
+import java.io.IOException;
 import java.util.*;
 
 import static constant.TypeCode.*;
 
 class Parser {
+    static final int DEFAULT_MAX_ERRORS = 100;
+
     private final String dydFilename;
+    private final String binaryDydFilename;
     private final String errFilename;
     private final String varTableFilename;
     private final String procFilename;
+    private final String astFilename;
     private final String sourceFilename;
 
-    private Scanner sourceScanner;
-    private PrintWriter errorPw;
+    private SourceIndex sourceIndex;
+    private boolean showErrorContext;
+    private ErrorLog errorLog;
+    private boolean echoErrors = true;
+    // 不读写文件时也不输出到控制台
+    private final boolean console;
+    private int maxErrors = DEFAULT_MAX_ERRORS;
+    // 恐慌模式：报告语法错误后直到同步点
+    private boolean recovering;
+    // 错误数达到上限
+    private boolean stopped;
+    // 当前行已报告的错误
+    private int errorLine;
+    private final Set<String> lineErrors = new HashSet<>();
 
-    private String currentWord;
     private int currentWordType;
     private int currentLine;
-    private final StringBuilder currentLineSb = new StringBuilder();
     private int currentLevel;
-    private final Set<Variable> variableSet = new HashSet<>();
     private final List<Variable> variableList = new ArrayList<>();
-    private final Set<Procedure> procedureSet = new HashSet<>();
+    // 不同变量的个数；重复定义的函数会在变量表中重复登记函数名变量，不计入
+    private int variableCount;
+    // 下标即过程ID
     private final List<Procedure> procedureList = new ArrayList<>();
     private Procedure currentProc;
-    private final List<String> wordList = new ArrayList<>();
-    private final List<Integer> typeList = new ArrayList<>();
+    // 当前的一批单词，非流水线模式下就是全部单词；currentIndex是批内下标
+    private TokenStream tokens;
     private int currentIndex;
-
-    private static final String PROGRAM_ERROR_DYD = "dyd file error!";
-
-    Parser(String filename) {
+    // 流水线模式下的单词来源，以及向前看时提前取得的下一批
+    private TokenPipe pipe;
+    private TokenStream lookahead;
+    private int mainSymbol;
+    // 之前各批的单词数，加上currentIndex即单词在整个单词序列中的下标
+    private int tokenBase;
+    private final Ast ast = new Ast();
+    private boolean writeAst;
+
+    Parser(String filename, TokenStream tokens) {
+        this.tokens = tokens;
         int index = filename.lastIndexOf(".");
         String name;
         if (index == -1) {
@@ -46,160 +70,512 @@ class Parser {
         }
 
         dydFilename = name + ".dyd";
+        binaryDydFilename = name + ".dyb";
         errFilename = name + ".err";
         varTableFilename = name + ".var";
         procFilename = name + ".pro";
+        astFilename = name + ".ast";
         sourceFilename = name + ".pas";
+        console = true;
+    }
+
+    /**
+     * 流水线模式：与词法分析并行，逐批从pipe读取单词
+     */
+    Parser(String filename, TokenPipe pipe) {
+        this(filename, (TokenStream) null);
+        this.pipe = pipe;
+    }
+
+    /**
+     * 不读写文件：错误写入errorLog，由analyze()分析
+     */
+    Parser(TokenStream tokens, ErrorLog errorLog) {
+        this.tokens = tokens;
+        this.errorLog = errorLog;
+        dydFilename = null;
+        binaryDydFilename = null;
+        errFilename = null;
+        varTableFilename = null;
+        procFilename = null;
+        astFilename = null;
+        sourceFilename = null;
+        console = false;
+    }
+
+    /**
+     * 出错时在控制台额外输出出错的源代码行
+     */
+    void setShowErrorContext(boolean showErrorContext) {
+        this.showErrorContext = showErrorContext;
     }
 
-    private void programErrorAndExit(String reason) {
-        System.err.println(reason);
-        System.exit(-1);
+    /**
+     * 是否在控制台回显语法错误(成批输出)，错误总是写入err文件
+     */
+    void setEchoErrors(boolean echoErrors) {
+        this.echoErrors = echoErrors;
     }
 
+    /**
+     * 最多报告的错误数，达到后停止语法分析；0表示不限
+     */
+    void setMaxErrors(int maxErrors) {
+        this.maxErrors = maxErrors;
+    }
+
+    /**
+     * 分析成功后把语法树写入ast文件
+     */
+    void setWriteAst(boolean writeAst) {
+        this.writeAst = writeAst;
+    }
+
+    /**
+     * 语法树，run()之后可用；有错误时可能不完整
+     */
+    Ast ast() {
+        return ast;
+    }
+
+    /**
+     * 语法错误：进入恐慌模式，到下一个同步点之前的语法错误都是连带产生的，不再报告
+     */
     private void printParseError(String reason) {
-        String info = String.format("***LINE:%d  %s", currentLine, reason);
-        System.err.println(info);
-        errorPw.println(info);
+        if (!recovering) {
+            recovering = true;
+            report(reason);
+        }
     }
 
-    private void advance() {
-        currentIndex++;
-        if (currentIndex < wordList.size()) {
-            currentWord = wordList.get(currentIndex);
-            currentWordType = typeList.get(currentIndex);
-        } else {
-            currentWord = null;
-        }
-
-        if (currentWord != null) {
-            String string = currentLineSb.toString();
-            while (!string.startsWith(currentWord) && sourceScanner.hasNextLine()) {
-                string = sourceScanner.nextLine();
-                currentLineSb.delete(0, currentLineSb.length());
-                currentLineSb.append(string);
-                removeLineSpaceStart();
-                string = currentLineSb.toString();
-                currentLine++;
+    /**
+     * 语义错误(未定义、重复定义)：不影响分析的位置，恐慌模式下也报告
+     */
+    private void printSemanticError(String reason) {
+        report(reason);
+    }
+
+    private void report(String reason) {
+        if (stopped) {
+            return;
+        }
+        // 同一行的同一错误只报告一次
+        if (currentLine != errorLine) {
+            errorLine = currentLine;
+            lineErrors.clear();
+        }
+        if (!lineErrors.add(reason)) {
+            return;
+        }
+        errorLog.error(currentLine, reason);
+        if (showErrorContext && errorLog.isEchoing()) {
+            printErrorContext();
+        }
+        if (maxErrors > 0 && errorLog.count() >= maxErrors) {
+            errorLog.echo("***错误已达" + maxErrors + "个，停止语法分析");
+            stopped = true;
+            stackSize = 0;
+        }
+    }
+
+    /**
+     * 当前单词应是type：是则读入下一个单词；否则报错，若当前单词是同步符号，认为是缺少了type，把它留给外层
+     */
+    private void expect(int type, String reason) {
+        if (currentWordType != type) {
+            printParseError(reason);
+            if (isSyncWord()) {
+                return;
             }
+        }
+        advance();
+    }
+
+    private boolean isSyncWord() {
+        return currentWordType == SEMICOLON || currentWordType == END
+                || currentWordType == ELSE || currentWordType == THEN;
+    }
 
-            if (!string.startsWith(currentWord)) {
-                programErrorAndExit("源文件与dyd文件内容不匹配: " + string + ": " + currentWord);
+    /**
+     * 同步点：恐慌模式下跳过单词，直到同步符号(; end else then)或结尾，然后退出恐慌模式
+     */
+    private void synchronize() {
+        if (recovering) {
+            while (!atEnd() && !isSyncWord()) {
+                advance();
             }
-            currentLineSb.delete(0, currentWord.length());
-            removeLineSpaceStart();
+            recovering = false;
+        }
+    }
+
+    private void printErrorContext() {
+        if (sourceIndex == null) {
+            sourceIndex = new SourceIndex(sourceFilename);
+        }
+        String line = sourceIndex.line(currentLine);
+        if (line == null) {
+            return;
+        }
+        errorLog.echo("    " + line);
+        int column = currentIndex < tokens.size() ? tokens.column(currentIndex) : 0;
+        if (column > 0) {
+            StringBuilder sb = new StringBuilder("    ");
+            for (int i = 1; i < column; i++) {
+                sb.append(i <= line.length() && line.charAt(i - 1) == '\t' ? '\t' : ' ');
+            }
+            errorLog.echo(sb.append('^').toString());
+        }
+    }
+
+    private void advance() {
+        currentIndex++;
+        if (currentIndex >= tokens.size() && pipe != null) {
+            nextBatch();
+        }
+        if (currentIndex < tokens.size()) {
+            currentWordType = tokens.type(currentIndex);
+            currentLine = tokens.line(currentIndex);
         }
     }
 
-    private void removeLineSpaceStart() {
-        while (currentLineSb.length() > 0 && Character.isWhitespace(currentLineSb.charAt(0))) {
-            currentLineSb.delete(0, 1);
+    /**
+     * 已读过最后一个单词。此时currentWordType仍是最后一个单词的类型，列表的循环要据此停止，
+     * 否则以;、*、-结尾的源程序会无限循环(递归下降时是StackOverflowError)
+     */
+    private boolean atEnd() {
+        return currentIndex >= tokens.size();
+    }
+
+    /**
+     * 流水线模式下读完一批后换到下一批，只在这里(和向前看时)等待词法分析；已读完全部单词时保持在结尾
+     */
+    private void nextBatch() {
+        TokenStream next = lookahead != null ? lookahead : pipe.take();
+        lookahead = null;
+        if (next != null) {
+            pipe.release();
+            tokenBase += tokens.size();
+            tokens = next;
+            currentIndex = 0;
         }
     }
 
-    void checkHasError() {
+    private int tokenIndex() {
+        return tokenBase + currentIndex;
+    }
+
+    /**
+     * 当前单词的文本，只在报错和登记名字时才生成；已到结尾时为null
+     */
+    private String currentWord() {
+        return currentIndex < tokens.size() ? tokens.text(currentIndex) : null;
+    }
+
+    /**
+     * 当前标识符的符号ID，不是标识符时为-1
+     */
+    private int currentSymbol() {
+        return currentIndex < tokens.size() ? tokens.symbol(currentIndex) : -1;
+    }
+
+    /**
+     * err文件中已有的错误数(词法错误)，没有err文件时为0
+     */
+    int countErrors() throws IOException {
+        if (pipe != null) {
+            // 流水线模式下词法错误由词法分析线程报告，err文件此时可能还在写入
+            return 0;
+        }
         File errFile = new File(errFilename);
-        if (errFile.exists()) try {
-            Scanner scanner = new Scanner(errFile.getAbsoluteFile());
+        if (!errFile.exists()) {
+            return 0;
+        }
+        try (Scanner scanner = new Scanner(errFile.getAbsoluteFile())) {
             int count = 0;
             while (scanner.hasNext()) {
                 scanner.nextLine();
                 count++;
             }
-            if (count > 0) {
-                programErrorAndExit("***语法分析：失败。有" + count + "个错误, 具体查看" + errFilename + "文件");
-            }
+            return count;
         } catch (FileNotFoundException e) {
-            programErrorAndExit("打开错误文件失败");
+            throw new IOException("打开错误文件失败", e);
         }
     }
 
-    void run() {
-        checkHasError();
-        Scanner dydScanner;
+    String errorFilename() {
+        return errFilename;
+    }
+
+    /**
+     * 分析并写出err文件、过程表和变量表，返回错误数；有错误时不写出过程表和变量表
+     */
+    int run() throws IOException {
+        int errors = countErrors();
+        if (errors > 0) {
+            return errors;
+        }
         try {
-            dydScanner = new Scanner(new File(dydFilename));
-            sourceScanner = new Scanner(new File(sourceFilename));
-            errorPw = new PrintWriter(new FileOutputStream(errFilename), true);
+            errorLog = new ErrorLog(errFilename, echoErrors, pipe != null);
         } catch (FileNotFoundException e) {
-            e.printStackTrace();
-            return;
+            throw new IOException("创建文件" + errFilename + "失败", e);
         }
 
-        int lineNumber = 0;
-        while (dydScanner.hasNextLine()) {
-            lineNumber++;
-            String line = dydScanner.nextLine().trim();
-            int index = line.indexOf(" ");
-            if (index == -1) {
-                programErrorAndExit(PROGRAM_ERROR_DYD);
-            }
-            String word = line.substring(0, index);
-            if (word.isEmpty()) {
-                programErrorAndExit(PROGRAM_ERROR_DYD);
-            }
-            String typeString = line.substring(index + 1).trim();
-            int type = -1;
-            try {
-                type = Integer.parseInt(typeString);
-            } catch (NumberFormatException e) {
-                programErrorAndExit("dyd文件错误(line " + lineNumber + ")：不是有效的类型" + typeString);
-            }
+        if (pipe != null) {
+            // 开始词法分析前驻留main，之后符号表只由词法分析线程访问
+            mainSymbol = pipe.reserve("main");
+            pipe.start();
+            tokens = pipe.take();
+        } else if (tokens == null) {
+            tokens = readTokens();
+        }
 
-            if (!TypeCode.isTypeCode(type)) {
-                programErrorAndExit("dyd文件错误(line " + lineNumber + ")：不是有效的类型" + typeString);
-            }
-            if (type != EOLN && type != EOF) {
-                wordList.add(word);
-                typeList.add(type);
+        if (tokens == null || tokens.size() == 0) {
+            closeErrorLog();
+            System.err.println("No content in source file.");
+            return 0;
+        }
+        analyze();
+        if (pipe != null) {
+            // 等词法分析结束：有词法错误时它会直接退出，不写语法分析的err文件
+            while (pipe.take() != null) {
+                pipe.release();
             }
+            pipe = null;
+        }
+        closeErrorLog();
+        errors = countErrors();
+        if (errors > 0) {
+            return errors;
+        }
+        generateProcTable();
+        generateVariableTable();
+        if (writeAst) {
+            generateAst();
         }
+        return 0;
+    }
+
+    /**
+     * 分析已取得的单词，生成语法树和过程表、变量表，不读写文件
+     */
+    void analyze() {
         currentIndex = -1;
+        if (tokens.size() > 0) {
+            if (pipe == null) {
+                mainSymbol = tokens.symbolTable().lookup("main");
+            }
+            advance();
+            parse();
+        }
+        ast.finish();
+    }
 
-        if (!sourceScanner.hasNextLine()) {
-            System.err.println("No content in source file.");
-            return;
+    /**
+     * 增量分析：只分析procedure的函数体，从第begin个单词(函数体的begin)开始，到与它配对的end为止。
+     * procedures、variables是函数体之前的过程表、变量表，外层各过程的作用域已恢复到函数体开始时的状态。
+     * 语法树以函数说明结点为根，函数头的结点从previous的node结点复制。返回分析结束时的单词下标
+     */
+    int analyzeBody(Procedure procedure, List<Procedure> procedures, List<Variable> variables, Ast previous,
+                    int node, int begin) {
+        procedureList.addAll(procedures);
+        variableList.addAll(variables);
+        variableCount = variables.size();
+        currentProc = procedure;
+        currentLevel = procedure.level;
+        ast.open(Ast.FUNC_DECLARE, previous.token(node), previous.symbol(node), previous.line(node));
+        for (int child = previous.firstChild(node); child >= 0 && previous.token(child) < begin;
+             child = previous.nextSibling(child)) {
+            ast.add(previous.kind(child), previous.token(child), previous.symbol(child), previous.line(child));
         }
+        currentIndex = begin - 1;
         advance();
-        program();
-        errorPw.flush();
-        errorPw.close();
-        checkHasError();
-        generateProcTable();
-        generateVariableTable();
+        funcBody();
+        drain();
+        ast.finish();
+        return currentIndex;
+    }
 
+    List<Procedure> procedures() {
+        return procedureList;
     }
 
-    private void generateProcTable() {
-        try (PrintWriter pw = new PrintWriter(procFilename)) {
-            for (int i = 0; i < procedureList.size(); i++) {
-                Procedure procedure = procedureList.get(i);
-                pw.println(String.format("%16s %16s %16d %16d %16d %16d",
-                        procedure.name, procedure.type, procedure.level,
-                        procedure.firstVarOffset, procedure.lastVarOffset, i));
-            }
-        } catch (FileNotFoundException e) {
-            programErrorAndExit("打开文件" + procFilename + "失败");
+    List<Variable> variables() {
+        return variableList;
+    }
+
+    private void closeErrorLog() throws IOException {
+        try {
+            errorLog.close();
+        } catch (IOException e) {
+            throw new IOException("写入文件" + errFilename + "失败", e);
+        }
+    }
+
+    /**
+     * 单独运行语法分析时读取词法分析结果：二进制dyd文件存在且不比文本dyd文件旧时优先读取它
+     */
+    private TokenStream readTokens() throws IOException {
+        File dydFile = new File(dydFilename);
+        File binaryFile = new File(binaryDydFilename);
+        if (binaryFile.exists() && (!dydFile.exists() || binaryFile.lastModified() >= dydFile.lastModified())) {
+            return TokenStream.readBinaryDyd(binaryFile);
+        }
+        return TokenStream.readDyd(dydFile);
+    }
+
+    private void generateProcTable() throws IOException {
+        try (TableWriter out = new TableWriter(procFilename)) {
+            writeProcTable(procedureList, out);
+        } catch (IOException e) {
+            throw new IOException("打开文件" + procFilename + "失败", e);
+        }
+    }
+
+    private void generateVariableTable() throws IOException {
+        try (TableWriter out = new TableWriter(varTableFilename)) {
+            writeVariableTable(variableList, out);
+        } catch (IOException e) {
+            throw new IOException("打开文件" + varTableFilename + "失败", e);
         }
     }
 
-    private void generateVariableTable() {
-        try (PrintWriter pw = new PrintWriter(varTableFilename)) {
-            for (Variable variable : variableList) {
-                pw.println(String.format("%16s %16d %16d %16s %16d %16d",
-                        variable.name, procedureList.indexOf(variable.proc), variable.kind, variable.type, variable.level, variable.offset));
+    static void writeProcTable(List<Procedure> procedures, TableWriter out) throws IOException {
+        for (int i = 0; i < procedures.size(); i++) {
+            Procedure procedure = procedures.get(i);
+            out.right(procedure.name, 16).space().right(procedure.type, 16).space()
+                    .right(procedure.level, 16).space().right(procedure.firstVarOffset, 16).space()
+                    .right(procedure.lastVarOffset, 16).space().right(i, 16).newLine();
+        }
+    }
+
+    static void writeVariableTable(List<Variable> variables, TableWriter out) throws IOException {
+        for (Variable variable : variables) {
+            out.right(variable.name, 16).space().right(variable.procId, 16).space()
+                    .right(variable.kind, 16).space().right(variable.type, 16).space()
+                    .right(variable.level, 16).space().right(variable.offset, 16).newLine();
+        }
+    }
+
+    private void generateAst() throws IOException {
+        try {
+            ast.write(new File(astFilename));
+        } catch (IOException e) {
+            throw new IOException("写入文件" + astFilename + "失败", e);
+        }
+    }
+
+    // 分析栈中的待办项，每一项对应下面一个方法；非终结符的方法不直接调用子非终结符，而是把它们(及自己的后续部分)压栈，
+    // 所以栈只随嵌套层数增长，与语句、表达式的长度无关，也不会因为源程序过大而StackOverflowError
+    private static final int DECLARE_STATEMENT_TABLE = 1;
+    private static final int $DECLARE_STATEMENT_TABLE = 2;
+    private static final int DECLARE_STATEMENT = 3;
+    private static final int FUNC_BODY_END = 4;
+    private static final int FUNC_DECLARE_END = 5;
+    private static final int EXEC_STATEMENT_TABLE = 6;
+    private static final int $EXEC_STATEMENT_TABLE = 7;
+    private static final int EXEC_STATEMENT = 8;
+    private static final int CAL_EXPRESSION = 9;
+    private static final int $CAL_EXPRESSION = 10;
+    private static final int TERM = 11;
+    private static final int $TERM = 12;
+    private static final int FACTOR = 13;
+    private static final int FUNC_CALL_END = 14;
+    private static final int RELATION_OPERATOR = 15;
+    private static final int CONDITION_THEN = 16;
+    private static final int CONDITION_ELSE = 17;
+    private static final int PROGRAM_END = 18;
+    // 结束当前的语法树结点
+    private static final int CLOSE_NODE = 19;
+
+    private int[] stack = new int[64];
+    private int stackSize;
+
+    private void push(int item) {
+        if (stackSize == stack.length) {
+            stack = Arrays.copyOf(stack, stackSize << 1);
+        }
+        stack[stackSize++] = item;
+    }
+
+    private void parse() {
+        program();
+        drain();
+    }
+
+    /**
+     * 处理分析栈中的待办项，直到栈空
+     */
+    private void drain() {
+        while (stackSize > 0) {
+            switch (stack[--stackSize]) {
+                case DECLARE_STATEMENT_TABLE:
+                    declareStatementTable();
+                    break;
+                case $DECLARE_STATEMENT_TABLE:
+                    $declareStatementTable();
+                    break;
+                case DECLARE_STATEMENT:
+                    declareStatement();
+                    break;
+                case FUNC_BODY_END:
+                    funcBodyEnd();
+                    break;
+                case FUNC_DECLARE_END:
+                    funcDeclareEnd();
+                    break;
+                case EXEC_STATEMENT_TABLE:
+                    execStatementTable();
+                    break;
+                case $EXEC_STATEMENT_TABLE:
+                    $execStatementTable();
+                    break;
+                case EXEC_STATEMENT:
+                    execStatement();
+                    break;
+                case CAL_EXPRESSION:
+                    calExpresion();
+                    break;
+                case $CAL_EXPRESSION:
+                    $calExpression();
+                    break;
+                case TERM:
+                    term();
+                    break;
+                case $TERM:
+                    $term();
+                    break;
+                case FACTOR:
+                    factor();
+                    break;
+                case FUNC_CALL_END:
+                    funcCallEnd();
+                    break;
+                case RELATION_OPERATOR:
+                    relationOperator();
+                    break;
+                case CONDITION_THEN:
+                    conditionThen();
+                    break;
+                case CONDITION_ELSE:
+                    conditionElse();
+                    break;
+                case PROGRAM_END:
+                    programEnd();
+                    break;
+                case CLOSE_NODE:
+                    ast.close();
+                    break;
             }
-        } catch (FileNotFoundException e) {
-            programErrorAndExit("打开文件" + varTableFilename + "失败");
         }
     }
 
     // 程序
     private void program() {
         currentLevel = 0;
-        currentProc = new Procedure("main", "void", 0, 0, 0, null);
-        procedureSet.add(currentProc);
+        currentProc = new Procedure(0, "main", mainSymbol, "void", 0, 0, 0, null);
+        currentProc.scope = new Scope(null);
         procedureList.add(currentProc);
+        ast.open(Ast.PROGRAM, tokenIndex(), currentProc.id, currentLine);
         // <程序> => <分程序>
         // <分程序> => begin<说明语句表>;<执行语句表>end
         if (currentWordType == BEGIN) {
@@ -207,16 +583,23 @@ class Parser {
         } else {
             printParseError("分程序起始缺少begin");
         }
-        declareStatementTable();
-        execStatementTable();
+        // 后执行的先压栈
+        push(PROGRAM_END);
+        push(EXEC_STATEMENT_TABLE);
+        push(DECLARE_STATEMENT_TABLE);
+    }
+
+    private void programEnd() {
+        synchronize();
         if (currentWordType == END) {
             advance();
         } else {
             printParseError("分程序结束缺少end");
         }
-        if (currentWord != null) {
-            printParseError("非法符号的开始: " + currentWord);
+        if (currentIndex < tokens.size()) {
+            printParseError("非法符号的开始: " + currentWord());
         }
+        ast.close();
     }
 
     private void declareStatementTable() {
@@ -224,16 +607,17 @@ class Parser {
         // 消除左递归:
         // <说明语句表> => <说明语句><$说明语句表>
         // <$说明语句表> => ;<说明语句><$说明语句表>│<null>
-        declareStatement();
-        $declareStatementTable();
+        push($DECLARE_STATEMENT_TABLE);
+        push(DECLARE_STATEMENT);
     }
 
     private void $declareStatementTable() {
         // <$说明语句表> => ;<说明语句><$说明语句表>│<null>
-        if (currentWordType == SEMICOLON) {
+        synchronize();
+        if (currentWordType == SEMICOLON && !atEnd()) {
             advance();
-            declareStatement();
-            $declareStatementTable();
+            push($DECLARE_STATEMENT_TABLE);
+            push(DECLARE_STATEMENT);
         }
     }
 
@@ -255,58 +639,76 @@ class Parser {
         }
     }
 
+    /**
+     * 下一个单词的类型，没有下一个单词时为EOF
+     */
     private int nextWordType() {
         int index = currentIndex + 1;
-        if (currentIndex >= typeList.size()) {
+        if (currentIndex >= tokens.size()) {
             printParseError("非法结尾");
         }
-        return typeList.get(index);
+        if (index >= tokens.size() && pipe != null) {
+            if (lookahead == null) {
+                lookahead = pipe.take();
+            }
+            if (lookahead != null) {
+                return lookahead.type(0);
+            }
+        }
+        return index < tokens.size() ? tokens.type(index) : EOF;
     }
 
     private void funcDeclare() {
         // <函数说明> => integer function <标识符> (<参数>);<函数体>
         if (currentWordType != INTEGER) {
-            printParseError("函数定义类型错：" + currentWord);
-        }
-        String returnType = currentWord;
-        advance();
-        if (currentWordType != FUNCTION) {
-            printParseError("函数定义缺少关键字\"function\"");
+            printParseError("函数定义类型错：" + currentWord());
         }
+        String returnType = currentWord();
         advance();
+        expect(FUNCTION, "函数定义缺少关键字\"function\"");
         if (currentWordType != IDENTIFIER) {
             printParseError("函数定义缺少标识符");
         }
-        Procedure procedure = new Procedure(currentWord, "integer", currentLevel + 1, 0, 0, currentProc);
-        if (procedureSet.add(procedure)) {
+        int procId = currentProc.scope.find(currentSymbol(), Scope.PROCEDURE);
+        Procedure procedure;
+        if (procId < 0) {
+            procedure = new Procedure(procedureList.size(), currentWord(), currentSymbol(), "integer", currentLevel + 1, 0, 0, currentProc);
+            procedure.scope = new Scope(currentProc.scope);
+            currentProc.scope.add(currentSymbol(), Scope.PROCEDURE, procedure.id);
             procedureList.add(procedure);
         } else {
-            printParseError("函数: " + currentWord + " 重复定义");
+            printSemanticError("函数: " + currentWord() + " 重复定义");
+            // 重复定义的函数与先定义的共用ID和作用域，但不登记到过程表
+            procedure = new Procedure(procId, currentWord(), currentSymbol(), "integer", currentLevel + 1, 0, 0, currentProc);
+            procedure.scope = procedureList.get(procId).scope;
         }
         currentProc = procedure;
         currentLevel++;
+        ast.open(Ast.FUNC_DECLARE, tokenIndex(), procedure.id, currentLine);
 
         // 将 (函数名: returnType) 加入变量表
-        Variable variable = new Variable(currentWord, currentProc, 0, returnType, currentLevel, variableSet.size());
-        variableSet.add(variable);
+        ast.add(Ast.VAR_DECLARE, tokenIndex(), variableList.size(), currentLine);
+        Variable variable = new Variable(currentWord(), currentSymbol(), currentProc.id, 0, returnType, currentLevel, variableCount);
+        if (currentProc.scope.add(currentSymbol(), 0, variableList.size())) {
+            variableCount++;
+        }
         variableList.add(variable);
 
         advance();
 
-        if (currentWordType != BRACKET_LEFT) {
-            printParseError("函数声明出错：缺少(");
-        }
-        advance();
+        expect(BRACKET_LEFT, "函数声明出错：缺少(");
 
         int paramStart = variableList.size();
         // <参数> => <变量>
         // <变量> => <标识符>
         if (currentWordType == IDENTIFIER) {
-            Variable param = new Variable(currentWord, currentProc, 1, "integer", currentLevel, variableList.size());
-            if (variableSet.add(param)) {
+            Variable param = new Variable(currentWord(), currentSymbol(), currentProc.id, 1, "integer", currentLevel, variableList.size());
+            if (currentProc.scope.add(currentSymbol(), 1, variableList.size())) {
+                ast.add(Ast.VAR_DECLARE, tokenIndex(), variableList.size(), currentLine);
+                variableCount++;
                 variableList.add(param);
-            } else {
-                System.out.println("参数名不能与函数名相同: " + currentWord);
+            } else if (console) {
+                System.out.println("参数名不能与函数名相同: " + currentWord());
             }
         }
         int paramEnd = variableList.size();
@@ -315,19 +717,16 @@ class Parser {
         currentProc.lastVarOffset = paramEnd;
 
         advance();
-        if (currentWordType != BRACKET_RIGHT) {
-            printParseError("函数声明出错：缺少)");
-        }
-        advance();
-        if (currentWordType != SEMICOLON) {
-            printParseError("函数声明出错：缺少;");
-        }
-        advance();
+        expect(BRACKET_RIGHT, "函数声明出错：缺少)");
+        expect(SEMICOLON, "函数声明出错：缺少;");
 
         funcBody();
+    }
 
+    private void funcDeclareEnd() {
         currentProc = currentProc.parent;
         currentLevel--;
+        ast.close();
     }
 
 
@@ -338,12 +737,15 @@ class Parser {
         } else {
             advance();
         }
-        declareStatementTable();
-        execStatementTable();
-        if (currentWordType != END) {
-            printParseError("函数体结束缺少end");
-        }
-        advance();
+        push(FUNC_DECLARE_END);
+        push(FUNC_BODY_END);
+        push(EXEC_STATEMENT_TABLE);
+        push(DECLARE_STATEMENT_TABLE);
+    }
+
+    private void funcBodyEnd() {
+        synchronize();
+        expect(END, "函数体结束缺少end");
     }
 
 
@@ -352,62 +754,56 @@ class Parser {
         // integer、 <变量> 已验证
         // currentWord是变量标识
         if (currentWordType != INTEGER) {
-            printParseError("变量声明类型错误：" + currentWord);
+            printParseError("变量声明类型错误：" + currentWord());
         }
         advance();
         if (currentWordType != IDENTIFIER) {
-            printParseError("不是变量标识符：" + currentWord);
+            printParseError("不是变量标识符：" + currentWord());
         }
-        Variable variable = new Variable(currentWord, currentProc, 0,
-                "integer", currentLevel, variableSet.size());
-        if (variableSet.add(variable)) {
+        Variable variable = new Variable(currentWord(), currentSymbol(), currentProc.id, 0,
+                "integer", currentLevel, variableCount);
+        if (currentProc.scope.add(currentSymbol(), 0, variableList.size())) {
+            variableCount++;
             variableList.add(variable);
         } else {
-            printParseError("重复定义变量: " + currentWord);
+            printSemanticError("重复定义变量: " + currentWord());
         }
-        var();
+        var(Ast.VAR_DECLARE);
     }
 
-    private void var() {
+    /**
+     * 变量，在语法树中添加一个nodeKind结点，符号为查到的变量表下标
+     */
+    private void var(int nodeKind) {
         if (currentWordType != IDENTIFIER) {
-            printParseError("不是标识符: " + currentWord);
+            // 不是标识符就不再查变量表，免得连带报告未定义
+            expect(IDENTIFIER, "不是标识符: " + currentWord());
+            return;
         }
         // 变量 -> 标识符
-        Variable variable = getFromVarTable(currentWord);
-        if (variable == null) {
-            printParseError("变量: " + currentWord + " 未定义");
+        int index = currentProc.scope.lookup(currentSymbol());
+        if (index < 0) {
+            printSemanticError("变量: " + currentWord() + " 未定义");
         }
+        ast.add(nodeKind, tokenIndex(), index, currentLine);
         advance();
     }
 
-
-    private Variable getFromVarTable(String identifier) {
-        Procedure procedure = currentProc;
-        int level = currentLevel;
-        while (level >= 0) {
-            Variable variable = new Variable(identifier, procedure, 0, "integer", level, 0);
-            if (variableSet.contains(variable)) {
-                return variableList.get(variableList.indexOf(variable));
-            }
-            level--;
-            if (procedure != null) {
-                procedure = procedure.parent;
-            }
-        }
-        return null;
-    }
-
     private void execStatementTable() {
         // <执行语句表 => <执行语句>│<执行语句表>;<执行语句>
         // 消除左递归：
         // <执行语句表> => <执行语句><$执行语句表>
         // <$执行语句表> => ;<执行语句><$执行语句表>│<null>
-        execStatement();
-        $execStatementTable();
+        push($EXEC_STATEMENT_TABLE);
+        push(EXEC_STATEMENT);
     }
 
     private void execStatement() {
         // <执行语句> => <读语句>│<写语句>│<赋值语句>│<条件语句>
+        if (atEnd()) {
+            // 已到结尾时currentWordType仍是最后一个单词，以if结尾时会不断重新开始条件语句
+            return;
+        }
         if (currentWordType == READ) {
             readStatement();
         } else if (currentWordType == WRITE) {
@@ -421,55 +817,57 @@ class Parser {
 
     private void $execStatementTable() {
         // <$执行语句表> => ;<执行语句><$执行语句表>│<null>
-        if (currentWordType == SEMICOLON) {
+        synchronize();
+        if (currentWordType != SEMICOLON && currentWordType != END && !atEnd()) {
+            // FOLLOW(<执行语句表>) = {end}，其他单词都是错误
+            if (currentWordType == READ || currentWordType == WRITE
+                    || currentWordType == IDENTIFIER || currentWordType == IF) {
+                // FIRST(<执行语句>)：按缺少;继续分析下一条语句
+                printParseError("缺少;");
+                push($EXEC_STATEMENT_TABLE);
+                push(EXEC_STATEMENT);
+                return;
+            }
+            printParseError("非法符号: " + currentWord());
+            while (currentWordType != SEMICOLON && currentWordType != END && !atEnd()) {
+                advance();
+            }
+            recovering = false;
+        }
+        if (currentWordType == SEMICOLON && !atEnd()) {
             advance();
-            execStatement();
-            $execStatementTable();
+            push($EXEC_STATEMENT_TABLE);
+            push(EXEC_STATEMENT);
         }
     }
 
     private void readStatement() {
         //<读语句> => read(<变量>)
-        if (currentWordType != READ) {
-            printParseError("读语句错误");
-        }
-        advance();
-        if (currentWordType != BRACKET_LEFT) {
-            printParseError("读语句缺少(");
-        }
-        advance();
-        var();
-        if (currentWordType != BRACKET_RIGHT) {
-            printParseError("读语句缺少)");
-        }
-        advance();
+        ast.open(Ast.READ, tokenIndex(), -1, currentLine);
+        expect(READ, "读语句错误");
+        expect(BRACKET_LEFT, "读语句缺少(");
+        var(Ast.VARIABLE);
+        expect(BRACKET_RIGHT, "读语句缺少)");
+        ast.close();
     }
 
     private void writeStatement() {
         //<写语句> => write(<变量>)
-        if (currentWordType != WRITE) {
-            printParseError("读语句错误");
-        }
-        advance();
-        if (currentWordType != BRACKET_LEFT) {
-            printParseError("写语句缺少(");
-        }
-        advance();
-        var();
-        if (currentWordType != BRACKET_RIGHT) {
-            printParseError("写语句缺少)");
-        }
-        advance();
+        ast.open(Ast.WRITE, tokenIndex(), -1, currentLine);
+        expect(WRITE, "读语句错误");
+        expect(BRACKET_LEFT, "写语句缺少(");
+        var(Ast.VARIABLE);
+        expect(BRACKET_RIGHT, "写语句缺少)");
+        ast.close();
     }
 
     private void assignStatement() {
         //<赋值语句> => <变量>:=<算术表达式>
-        var();
-        if (currentWordType != ASSIGN) {
-            printParseError("赋值语句缺少\":=\"");
-        }
-        advance();
-        calExpresion();
+        ast.open(Ast.ASSIGN, tokenIndex(), -1, currentLine);
+        var(Ast.VARIABLE);
+        expect(ASSIGN, "赋值语句缺少\":=\"");
+        push(CLOSE_NODE);
+        push(CAL_EXPRESSION);
     }
 
     private void calExpresion() {
@@ -477,8 +875,10 @@ class Parser {
         // 消除左递归：
         // <算术表达式> => <项><$算术表达式>
         // <$算术表达式> => -<项><$算术表达式>|<null>
-        term();
-        $calExpression();
+        ast.open(Ast.CAL_EXPRESSION, tokenIndex(), -1, currentLine);
+        push(CLOSE_NODE);
+        push($CAL_EXPRESSION);
+        push(TERM);
     }
 
     private void term() {
@@ -486,8 +886,10 @@ class Parser {
         // 消除左递归：
         // <项> => <因子><$项>
         // <$项> => *<因子><$项>│<null>
-        factor();
-        $term();
+        ast.open(Ast.TERM, tokenIndex(), -1, currentLine);
+        push(CLOSE_NODE);
+        push($TERM);
+        push(FACTOR);
     }
 
     private void factor() {
@@ -497,105 +899,120 @@ class Parser {
             if (nextWordType == BRACKET_LEFT) {
                 funcCall();
             } else {
-                var();
+                var(Ast.VARIABLE);
             }
         } else if (currentWordType == CONSTANT) {
-            advance();
+            constant();
         } else {
             printParseError("需要常数、变量或函数调用");
         }
     }
 
+    private void constant() {
+        int value;
+        try {
+            value = Integer.parseInt(currentWord());
+        } catch (NumberFormatException e) {
+            printSemanticError("常数超出范围: " + currentWord());
+            value = 0;
+        }
+        ast.add(Ast.CONSTANT, tokenIndex(), value, currentLine);
+        advance();
+    }
+
     private void funcCall() {
         // <函数调用> => <标识符>(<算术表达式>)
         if (currentWordType != IDENTIFIER) {
-            printParseError("不是函数调用标识符: " + currentWord);
+            printParseError("不是函数调用标识符: " + currentWord());
         }
 
-        if (!isDeclaredProcedure()) {
-            printParseError("没有声明的函数: " + currentWord);
-        }
-        advance();
-        if (currentWordType != BRACKET_LEFT) {
-            printParseError("函数调用出错，缺少(");
-        }
-        advance();
-        calExpresion();
-        if (currentWordType != BRACKET_RIGHT) {
-            printParseError("函数调用出错，缺少)");
+        int procId = declaredProcedure();
+        if (procId < 0) {
+            printSemanticError("没有声明的函数: " + currentWord());
         }
+        ast.open(Ast.FUNC_CALL, tokenIndex(), procId, currentLine);
         advance();
+        expect(BRACKET_LEFT, "函数调用出错，缺少(");
+        push(FUNC_CALL_END);
+        push(CAL_EXPRESSION);
     }
 
-    private boolean isDeclaredProcedure() {
-        Procedure curProc = currentProc;
-        Procedure procedure;
-        do {
-            if (curProc != null) {
-                procedure = new Procedure(currentWord, "integer", curProc.level + 1, 0, 0, curProc);
-                curProc = curProc.parent;
-            } else {
-                procedure = new Procedure(currentWord, "integer", 0, 0, 0, null);
-            }
+    private void funcCallEnd() {
+        expect(BRACKET_RIGHT, "函数调用出错，缺少)");
+        ast.close();
+    }
 
-            if (procedureSet.contains(procedure)) {
-                return true;
+    /**
+     * 当前标识符对应的过程ID，在当前过程及各外层过程直接声明的函数中查找，没有时为-1
+     */
+    private int declaredProcedure() {
+        int symbol = currentSymbol();
+        for (Scope scope = currentProc.scope; scope != null; scope = scope.parent) {
+            int procId = scope.find(symbol, Scope.PROCEDURE);
+            if (procId >= 0) {
+                return procId;
             }
-        } while (curProc != null);
-        return false;
+        }
+        return -1;
     }
 
     private void $term() {
         // <$项> => *<因子><$项>│<null>
-        if (currentWordType == MULTIPLY) {
+        if (currentWordType == MULTIPLY && !atEnd()) {
             advance();
-            factor();
-            $term();
+            push($TERM);
+            push(FACTOR);
         }
     }
 
     private void $calExpression() {
         // <$算术表达式> => -<项><$算术表达式>|<null>
-        if (currentWordType == SUBTRACT) {
+        if (currentWordType == SUBTRACT && !atEnd()) {
             advance();
-            term();
-            $calExpression();
+            push($CAL_EXPRESSION);
+            push(TERM);
         }
     }
 
     private void conditionStatement() {
         // <条件语句> => if<条件表达式>then<执行语句>else<执行语句>
-        if (currentWordType != IF) {
-            printParseError("缺少if");
-        }
-        advance();
+        ast.open(Ast.CONDITION, tokenIndex(), -1, currentLine);
+        expect(IF, "缺少if");
+        push(CONDITION_THEN);
         conditionExpresion();
-        if (currentWordType != THEN) {
-            printParseError("缺少then");
-        }
-        advance();
-        execStatement();
-        if (currentWordType != ELSE) {
-            printParseError("缺少else");
-        }
-        advance();
-        execStatement();
+    }
+
+    private void conditionThen() {
+        synchronize();
+        expect(THEN, "缺少then");
+        push(CONDITION_ELSE);
+        push(EXEC_STATEMENT);
+    }
+
+    private void conditionElse() {
+        synchronize();
+        expect(ELSE, "缺少else");
+        push(CLOSE_NODE);
+        push(EXEC_STATEMENT);
     }
 
     private void conditionExpresion() {
         // <条件表达式> => <算术表达式><关系运算符><算术表达式>
-        calExpresion();
-        relationOperator();
-        calExpresion();
+        ast.open(Ast.COMPARE, tokenIndex(), -1, currentLine);
+        push(CLOSE_NODE);
+        push(CAL_EXPRESSION);
+        push(RELATION_OPERATOR);
+        push(CAL_EXPRESSION);
     }
 
     private void relationOperator() {
         // <关系运算符> => <│<=│>│>=│=│<>
         // 对应code是12~17
         if (12 <= currentWordType && currentWordType <= 17) {
+            ast.set(ast.current(), tokenIndex(), currentWordType);
             advance();
         } else {
-            printParseError("不是关系运算符：" + currentWord);
+            printParseError("不是关系运算符：" + currentWord());
         }
     }
 }
@@ -0,0 +1,71 @@
+package parser;
+
+import word.TokenStream;
+import word.WordAnalyzerStarter;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintWriter;
+
+/**
+ * 语法分析规模测试：生成声明了n个变量的程序(一半在main中，一半在嵌套函数中，每个变量都被引用)，
+ * 对n依次翻倍，输出语法分析耗时及每个变量的平均耗时，用来确认耗时随程序规模线性增长。
+ * 用法: java parser.ParserBenchmark [最小变量数] [最大变量数] [workDir]
+ */
+public class ParserBenchmark {
+    private static final int ROUNDS = 3;
+
+    public static void main(String... args) throws IOException {
+        int from = args.length > 0 ? Integer.parseInt(args[0]) : 12500;
+        int to = args.length > 1 ? Integer.parseInt(args[1]) : 200000;
+        File dir = new File(args.length > 2 ? args[2] : System.getProperty("java.io.tmpdir"));
+        for (int n = from; n <= to; n <<= 1) {
+            run(dir, n);
+        }
+    }
+
+    private static void run(File dir, int n) throws IOException {
+        File source = new File(dir, "parser_benchmark_" + n + ".pas");
+        generate(source, n);
+        String filename = source.getPath();
+        TokenStream tokens = WordAnalyzerStarter.analyze(filename, WordAnalyzerStarter.DYD_NONE,
+                WordAnalyzerStarter.INPUT_AUTO, 1, true);
+        long best = Long.MAX_VALUE;
+        for (int i = 0; i < ROUNDS; i++) {
+            Parser parser = new Parser(filename, tokens);
+            long start = System.nanoTime();
+            parser.run();
+            best = Math.min(best, System.nanoTime() - start);
+        }
+        System.out.println(String.format("%d个变量, %d个单词: %.1fms, 每个变量%.0fns",
+                n, tokens.size(), best / 1e6, (double) best / n));
+    }
+
+    private static void generate(File file, int n) throws IOException {
+        int half = n / 2;
+        try (PrintWriter out = new PrintWriter(file)) {
+            out.println("begin");
+            for (int i = 0; i < half; i++) {
+                out.println("  integer v" + i + ";");
+            }
+            out.println("  integer function F(n);");
+            out.println("    begin");
+            out.println("      integer n;");
+            for (int i = half; i < n; i++) {
+                out.println("      integer v" + i + ";");
+            }
+            for (int i = half; i < n; i++) {
+                // 内层变量和外层变量交替引用，外层变量要沿作用域链向外查找
+                out.println("      v" + i + ":=v" + (i - half) + "*n;");
+            }
+            out.println("      F:=n");
+            out.println("    end;");
+            for (int i = 0; i < half; i++) {
+                out.println("  read(v" + i + ");");
+            }
+            out.println("  v0:=F(v0);");
+            out.println("  write(v0)");
+            out.println("end");
+        }
+    }
+}
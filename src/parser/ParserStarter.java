@@ -1,16 +1,94 @@
 package parser;
 
+import output.ErrorLog;
+import word.LineEdit;
+import word.TokenPipe;
+import word.TokenStream;
+
+import java.io.IOException;
+
 public class ParserStarter {
+    public static final int DEFAULT_MAX_ERRORS = Parser.DEFAULT_MAX_ERRORS;
+
     public static void main(String... args) {
         if (args.length < 1) {
             System.err.println("请将源文件路径传入命令行参数！");
             return;
         }
 
-        Parser parser = new Parser(args[0]);
-        parser.checkHasError();
-        System.out.println("***语法分析：" + args[0]);
-        parser.run();
+        parse(args[0], null, false, true, DEFAULT_MAX_ERRORS, false);
+    }
+
+    /**
+     * 语法分析；tokens为null时从dyd文件读取词法分析结果，showErrorContext为true时在控制台显示出错的源代码行，
+     * echoErrors为false时错误只写入err文件，报告maxErrors个错误后停止分析(0表示不限)，
+     * writeAst为true时把语法树写入ast文件；返回语法树及过程表、变量表
+     */
+    public static ParseResult parse(String filename, TokenStream tokens, boolean showErrorContext, boolean echoErrors,
+                            int maxErrors, boolean writeAst) {
+        Parser parser = new Parser(filename, tokens);
+        parser.setShowErrorContext(showErrorContext);
+        parser.setEchoErrors(echoErrors);
+        parser.setMaxErrors(maxErrors);
+        parser.setWriteAst(writeAst);
+        try {
+            exitIfFailed(parser, parser.countErrors());
+            System.out.println("***语法分析：" + filename);
+            exitIfFailed(parser, parser.run());
+        } catch (IOException e) {
+            exit(e.getMessage());
+        }
+        System.out.println("***语法分析完成");
+        return new ParseResult(parser.ast(), parser.procedures(), parser.variables());
+    }
+
+    /**
+     * 流水线模式：与词法分析并行，从pipe逐批读取单词
+     */
+    public static ParseResult parsePipelined(String filename, TokenPipe pipe, boolean showErrorContext, boolean echoErrors,
+                                     int maxErrors, boolean writeAst) {
+        Parser parser = new Parser(filename, pipe);
+        parser.setShowErrorContext(showErrorContext);
+        parser.setEchoErrors(echoErrors);
+        parser.setMaxErrors(maxErrors);
+        parser.setWriteAst(writeAst);
+        System.out.println("***语法分析：" + filename);
+        try {
+            exitIfFailed(parser, parser.run());
+        } catch (IOException e) {
+            exit(e.getMessage());
+        }
         System.out.println("***语法分析完成");
+        return new ParseResult(parser.ast(), parser.procedures(), parser.variables());
+    }
+
+    /**
+     * 分析内存中的单词序列，不读写文件、不输出到控制台，错误写入errorLog
+     */
+    public static ParseResult parse(TokenStream tokens, ErrorLog errorLog, int maxErrors) {
+        Parser parser = new Parser(tokens, errorLog);
+        parser.setMaxErrors(maxErrors);
+        parser.analyze();
+        return new ParseResult(parser.ast(), parser.procedures(), parser.variables());
+    }
+
+    /**
+     * 增量分析：previous是previousTokens没有语法错误时的结果，tokens是按edit增量词法分析得到的；
+     * 改动只在一个函数体内部且新的函数体没有语法错误时只重新分析这个函数体，否则返回null，此时应完整分析
+     */
+    public static ParseResult reparse(ParseResult previous, TokenStream previousTokens, TokenStream tokens,
+                                      LineEdit edit) {
+        return IncrementalParser.reparse(previous, previousTokens, tokens, edit);
+    }
+
+    private static void exitIfFailed(Parser parser, int errors) {
+        if (errors > 0) {
+            exit("***语法分析：失败。有" + errors + "个错误, 具体查看" + parser.errorFilename() + "文件");
+        }
+    }
+
+    private static void exit(String reason) {
+        System.err.println(reason);
+        System.exit(-1);
     }
 }
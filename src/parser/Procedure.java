@@ -1,17 +1,23 @@
 package parser;
 
-import java.util.Objects;
-
 public class Procedure {
+    // 过程ID，即在过程表中的下标，main为0
+    final int id;
     String name;
+    // 符号ID，见word.SymbolTable
+    int symbol;
     String type;
     int level;
     int firstVarOffset;
     int lastVarOffset;
     Procedure parent;
+    // 本过程的作用域(变量和直接声明的函数)，重复定义的过程与先定义的共用一个
+    Scope scope;
 
-    Procedure(String name, String type, int level, int firstVarOffset, int lastVarOffset, Procedure parent) {
+    Procedure(int id, String name, int symbol, String type, int level, int firstVarOffset, int lastVarOffset, Procedure parent) {
+        this.id = id;
         this.name = name;
+        this.symbol = symbol;
         this.type = type;
         this.level = level;
         this.firstVarOffset = firstVarOffset;
@@ -19,18 +25,50 @@ public class Procedure {
         this.parent = parent;
     }
 
+    public int id() {
+        return id;
+    }
+
+    public String name() {
+        return name;
+    }
+
+    public int symbol() {
+        return symbol;
+    }
+
+    public String type() {
+        return type;
+    }
+
+    public int level() {
+        return level;
+    }
+
+    public int firstVarOffset() {
+        return firstVarOffset;
+    }
+
+    public int lastVarOffset() {
+        return lastVarOffset;
+    }
+
+    /**
+     * 外层过程的ID，main为-1
+     */
+    public int parentId() {
+        return parent == null ? -1 : parent.id;
+    }
+
     @Override
     public boolean equals(Object o) {
         if (this == o) return true;
         if (o == null || getClass() != o.getClass()) return false;
-        Procedure procedure = (Procedure) o;
-        return level == procedure.level &&
-                Objects.equals(name, procedure.name) &&
-                Objects.equals(parent, procedure.parent);
+        return id == ((Procedure) o).id;
     }
 
     @Override
     public int hashCode() {
-        return Objects.hash(name, level, parent);
+        return id;
     }
 }
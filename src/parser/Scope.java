@@ -0,0 +1,95 @@
+package parser;
+
+/**
+ * 一个过程的作用域：按(符号ID, 种类)找到变量在变量表中的下标，或直接声明的函数的过程ID。
+ * 开放定址哈希表，键和值都是int，不为查找分配对象；parent指向外层过程的作用域。
+ */
+class Scope {
+    private static final int INITIAL_CAPACITY = 8;
+    // 种类：0、1同Variable.kind，2为在本过程中声明的函数
+    static final int PROCEDURE = 2;
+
+    final Scope parent;
+    // 槽中存放 键 + 1，0表示空槽；键 = (符号ID + 1) * 4 + 种类，符号ID可能是-1(出错时登记的非标识符)
+    private int[] keys = new int[INITIAL_CAPACITY];
+    private int[] indexes = new int[INITIAL_CAPACITY];
+    private int size;
+
+    Scope(Scope parent) {
+        this.parent = parent;
+    }
+
+    /**
+     * 本作用域中symbol、kind对应的下标，没有时返回-1
+     */
+    int find(int symbol, int kind) {
+        int key = key(symbol, kind);
+        int mask = keys.length - 1;
+        for (int slot = hash(key) & mask; keys[slot] != 0; slot = (slot + 1) & mask) {
+            if (keys[slot] == key) {
+                return indexes[slot];
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * 登记下标，已存在同样的符号和种类时返回false
+     */
+    boolean add(int symbol, int kind, int index) {
+        int key = key(symbol, kind);
+        int mask = keys.length - 1;
+        int slot = hash(key) & mask;
+        for (; keys[slot] != 0; slot = (slot + 1) & mask) {
+            if (keys[slot] == key) {
+                return false;
+            }
+        }
+        keys[slot] = key;
+        indexes[slot] = index;
+        if (++size * 2 > keys.length) {
+            rehash();
+        }
+        return true;
+    }
+
+    /**
+     * 由内向外逐层查找变量(种类0)，返回下标，都没有时返回-1
+     */
+    int lookup(int symbol) {
+        for (Scope scope = this; scope != null; scope = scope.parent) {
+            int index = scope.find(symbol, 0);
+            if (index >= 0) {
+                return index;
+            }
+        }
+        return -1;
+    }
+
+    private void rehash() {
+        int[] oldKeys = keys;
+        int[] oldIndexes = indexes;
+        keys = new int[oldKeys.length << 1];
+        indexes = new int[oldKeys.length << 1];
+        int mask = keys.length - 1;
+        for (int i = 0; i < oldKeys.length; i++) {
+            if (oldKeys[i] != 0) {
+                int slot = hash(oldKeys[i]) & mask;
+                while (keys[slot] != 0) {
+                    slot = (slot + 1) & mask;
+                }
+                keys[slot] = oldKeys[i];
+                indexes[slot] = oldIndexes[i];
+            }
+        }
+    }
+
+    private static int key(int symbol, int kind) {
+        return ((symbol + 1) << 2 | kind) + 1;
+    }
+
+    private static int hash(int key) {
+        int h = key * 0x9e3779b9;
+        return h ^ (h >>> 16);
+    }
+}
@@ -0,0 +1,76 @@
+package parser;
+
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.Arrays;
+
+/**
+ * 源文件的行偏移索引，只在需要显示出错位置时才读取源文件并建立。
+ * 行的划分与词法分析读取源文件时一致。
+ */
+class SourceIndex {
+    private final String filename;
+    private String content;
+    // 第n行(从1开始)的起始位置是lineStarts[n - 1]
+    private int[] lineStarts;
+    private int lineCount;
+
+    SourceIndex(String filename) {
+        this.filename = filename;
+    }
+
+    /**
+     * 返回第line行的内容(不含换行符)，行号从1开始；无法读取源文件或行号越界时返回null
+     */
+    String line(int line) {
+        if (content == null && !load()) {
+            return null;
+        }
+        if (line < 1 || line > lineCount) {
+            return null;
+        }
+        int start = lineStarts[line - 1];
+        int end = line < lineCount ? lineStarts[line] : content.length();
+        if (end > start && isLineSeparator(content.charAt(end - 1))) {
+            end--;
+            if (content.charAt(end) == '\n' && end > start && content.charAt(end - 1) == '\r') {
+                end--;
+            }
+        }
+        return content.substring(start, end);
+    }
+
+    private boolean load() {
+        try {
+            content = new String(Files.readAllBytes(Paths.get(filename)), Charset.defaultCharset());
+        } catch (IOException e) {
+            return false;
+        }
+        lineStarts = new int[64];
+        lineStarts[0] = 0;
+        lineCount = 1;
+        int length = content.length();
+        for (int i = 0; i < length; i++) {
+            char c = content.charAt(i);
+            if (!isLineSeparator(c)) {
+                continue;
+            }
+            if (c == '\r' && i + 1 < length && content.charAt(i + 1) == '\n') {
+                i++;
+            }
+            if (i + 1 < length) {
+                if (lineCount == lineStarts.length) {
+                    lineStarts = Arrays.copyOf(lineStarts, lineCount << 1);
+                }
+                lineStarts[lineCount++] = i + 1;
+            }
+        }
+        return true;
+    }
+
+    private static boolean isLineSeparator(char c) {
+        return c == '\n' || c == '\r' || c == '\u2028' || c == '\u2029' || c == '\u0085';
+    }
+}
@@ -1,25 +1,55 @@
 package parser;
 
-import java.util.Objects;
-
 public class Variable {
     String name;
-    Procedure proc;
+    // 符号ID，见word.SymbolTable
+    int symbol;
+    // 所属过程的ID
+    int procId;
     // 0: 变量 1: 形参
     int kind;
     String type;
     int level;
     int offset;
 
-    Variable(String name, Procedure proc, int kind, String type, int level, int offset) {
+    Variable(String name, int symbol, int procId, int kind, String type, int level, int offset) {
         this.name = name;
-        this.proc = proc;
+        this.symbol = symbol;
+        this.procId = procId;
         this.kind = kind;
         this.type = type;
         this.level = level;
         this.offset = offset;
     }
 
+    public String name() {
+        return name;
+    }
+
+    public int symbol() {
+        return symbol;
+    }
+
+    public int procId() {
+        return procId;
+    }
+
+    public int kind() {
+        return kind;
+    }
+
+    public String type() {
+        return type;
+    }
+
+    public int level() {
+        return level;
+    }
+
+    public int offset() {
+        return offset;
+    }
+
     @Override
     public boolean equals(Object o) {
         if (this == o) return true;
@@ -27,12 +57,12 @@ public class Variable {
         Variable variable = (Variable) o;
         return kind == variable.kind &&
                 level == variable.level &&
-                Objects.equals(name, variable.name) &&
-                Objects.equals(proc, variable.proc);
+                symbol == variable.symbol &&
+                procId == variable.procId;
     }
 
     @Override
     public int hashCode() {
-        return Objects.hash(name, proc, kind, level);
+        return ((symbol * 31 + procId) * 31 + kind) * 31 + level;
     }
 }
@@ -0,0 +1,105 @@
+package vm;
+
+/**
+ * 栈式虚拟机的字节码：所有过程的指令依次存放在一个int数组中，操作码之后紧跟着它的操作数。
+ * <pre>
+ * PUSH        值          压入常数
+ * LOAD        偏移        压入当前帧的槽
+ * STORE       偏移        弹出到当前帧的槽
+ * LOAD_OUTER  层次 偏移   压入外层过程的帧(按display找到)的槽
+ * STORE_OUTER 层次 偏移   弹出到外层过程的帧的槽
+ * SUB、MUL                弹出b、a，压入a-b、a*b
+ * GOTO        目标
+ * LOOP        目标 过程ID 向后跳转，同时计数回边
+ * IF_EQ..IF_GT 目标       弹出b、a，关系成立时跳转，顺序与TypeCode中EQUAL..GREATER相同
+ * CALL        过程ID      弹出实参，建立被调过程的帧
+ * RETURN      层次        返回值留在栈顶，恢复调用者的帧
+ * HALT                    main结束
+ * READ                    读入一个整数并压入
+ * WRITE                   弹出并输出
+ * </pre>
+ * 帧：帧头3个槽(保存的display项、调用者的帧、返回地址)，之后是变量(形参、函数名变量、说明的变量)和临时变量。
+ * 偏移已经加上了帧头的大小。变量的层次和帧内偏移来自变量表的level和各过程的变量顺序，见{@link ir.Ir#slot(int)}
+ */
+public class Bytecode {
+    public static final int PUSH = 0;
+    public static final int LOAD = 1;
+    public static final int STORE = 2;
+    public static final int LOAD_OUTER = 3;
+    public static final int STORE_OUTER = 4;
+    public static final int SUB = 5;
+    public static final int MUL = 6;
+    public static final int GOTO = 7;
+    public static final int IF_EQ = 8;
+    public static final int IF_NE = 9;
+    public static final int IF_LE = 10;
+    public static final int IF_LT = 11;
+    public static final int IF_GE = 12;
+    public static final int IF_GT = 13;
+    public static final int CALL = 14;
+    public static final int RETURN = 15;
+    public static final int HALT = 16;
+    public static final int READ = 17;
+    public static final int WRITE = 18;
+    public static final int LOOP = 19;
+
+    static final int HEADER = 3;
+    // 各操作码之后的操作数个数
+    private static final int[] OPERANDS = {1, 1, 1, 2, 2, 0, 0, 1, 1, 1, 1, 1, 1, 1, 1, 1, 0, 0, 0, 2};
+    private static final String[] NAMES = {"push", "load", "store", "load_outer", "store_outer", "sub", "mul",
+            "goto", "if_eq", "if_ne", "if_le", "if_lt", "if_ge", "if_gt", "call", "return", "halt", "read", "write",
+            "loop"};
+
+    final int[] code;
+    // 过程：入口、层次、帧大小(含帧头)、形参的偏移(main为-1)、操作数栈的最大深度
+    final int[] entries;
+    final int[] levels;
+    final int[] frameSizes;
+    final int[] paramSlots;
+    final int[] maxStacks;
+    final int maxLevel;
+
+    Bytecode(int[] code, int[] entries, int[] levels, int[] frameSizes, int[] paramSlots, int[] maxStacks) {
+        this.code = code;
+        this.entries = entries;
+        this.levels = levels;
+        this.frameSizes = frameSizes;
+        this.paramSlots = paramSlots;
+        this.maxStacks = maxStacks;
+        int max = 0;
+        for (int level : levels) {
+            max = Math.max(max, level);
+        }
+        maxLevel = max;
+    }
+
+    /**
+     * 代码长度(int个数)
+     */
+    public int length() {
+        return code.length;
+    }
+
+    public int procedureCount() {
+        return entries.length;
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder builder = new StringBuilder();
+        int procedure = 0;
+        for (int pc = 0; pc < code.length; pc += 1 + OPERANDS[code[pc]]) {
+            while (procedure < entries.length && entries[procedure] == pc) {
+                builder.append("procedure ").append(procedure).append("  level ").append(levels[procedure])
+                        .append("  frame ").append(frameSizes[procedure]).append('\n');
+                procedure++;
+            }
+            builder.append(String.format("%6d  %s", pc, NAMES[code[pc]]));
+            for (int i = 1; i <= OPERANDS[code[pc]]; i++) {
+                builder.append(' ').append(code[pc + i]);
+            }
+            builder.append('\n');
+        }
+        return builder.toString();
+    }
+}
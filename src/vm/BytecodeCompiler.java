@@ -0,0 +1,271 @@
+package vm;
+
+import ir.Ir;
+
+import java.util.Arrays;
+
+import static vm.Bytecode.*;
+
+/**
+ * 由三地址代码生成字节码。每条四元式依次压入操作数、运算、弹出到结果；
+ * 只使用一次的临时变量刚存入就被下一条指令取出时，不存入帧而直接留在操作数栈上
+ */
+class BytecodeCompiler {
+    private final Ir ir;
+    private int[] code = new int[1024];
+    private int length;
+    private int depth;
+    private int maxDepth;
+
+    private final int[] labels;
+    // 前向跳转：待填的代码位置和标号
+    private int[] fixups = new int[64];
+    private int fixupCount;
+
+    // 当前过程
+    private int procedure;
+    private int level;
+    private int variableSlots;
+    private int[] uses = new int[16];
+    // 只使用一次、尚未存入帧的临时变量，没有时为-1
+    private int pendingTemp = -1;
+
+    BytecodeCompiler(Ir ir) {
+        this.ir = ir;
+        labels = new int[ir.labelCount()];
+        Arrays.fill(labels, -1);
+    }
+
+    Bytecode compile() {
+        int count = ir.procedureCount();
+        int[] entries = new int[count];
+        int[] levels = new int[count];
+        int[] frameSizes = new int[count];
+        int[] paramSlots = new int[count];
+        int[] maxStacks = new int[count];
+        for (int p = 0; p < count; p++) {
+            entries[p] = length;
+            procedure = p;
+            level = ir.procedureLevel(p);
+            variableSlots = ir.frameSize(p);
+            levels[p] = level;
+            frameSizes[p] = HEADER + variableSlots + ir.tempCount(p);
+            paramSlots[p] = ir.param(p) < 0 ? -1 : HEADER + ir.slot(ir.param(p));
+            countUses(p);
+            depth = 0;
+            maxDepth = 0;
+            for (int i = ir.start(p); i < ir.end(p); i++) {
+                instruction(i);
+            }
+            flush();
+            maxStacks[p] = maxDepth;
+        }
+        for (int i = 0; i < fixupCount; i += 2) {
+            code[fixups[i]] = labels[fixups[i + 1]];
+        }
+        return new Bytecode(Arrays.copyOf(code, length), entries, levels, frameSizes, paramSlots, maxStacks);
+    }
+
+    private void countUses(int p) {
+        int temps = ir.tempCount(p);
+        if (uses.length < temps) {
+            uses = new int[temps];
+        }
+        Arrays.fill(uses, 0, temps, 0);
+        for (int i = ir.start(p); i < ir.end(p); i++) {
+            int op = ir.op(i);
+            if (op != Ir.CALL) {
+                countUse(ir.arg1(i));
+            }
+            countUse(ir.arg2(i));
+        }
+    }
+
+    private void countUse(int operand) {
+        if (Ir.kind(operand) == Ir.TEMP) {
+            uses[Ir.index(operand)]++;
+        }
+    }
+
+    private void instruction(int i) {
+        int op = ir.op(i);
+        int a = ir.arg1(i);
+        int b = ir.arg2(i);
+        int result = ir.result(i);
+        switch (op) {
+            case Ir.ASSIGN:
+                load(a);
+                store(result);
+                break;
+            case Ir.SUB:
+                load(a);
+                load(b);
+                emit(SUB, -1);
+                store(result);
+                break;
+            case Ir.MUL:
+                // 乘法可交换：栈顶的临时变量作为左操作数，免得先存入帧
+                if (isPending(b) && !isPending(a)) {
+                    int t = a;
+                    a = b;
+                    b = t;
+                }
+                load(a);
+                load(b);
+                emit(MUL, -1);
+                store(result);
+                break;
+            case Ir.JUMP:
+                flush();
+                if (labels[result] >= 0) {
+                    // 标号已经出现过，是循环的回边
+                    emit(LOOP, 0);
+                    emitOperand(labels[result]);
+                    emitOperand(procedure);
+                } else {
+                    emit(GOTO, 0);
+                    jumpTo(result);
+                }
+                break;
+            case Ir.LABEL:
+                flush();
+                labels[result] = length;
+                break;
+            case Ir.PARAM:
+                load(a);
+                break;
+            case Ir.CALL:
+                flush();
+                emit(CALL, -1);
+                emitOperand(a);
+                // 返回值
+                push(1);
+                store(result);
+                break;
+            case Ir.RETURN:
+                if (a == 0) {
+                    flush();
+                    emit(HALT, 0);
+                } else {
+                    load(a);
+                    emit(RETURN, -1);
+                    emitOperand(level);
+                }
+                break;
+            case Ir.READ:
+                flush();
+                emit(READ, 1);
+                store(result);
+                break;
+            case Ir.WRITE:
+                load(a);
+                emit(WRITE, -1);
+                break;
+            default:
+                if (!Ir.isBranch(op)) {
+                    throw new IllegalStateException("未知的指令: " + op);
+                }
+                load(a);
+                load(b);
+                flush();
+                emit(IF_EQ + op - Ir.JEQ, -2);
+                jumpTo(result);
+        }
+    }
+
+    private boolean isPending(int operand) {
+        return Ir.kind(operand) == Ir.TEMP && Ir.index(operand) == pendingTemp;
+    }
+
+    private void load(int operand) {
+        if (isPending(operand)) {
+            // 值就在栈顶
+            pendingTemp = -1;
+            return;
+        }
+        flush();
+        int index = Ir.index(operand);
+        switch (Ir.kind(operand)) {
+            case Ir.CONSTANT:
+                emit(PUSH, 1);
+                emitOperand(ir.constantValue(operand));
+                break;
+            case Ir.TEMP:
+                emit(LOAD, 1);
+                emitOperand(HEADER + variableSlots + index);
+                break;
+            case Ir.VARIABLE:
+                if (ir.level(index) == level) {
+                    emit(LOAD, 1);
+                } else {
+                    emit(LOAD_OUTER, 1);
+                    emitOperand(ir.level(index));
+                }
+                emitOperand(HEADER + ir.slot(index));
+                break;
+            default:
+                throw new IllegalStateException("没有操作数");
+        }
+    }
+
+    private void store(int operand) {
+        flush();
+        int index = Ir.index(operand);
+        if (Ir.kind(operand) == Ir.TEMP) {
+            if (uses[index] == 1) {
+                pendingTemp = index;
+                return;
+            }
+            emit(STORE, -1);
+            emitOperand(HEADER + variableSlots + index);
+        } else if (ir.level(index) == level) {
+            emit(STORE, -1);
+            emitOperand(HEADER + ir.slot(index));
+        } else {
+            emit(STORE_OUTER, -1);
+            emitOperand(ir.level(index));
+            emitOperand(HEADER + ir.slot(index));
+        }
+    }
+
+    /**
+     * 没有被下一条指令直接取出的临时变量存入帧
+     */
+    private void flush() {
+        if (pendingTemp >= 0) {
+            int temp = pendingTemp;
+            pendingTemp = -1;
+            emit(STORE, -1);
+            emitOperand(HEADER + variableSlots + temp);
+        }
+    }
+
+    private void jumpTo(int label) {
+        if (fixupCount + 2 > fixups.length) {
+            fixups = Arrays.copyOf(fixups, fixups.length << 1);
+        }
+        fixups[fixupCount++] = length;
+        fixups[fixupCount++] = label;
+        emitOperand(0);
+    }
+
+    /**
+     * 写入操作码，stackEffect是它对操作数栈深度的影响
+     */
+    private void emit(int opcode, int stackEffect) {
+        emitOperand(opcode);
+        push(stackEffect);
+    }
+
+    private void push(int stackEffect) {
+        depth += stackEffect;
+        maxDepth = Math.max(maxDepth, depth);
+    }
+
+    private void emitOperand(int value) {
+        if (length == code.length) {
+            code = Arrays.copyOf(code, length << 1);
+        }
+        code[length++] = value;
+    }
+}
@@ -0,0 +1,8 @@
+package vm;
+
+/**
+ * 编译成JVM字节码的过程，由解释器代替被调过程的字节码调用
+ */
+public interface CompiledProcedure {
+    int call(int argument, IntReader in, IntWriter out);
+}
@@ -0,0 +1,69 @@
+package vm;
+
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * read语句的输入：成批读取字节，整数之间以空白分隔，不为每个整数创建对象
+ */
+public class IntReader {
+    private static final int BUFFER_SIZE = 1 << 16;
+
+    private final InputStream in;
+    private final byte[] buffer = new byte[BUFFER_SIZE];
+    private int position;
+    private int limit;
+
+    public IntReader(InputStream in) {
+        this.in = in;
+    }
+
+    public int nextInt() {
+        int c = read();
+        while (c == ' ' || c == '\n' || c == '\r' || c == '\t') {
+            c = read();
+        }
+        if (c < 0) {
+            throw new VmException("输入已结束");
+        }
+        boolean negative = c == '-';
+        if (negative) {
+            c = read();
+        }
+        if (c < '0' || c > '9') {
+            throw new VmException("输入不是整数");
+        }
+        // 按负数累加，Integer.MIN_VALUE也能读入
+        long value = 0;
+        while (c >= '0' && c <= '9') {
+            value = value * 10 - (c - '0');
+            if (value < Integer.MIN_VALUE) {
+                throw new VmException("输入的整数超出范围");
+            }
+            c = read();
+        }
+        if (c >= 0 && c != ' ' && c != '\n' && c != '\r' && c != '\t') {
+            throw new VmException("输入不是整数");
+        }
+        if (!negative && value == Integer.MIN_VALUE) {
+            throw new VmException("输入的整数超出范围");
+        }
+        return (int) (negative ? value : -value);
+    }
+
+    private int read() {
+        if (position == limit) {
+            try {
+                limit = in.read(buffer, 0, buffer.length);
+            } catch (IOException e) {
+                throw new VmException("读取输入失败: " + e.getMessage());
+            }
+            position = 0;
+            if (limit <= 0) {
+                limit = 0;
+                return -1;
+            }
+        }
+        return buffer[position++] & 0xFF;
+    }
+}
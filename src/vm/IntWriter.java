@@ -0,0 +1,57 @@
+package vm;
+
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * write语句的输出：每个整数一行，先放入缓冲区，满了或flush()时成批写出
+ */
+public class IntWriter {
+    private static final int BUFFER_SIZE = 1 << 16;
+
+    private final OutputStream out;
+    private final byte[] buffer = new byte[BUFFER_SIZE];
+    private int position;
+
+    public IntWriter(OutputStream out) {
+        this.out = out;
+    }
+
+    public void write(int value) {
+        // 最长的整数"-2147483648"加换行12字节
+        if (position + 12 > buffer.length) {
+            flush();
+        }
+        long v = value;
+        if (v < 0) {
+            buffer[position++] = '-';
+            v = -v;
+        }
+        int end = position + digits(v);
+        for (int i = end - 1; i >= position; i--) {
+            buffer[i] = (byte) ('0' + v % 10);
+            v /= 10;
+        }
+        position = end;
+        buffer[position++] = '\n';
+    }
+
+    private static int digits(long v) {
+        int count = 1;
+        while (v >= 10) {
+            v /= 10;
+            count++;
+        }
+        return count;
+    }
+
+    public void flush() {
+        try {
+            out.write(buffer, 0, position);
+            out.flush();
+        } catch (IOException e) {
+            throw new VmException("写出失败: " + e.getMessage());
+        }
+        position = 0;
+    }
+}
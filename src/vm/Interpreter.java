@@ -0,0 +1,276 @@
+package vm;
+
+import java.util.Arrays;
+
+import static vm.Bytecode.*;
+
+/**
+ * 字节码解释器：一个循环里按操作码switch分派，操作数栈和各过程的帧都放在int数组中，执行指令时不分配对象。
+ * 外层过程的变量通过display(各层最近的帧)寻址：调用时在帧头保存被调过程那一层的display项，返回时恢复。
+ * 解释器可以反复运行，统计累计执行的指令数和调用次数。
+ * <p>
+ * 分层执行时统计各过程的调用次数和回边次数，达到阈值时交给{@link Promoter}在后台编译；
+ * 安装了编译好的代码的过程，之后的调用不再解释执行，已经开始的活动仍然解释执行到返回
+ */
+public class Interpreter {
+    public static final int DEFAULT_MAX_DEPTH = 1_000_000;
+
+    private final Bytecode bytecode;
+    private int maxDepth = DEFAULT_MAX_DEPTH;
+    private int[] stack = new int[256];
+    private int[] memory = new int[4096];
+    private final int[] display;
+
+    private Promoter promoter;
+    private int threshold;
+    private final int[] invocations;
+    private final int[] backEdges;
+    private final CompiledProcedure[] targets;
+    // 后台线程安装编译好的代码后加一，之后再读targets
+    private volatile int installed;
+    private long compiledCalls;
+
+    private long instructions;
+    private long calls;
+    private long elapsedNanos;
+
+    public Interpreter(Bytecode bytecode) {
+        this.bytecode = bytecode;
+        display = new int[bytecode.maxLevel + 1];
+        int count = bytecode.procedureCount();
+        invocations = new int[count];
+        backEdges = new int[count];
+        targets = new CompiledProcedure[count];
+    }
+
+    /**
+     * 最大的调用深度，超过时报告递归太深
+     */
+    public void setMaxDepth(int maxDepth) {
+        this.maxDepth = maxDepth;
+    }
+
+    /**
+     * 分层执行：调用次数与回边次数之和达到threshold时交给promoter
+     */
+    public void setTiering(Promoter promoter, int threshold) {
+        this.promoter = promoter;
+        this.threshold = threshold;
+    }
+
+    /**
+     * 之后对procedure的调用改为调用target，可以在其他线程上调用
+     */
+    public void install(int procedure, CompiledProcedure target) {
+        targets[procedure] = target;
+        installed++;
+    }
+
+    /**
+     * 运行main一次；输出留在out的缓冲区中，由调用者flush
+     */
+    public void run(IntReader in, IntWriter out) {
+        long start = System.nanoTime();
+        final int[] code = bytecode.code;
+        final int[] entries = bytecode.entries;
+        final int[] levels = bytecode.levels;
+        final int[] frameSizes = bytecode.frameSizes;
+        final int[] paramSlots = bytecode.paramSlots;
+        final int[] display = this.display;
+        int[] stack = this.stack;
+        int[] memory = this.memory;
+        int sp = 0;
+        int fp = 0;
+        int top = frameSizes[0];
+        int pc = entries[0];
+        int depth = 0;
+        long executed = 0;
+        long called = 0;
+        long compiled = 0;
+        final Promoter promoter = this.promoter;
+        if (memory.length < top) {
+            memory = grow(memory, top);
+        }
+        if (stack.length < bytecode.maxStacks[0]) {
+            stack = grow(stack, bytecode.maxStacks[0]);
+        }
+        Arrays.fill(memory, 0, top, 0);
+        display[0] = 0;
+        try {
+            while (true) {
+                executed++;
+                switch (code[pc]) {
+                    case PUSH:
+                        stack[sp++] = code[pc + 1];
+                        pc += 2;
+                        break;
+                    case LOAD:
+                        stack[sp++] = memory[fp + code[pc + 1]];
+                        pc += 2;
+                        break;
+                    case STORE:
+                        memory[fp + code[pc + 1]] = stack[--sp];
+                        pc += 2;
+                        break;
+                    case LOAD_OUTER:
+                        stack[sp++] = memory[display[code[pc + 1]] + code[pc + 2]];
+                        pc += 3;
+                        break;
+                    case STORE_OUTER:
+                        memory[display[code[pc + 1]] + code[pc + 2]] = stack[--sp];
+                        pc += 3;
+                        break;
+                    case SUB:
+                        sp--;
+                        stack[sp - 1] -= stack[sp];
+                        pc++;
+                        break;
+                    case MUL:
+                        sp--;
+                        stack[sp - 1] *= stack[sp];
+                        pc++;
+                        break;
+                    case GOTO:
+                        pc = code[pc + 1];
+                        break;
+                    case LOOP: {
+                        int procedure = code[pc + 2];
+                        if (promoter != null && invocations[procedure] + ++backEdges[procedure] == threshold) {
+                            promoter.hot(procedure);
+                        }
+                        pc = code[pc + 1];
+                        break;
+                    }
+                    case IF_EQ:
+                        sp -= 2;
+                        pc = stack[sp] == stack[sp + 1] ? code[pc + 1] : pc + 2;
+                        break;
+                    case IF_NE:
+                        sp -= 2;
+                        pc = stack[sp] != stack[sp + 1] ? code[pc + 1] : pc + 2;
+                        break;
+                    case IF_LE:
+                        sp -= 2;
+                        pc = stack[sp] <= stack[sp + 1] ? code[pc + 1] : pc + 2;
+                        break;
+                    case IF_LT:
+                        sp -= 2;
+                        pc = stack[sp] < stack[sp + 1] ? code[pc + 1] : pc + 2;
+                        break;
+                    case IF_GE:
+                        sp -= 2;
+                        pc = stack[sp] >= stack[sp + 1] ? code[pc + 1] : pc + 2;
+                        break;
+                    case IF_GT:
+                        sp -= 2;
+                        pc = stack[sp] > stack[sp + 1] ? code[pc + 1] : pc + 2;
+                        break;
+                    case CALL: {
+                        int procedure = code[pc + 1];
+                        if (promoter != null) {
+                            if (++invocations[procedure] + backEdges[procedure] == threshold) {
+                                promoter.hot(procedure);
+                            }
+                            if (installed > 0 && targets[procedure] != null) {
+                                stack[sp - 1] = targets[procedure].call(stack[sp - 1], in, out);
+                                pc += 2;
+                                called++;
+                                compiled++;
+                                break;
+                            }
+                        }
+                        int size = frameSizes[procedure];
+                        if (++depth > maxDepth) {
+                            throw new VmException("递归太深，调用深度超过" + maxDepth);
+                        }
+                        if (top + size > memory.length) {
+                            memory = grow(memory, top + size);
+                        }
+                        if (sp + bytecode.maxStacks[procedure] > stack.length) {
+                            stack = grow(stack, sp + bytecode.maxStacks[procedure]);
+                        }
+                        int level = levels[procedure];
+                        int frame = top;
+                        Arrays.fill(memory, frame + HEADER, frame + size, 0);
+                        memory[frame] = display[level];
+                        memory[frame + 1] = fp;
+                        memory[frame + 2] = pc + 2;
+                        memory[frame + paramSlots[procedure]] = stack[--sp];
+                        display[level] = frame;
+                        fp = frame;
+                        top = frame + size;
+                        pc = entries[procedure];
+                        called++;
+                        break;
+                    }
+                    case RETURN:
+                        // 返回值留在栈顶
+                        display[code[pc + 1]] = memory[fp];
+                        pc = memory[fp + 2];
+                        top = fp;
+                        fp = memory[fp + 1];
+                        depth--;
+                        break;
+                    case HALT:
+                        return;
+                    case READ:
+                        stack[sp++] = in.nextInt();
+                        pc++;
+                        break;
+                    case WRITE:
+                        out.write(stack[--sp]);
+                        pc++;
+                        break;
+                    default:
+                        throw new IllegalStateException("非法的操作码: " + code[pc]);
+                }
+            }
+        } finally {
+            this.stack = stack;
+            this.memory = memory;
+            instructions += executed;
+            calls += called;
+            compiledCalls += compiled;
+            elapsedNanos += System.nanoTime() - start;
+        }
+    }
+
+    private static int[] grow(int[] array, int minCapacity) {
+        return Arrays.copyOf(array, Math.max(array.length << 1, minCapacity));
+    }
+
+    public long instructions() {
+        return instructions;
+    }
+
+    public long calls() {
+        return calls;
+    }
+
+    /**
+     * 调用编译好的代码的次数，编译好的代码中的调用不计入
+     */
+    public long compiledCalls() {
+        return compiledCalls;
+    }
+
+    public int invocations(int procedure) {
+        return invocations[procedure];
+    }
+
+    public int backEdges(int procedure) {
+        return backEdges[procedure];
+    }
+
+    public long elapsedNanos() {
+        return elapsedNanos;
+    }
+
+    @Override
+    public String toString() {
+        double seconds = elapsedNanos / 1e9;
+        return String.format("***运行：执行%d条指令，%d次调用，耗时%.1fms，%.0f指令/秒，%.0f调用/秒",
+                instructions, calls, elapsedNanos / 1e6, seconds > 0 ? instructions / seconds : 0.0,
+                seconds > 0 ? calls / seconds : 0.0);
+    }
+}
@@ -0,0 +1,9 @@
+package vm;
+
+/**
+ * 分层执行：过程的调用次数与回边次数之和达到阈值时，解释器在运行的线程上调用hot，每个过程只调用一次。
+ * 实现应该尽快返回，在后台编译好之后调用{@link Interpreter#install(int, CompiledProcedure)}
+ */
+public interface Promoter {
+    void hot(int procedure);
+}
@@ -0,0 +1,12 @@
+package vm;
+
+/**
+ * 程序运行时的错误：输入已结束、输入不是整数、递归太深
+ */
+public class VmException extends RuntimeException {
+    private static final long serialVersionUID = 1L;
+
+    public VmException(String message) {
+        super(message);
+    }
+}
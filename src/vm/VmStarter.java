@@ -0,0 +1,34 @@
+package vm;
+
+import ir.Ir;
+
+public class VmStarter {
+    private VmStarter() {
+    }
+
+    public static Bytecode compile(Ir ir) {
+        return new BytecodeCompiler(ir).compile();
+    }
+
+    /**
+     * 命令行：把main连续运行times次，read从标准输入成批读取，write成批写到标准输出，最后输出执行速度
+     */
+    public static void run(String filename, Ir ir, int times) {
+        System.out.println("***运行：" + filename);
+        Interpreter interpreter = new Interpreter(compile(ir));
+        IntReader in = new IntReader(System.in);
+        IntWriter out = new IntWriter(System.out);
+        try {
+            for (int i = 0; i < times; i++) {
+                interpreter.run(in, out);
+            }
+        } catch (VmException e) {
+            out.flush();
+            System.err.println("***运行错误：" + e.getMessage());
+            System.out.println(interpreter);
+            System.exit(-1);
+        }
+        out.flush();
+        System.out.println(interpreter);
+    }
+}
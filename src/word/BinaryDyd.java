@@ -0,0 +1,230 @@
+package word;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+
+import static constant.TypeCode.*;
+
+/**
+ * 二进制二元式格式(.dyb)的读写。
+ * <pre>
+ * 文件头   "DYDB" 版本号(1字节)
+ *          varint 源文件行数
+ * 标识符池 varint 符号数，每个符号: varint 字符数，每个字符一个varint，按符号ID顺序
+ * 单词序列 varint 单词数，每个单词:
+ *          varint (与上一个单词的行号差 &lt;&lt; 5 | 类型码)
+ *          varint 列号
+ *          标识符: varint 符号ID；常数: varint 字符数 + 字符；其他单词的文本由类型码决定，不存放
+ * </pre>
+ * EOLN、EOF不写入，读回时由行号还原。
+ */
+class BinaryDyd {
+    private static final byte[] MAGIC = {'D', 'Y', 'D', 'B'};
+    private static final int VERSION = 1;
+    private static final int TYPE_BITS = 5;
+    private static final String[] FIXED_TEXT = new String[EOF + 1];
+    private static final char[][] FIXED_CHARS = new char[EOF + 1][];
+
+    static {
+        FIXED_TEXT[BEGIN] = "begin";
+        FIXED_TEXT[END] = "end";
+        FIXED_TEXT[INTEGER] = "integer";
+        FIXED_TEXT[IF] = "if";
+        FIXED_TEXT[THEN] = "then";
+        FIXED_TEXT[ELSE] = "else";
+        FIXED_TEXT[FUNCTION] = "function";
+        FIXED_TEXT[READ] = "read";
+        FIXED_TEXT[WRITE] = "write";
+        FIXED_TEXT[EQUAL] = "=";
+        FIXED_TEXT[NOT_EQUAL] = "<>";
+        FIXED_TEXT[LESS_EQUAL] = "<=";
+        FIXED_TEXT[LESS] = "<";
+        FIXED_TEXT[GREATER_EQUAL] = ">=";
+        FIXED_TEXT[GREATER] = ">";
+        FIXED_TEXT[SUBTRACT] = "-";
+        FIXED_TEXT[MULTIPLY] = "*";
+        FIXED_TEXT[ASSIGN] = ":=";
+        FIXED_TEXT[BRACKET_LEFT] = "(";
+        FIXED_TEXT[BRACKET_RIGHT] = ")";
+        FIXED_TEXT[SEMICOLON] = ";";
+        for (int type = 0; type < FIXED_TEXT.length; type++) {
+            if (FIXED_TEXT[type] != null) {
+                FIXED_CHARS[type] = FIXED_TEXT[type].toCharArray();
+            }
+        }
+    }
+
+    private BinaryDyd() {
+    }
+
+    static void write(TokenStream tokens, OutputStream out) throws IOException {
+        Output output = new Output(out);
+        output.raw(MAGIC);
+        output.raw(new byte[]{VERSION});
+        output.varint(tokens.lineCount());
+
+        SymbolTable symbolTable = tokens.symbolTable();
+        output.varint(symbolTable.size());
+        for (int id = 0; id < symbolTable.size(); id++) {
+            output.chars(symbolTable.name(id));
+        }
+
+        int count = tokens.size();
+        output.varint(count);
+        int previousLine = 0;
+        for (int i = 0; i < count; i++) {
+            int type = tokens.type(i);
+            int line = tokens.line(i);
+            output.varint((line - previousLine) << TYPE_BITS | type);
+            output.varint(tokens.column(i));
+            previousLine = line;
+            if (type == IDENTIFIER) {
+                output.varint(tokens.symbol(i));
+            } else if (!isFixedText(type)) {
+                output.chars(tokens.text(i));
+            }
+        }
+        output.flush();
+    }
+
+    static TokenStream read(ByteBuffer buffer) throws IOException {
+        Input input = new Input(buffer);
+        for (byte b : MAGIC) {
+            if (input.readByte() != b) {
+                throw new IOException("不是二进制dyd文件");
+            }
+        }
+        int version = input.readByte();
+        if (version != VERSION) {
+            throw new IOException("不支持的二进制dyd版本: " + version);
+        }
+        int lineCount = input.varint();
+
+        SymbolTable symbolTable = new SymbolTable();
+        int symbolCount = input.varint();
+        char[][] names = new char[symbolCount][];
+        for (int id = 0; id < symbolCount; id++) {
+            names[id] = input.chars(new char[input.varint()]);
+            symbolTable.intern(names[id], 0, names[id].length);
+        }
+        if (symbolTable.size() != symbolCount) {
+            throw new IOException("二进制dyd文件标识符池重复");
+        }
+
+        TokenStream tokens = new TokenStream(symbolTable);
+        int count = input.varint();
+        int line = 0;
+        char[] chars = new char[16];
+        for (int i = 0; i < count; i++) {
+            int head = input.varint();
+            int type = head & ((1 << TYPE_BITS) - 1);
+            line += head >>> TYPE_BITS;
+            int column = input.varint();
+            if (type == IDENTIFIER) {
+                int symbol = input.varint();
+                if (symbol < 0 || symbol >= symbolCount) {
+                    throw new IOException("二进制dyd文件符号ID越界: " + symbol);
+                }
+                tokens.add(names[symbol], names[symbol].length, type, symbol, line, column);
+            } else if (isFixedText(type)) {
+                tokens.add(FIXED_CHARS[type], FIXED_CHARS[type].length, type, -1, line, column);
+            } else if (type == CONSTANT) {
+                int length = input.varint();
+                if (length > chars.length) {
+                    chars = new char[Math.max(length, chars.length << 1)];
+                }
+                input.chars(chars, length);
+                tokens.add(chars, length, type, -1, line, column);
+            } else {
+                throw new IOException("二进制dyd文件类型码错误: " + type);
+            }
+        }
+        tokens.finish(lineCount);
+        return tokens;
+    }
+
+    private static boolean isFixedText(int type) {
+        return type < FIXED_TEXT.length && FIXED_TEXT[type] != null;
+    }
+
+    private static class Output {
+        private final OutputStream out;
+        private final byte[] buffer = new byte[1 << 16];
+        private int position;
+
+        Output(OutputStream out) {
+            this.out = out;
+        }
+
+        void varint(int value) throws IOException {
+            if (position + 5 > buffer.length) {
+                flush();
+            }
+            while ((value & ~0x7f) != 0) {
+                buffer[position++] = (byte) ((value & 0x7f) | 0x80);
+                value >>>= 7;
+            }
+            buffer[position++] = (byte) value;
+        }
+
+        void chars(String s) throws IOException {
+            varint(s.length());
+            for (int i = 0; i < s.length(); i++) {
+                varint(s.charAt(i));
+            }
+        }
+
+        void raw(byte[] bytes) throws IOException {
+            if (position + bytes.length > buffer.length) {
+                flush();
+            }
+            System.arraycopy(bytes, 0, buffer, position, bytes.length);
+            position += bytes.length;
+        }
+
+        void flush() throws IOException {
+            out.write(buffer, 0, position);
+            position = 0;
+            out.flush();
+        }
+    }
+
+    private static class Input {
+        private final ByteBuffer buffer;
+
+        Input(ByteBuffer buffer) {
+            this.buffer = buffer;
+        }
+
+        int readByte() throws IOException {
+            if (!buffer.hasRemaining()) {
+                throw new IOException("二进制dyd文件不完整");
+            }
+            return buffer.get();
+        }
+
+        int varint() throws IOException {
+            int value = 0;
+            for (int shift = 0; shift < 35; shift += 7) {
+                int b = readByte();
+                value |= (b & 0x7f) << shift;
+                if (b >= 0) {
+                    return value;
+                }
+            }
+            throw new IOException("二进制dyd文件varint过长");
+        }
+
+        char[] chars(char[] chars) throws IOException {
+            return chars(chars, chars.length);
+        }
+
+        char[] chars(char[] chars, int length) throws IOException {
+            for (int i = 0; i < length; i++) {
+                chars[i] = (char) varint();
+            }
+            return chars;
+        }
+    }
+}
@@ -0,0 +1,70 @@
+package word;
+
+import output.TableWriter;
+
+import java.io.BufferedOutputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * 在后台线程中把二元式写入dyd文件(文本或二进制格式)，不阻塞语法分析。
+ * 进程因错误提前退出时，由shutdown hook等待写入完成；正常结束时由await()等待并报告写入失败。
+ */
+class DydWriter implements Runnable {
+    private final TokenStream tokens;
+    private final String filename;
+    private final boolean binary;
+    private Thread thread;
+    private volatile IOException failure;
+
+    private DydWriter(TokenStream tokens, String filename, boolean binary) {
+        this.tokens = tokens;
+        this.filename = filename;
+        this.binary = binary;
+    }
+
+    static DydWriter start(TokenStream tokens, String filename, boolean binary) {
+        DydWriter writer = new DydWriter(tokens, filename, binary);
+        final Thread thread = new Thread(writer, "dyd-writer");
+        writer.thread = thread;
+        thread.start();
+        Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+            try {
+                thread.join();
+            } catch (InterruptedException ignored) {
+            }
+        }));
+        return writer;
+    }
+
+    /**
+     * 等待写入完成，写入失败时抛出IOException
+     */
+    void await() throws IOException {
+        try {
+            thread.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("等待写入dyd文件时被中断", e);
+        }
+        if (failure != null) {
+            throw new IOException("创建文件失败: " + filename, failure);
+        }
+    }
+
+    @Override
+    public void run() {
+        try (OutputStream out = new BufferedOutputStream(new FileOutputStream(filename), 1 << 16)) {
+            if (binary) {
+                tokens.writeBinaryDyd(out);
+            } else {
+                TableWriter writer = new TableWriter(out);
+                tokens.writeDyd(writer);
+                writer.flush();
+            }
+        } catch (IOException e) {
+            failure = e;
+        }
+    }
+}
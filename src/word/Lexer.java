@@ -0,0 +1,66 @@
+package word;
+
+import output.Diagnostic;
+import output.ErrorLog;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * 嵌入使用的词法分析入口：不读写dyd、err文件，不输出到控制台，也不退出进程，错误写入调用者给出的{@link ErrorLog}。
+ * 同一个Lexer可以反复使用，但只能由一个线程使用。
+ */
+public class Lexer {
+    private final WordAnalyzer wordAnalyzer = new WordAnalyzer();
+
+    public TokenStream lex(CharSequence source, ErrorLog errorLog) {
+        return wordAnalyzer.lex(source, errorLog);
+    }
+
+    /**
+     * source按UTF-8解码，分析[position, limit)，不改变它的位置
+     */
+    public TokenStream lex(ByteBuffer source, ErrorLog errorLog) {
+        return wordAnalyzer.lex(source, errorLog);
+    }
+
+    /**
+     * 源文件按UTF-8映射读取，与平台默认编码无关
+     */
+    public TokenStream lex(Path source, ErrorLog errorLog) throws IOException {
+        try (FileChannel channel = FileChannel.open(source, StandardOpenOption.READ)) {
+            return wordAnalyzer.lex(channel, errorLog);
+        }
+    }
+
+    /**
+     * 增量词法分析：previous是edit的旧版本的分析结果，必须没有词法错误；只重新分析source中改动的行，
+     * 其余单词从previous复制，结果与完整分析source相同。改动的行中的错误写入errorLog
+     */
+    public TokenStream relex(TokenStream previous, LineEdit edit, CharSequence source, ErrorLog errorLog) {
+        List<Diagnostic> errors = new ArrayList<>();
+        TokenStream middle = wordAnalyzer.lex(source.subSequence(edit.middleStart(), edit.middleEnd()),
+                new ErrorLog(errors, Diagnostic.LEXICAL));
+        int lineOffset = edit.firstLine() - 1;
+        int prefixEnd = previous.firstTokenAtLine(edit.firstLine());
+        int lineCount;
+        if (previous.lineCount() > edit.previousLastLine()) {
+            lineCount = previous.lineCount() + edit.lineDelta();
+        } else if (middle.lineCount() > 0) {
+            lineCount = lineOffset + middle.lineCount();
+        } else {
+            // 没有词法错误时每个非空行都有单词，最后一个非空行就是前一段最后一个单词所在的行
+            lineCount = prefixEnd > 0 ? previous.line(prefixEnd - 1) : 0;
+        }
+        for (Diagnostic error : errors) {
+            errorLog.error(error.line() + lineOffset, error.message());
+        }
+        return TokenStream.splice(previous, prefixEnd, previous.firstTokenAtLine(edit.previousLastLine() + 1),
+                middle, lineOffset, edit.lineDelta(), lineCount);
+    }
+}
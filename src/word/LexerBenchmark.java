@@ -0,0 +1,84 @@
+package word;
+
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+
+/**
+ * 词法分析吞吐量测试：对同一个源文件重复进行词法分析，输出每秒处理的字符数。
+ * 用法: java word.LexerBenchmark &lt;filePath&gt; [rounds] [mapped|scanner|switch] [threads,...]
+ * <p>
+ * 给出多个线程数(如1,2,4,8)时依次测试并行词法分析，输出相对单线程的加速比。
+ * switch先测试改为转移表之前的switch词法分析器({@link SwitchLexer})，再以同样的Scanner方式读取测试现在的词法分析器，
+ * 加速比相对于switch词法分析器。
+ */
+public class LexerBenchmark {
+    private static final int WARMUP_ROUNDS = 3;
+
+    public static void main(String... args) throws IOException {
+        if (args.length < 1) {
+            System.err.println("usage: java word.LexerBenchmark <filePath> [rounds] [mapped|scanner|switch] [threads,...]");
+            return;
+        }
+        String filename = args[0];
+        int rounds = args.length > 1 ? Integer.parseInt(args[1]) : 5;
+        boolean compare = args.length > 2 && "switch".equals(args[2]);
+        boolean mappedInput = args.length <= 2 || !"scanner".equals(args[2]) && !compare;
+        long chars = new String(Files.readAllBytes(Paths.get(filename)), Charset.defaultCharset()).length();
+
+        String[] threadList = (args.length > 3 ? args[3] : "1").split(",");
+        double baseline = 0;
+        if (compare) {
+            baseline = measure("switch", filename, chars, rounds, 1, 0, () -> switchLex(filename));
+        }
+        for (String threadArg : threadList) {
+            int threads = Integer.parseInt(threadArg.trim());
+            long best = measure(mappedInput ? "mapped" : "scanner", filename, chars, rounds, threads, baseline,
+                    () -> lex(filename, mappedInput, threads));
+            if (baseline == 0) {
+                baseline = best;
+            }
+        }
+    }
+
+    private interface Lexing {
+        int run() throws IOException;
+    }
+
+    /**
+     * 预热后测试rounds次并输出结果，返回最快一次的耗时；baseline为0时以这一次作为加速比的基准
+     */
+    private static long measure(String label, String filename, long chars, int rounds, int threads, double baseline,
+                                Lexing lexing) throws IOException {
+        for (int i = 0; i < WARMUP_ROUNDS; i++) {
+            lexing.run();
+        }
+        long best = Long.MAX_VALUE;
+        long total = 0;
+        int tokens = 0;
+        for (int i = 0; i < rounds; i++) {
+            long start = System.nanoTime();
+            tokens = lexing.run();
+            long elapsed = System.nanoTime() - start;
+            best = Math.min(best, elapsed);
+            total += elapsed;
+        }
+        System.out.println(String.format(label + " %s: %d线程, %d字符, %d个单词, 平均%.1fms, 最快%.1fms, %.2fM字符/秒, 加速比%.2f",
+                filename, threads, chars, tokens, total / 1e6 / rounds, best / 1e6, chars * 1e3 / best,
+                baseline == 0 ? 1.0 : baseline / best));
+        return best;
+    }
+
+    private static int switchLex(String filename) throws IOException {
+        return new SwitchLexer(filename).run().size();
+    }
+
+    private static int lex(String filename, boolean mappedInput, int threads) throws IOException {
+        WordAnalyzer wordAnalyzer = new WordAnalyzer(filename);
+        wordAnalyzer.setDydFormat(WordAnalyzerStarter.DYD_NONE);
+        wordAnalyzer.setMappedInput(mappedInput);
+        wordAnalyzer.setLexThreads(threads);
+        return wordAnalyzer.run().size();
+    }
+}
@@ -0,0 +1,152 @@
+package word;
+
+/**
+ * 源程序两个版本之间的差异：开头相同的若干行和末尾相同的若干行之外，中间的行都当作改动过的。
+ * 行的划分与{@link WordAnalyzer}相同；只改了换行符的行也当作改动过的，多重新分析几行不影响结果。
+ * 状态机在行末总是回到初态0，所以只需要重新分析中间的行，见{@link Lexer#relex(TokenStream, LineEdit, CharSequence, output.ErrorLog)}
+ */
+public class LineEdit {
+    // 改动的第一行(从1开始)，改动的最后一行在旧版本、新版本中的行号
+    private final int firstLine;
+    private final int previousLastLine;
+    private final int lastLine;
+    // 改动的行在新版本中的范围[middleStart, middleEnd)，包括最后一行的换行符
+    private final int middleStart;
+    private final int middleEnd;
+    private final boolean unchanged;
+
+    private LineEdit(int firstLine, int previousLastLine, int lastLine, int middleStart, int middleEnd,
+                     boolean unchanged) {
+        this.firstLine = firstLine;
+        this.previousLastLine = previousLastLine;
+        this.lastLine = lastLine;
+        this.middleStart = middleStart;
+        this.middleEnd = middleEnd;
+        this.unchanged = unchanged;
+    }
+
+    /**
+     * 逐字符比较开头和末尾相同的部分，再扩展到整行；只数开头相同部分和中间的换行符，不为各行建表
+     */
+    public static LineEdit diff(CharSequence previous, CharSequence source) {
+        int previousLength = previous.length();
+        int length = source.length();
+        int limit = Math.min(previousLength, length);
+        int same = 0;
+        while (same < limit && previous.charAt(same) == source.charAt(same)) {
+            same++;
+        }
+        int start = lineStart(source, same);
+        int tail = 0;
+        while (tail < limit - start
+                && previous.charAt(previousLength - 1 - tail) == source.charAt(length - 1 - tail)) {
+            tail++;
+        }
+        // 末尾相同的部分中第一个行首；之前的换行符也在相同的部分中，所以在两个版本中都是行首
+        int end = -1;
+        for (int i = length - tail; i < length; i++) {
+            char c = source.charAt(i);
+            if (c == '\r' && i + 1 < length && source.charAt(i + 1) == '\n') {
+                continue;
+            }
+            if (isLineEnd(c)) {
+                end = i + 1;
+                break;
+            }
+        }
+        int prefixLines = countLines(source, 0, start);
+        int firstLine = prefixLines + 1;
+        if (end < 0) {
+            // 最后一行也改动了
+            return new LineEdit(firstLine, prefixLines + countLines(previous, start, previousLength) + 1,
+                    prefixLines + countLines(source, start, length) + 1, start, length,
+                    same == previousLength && same == length);
+        }
+        int previousEnd = end - length + previousLength;
+        return new LineEdit(firstLine, prefixLines + countLines(previous, start, previousEnd),
+                prefixLines + countLines(source, start, end), start, end, false);
+    }
+
+    private static boolean isLineEnd(char c) {
+        return c == '\n' || c == '\r' || c == '\u0085' || c == '\u2028' || c == '\u2029';
+    }
+
+    /**
+     * 第position个字符所在行的行首。行首之前的换行符若是\r，而position处两个版本不同，
+     * 可能一个是\r\n、一个是\r，这时把上一行也当作改动过的
+     */
+    private static int lineStart(CharSequence text, int position) {
+        int i = position;
+        while (i > 0 && !isLineEnd(text.charAt(i - 1))) {
+            i--;
+        }
+        if (i > 0 && i == position && text.charAt(i - 1) == '\r') {
+            return lineStart(text, i - 1);
+        }
+        return i;
+    }
+
+    /**
+     * [from, to)中的换行符个数，\r\n算一个
+     */
+    private static int countLines(CharSequence text, int from, int to) {
+        int count = 0;
+        for (int i = from; i < to; i++) {
+            char c = text.charAt(i);
+            if (c == '\n') {
+                if (i == 0 || text.charAt(i - 1) != '\r') {
+                    count++;
+                }
+            } else if (isLineEnd(c)) {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    public boolean unchanged() {
+        return unchanged;
+    }
+
+    /**
+     * 改动的第一行，从1开始
+     */
+    public int firstLine() {
+        return firstLine;
+    }
+
+    /**
+     * 改动的最后一行在旧版本中的行号；只插入了行时小于firstLine()
+     */
+    public int previousLastLine() {
+        return previousLastLine;
+    }
+
+    /**
+     * 改动的最后一行在新版本中的行号；只删除了行时小于firstLine()
+     */
+    public int lastLine() {
+        return lastLine;
+    }
+
+    /**
+     * 改动之后的行在新版本中的行号减去旧版本中的行号
+     */
+    public int lineDelta() {
+        return lastLine - previousLastLine;
+    }
+
+    int middleStart() {
+        return middleStart;
+    }
+
+    int middleEnd() {
+        return middleEnd;
+    }
+
+    @Override
+    public String toString() {
+        return firstLine() > lastLine() ? "删除第" + firstLine() + "~" + previousLastLine() + "行"
+                : "第" + firstLine() + "~" + lastLine() + "行";
+    }
+}
@@ -0,0 +1,97 @@
+package word;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+
+/**
+ * 并行词法分析：状态机在行末总是回到初态0，所以源文件可以在换行符处切开，各块独立分析。
+ * 各块的行号、符号ID都是块内的，由{@link WordAnalyzer}按块的顺序拼接成全局的结果。
+ */
+class ParallelLexer {
+    static final long MIN_CHUNK_SIZE = 1 << 20;
+    // 每个线程分到的块数，块多一些可以让ForkJoin池均衡负载
+    private static final int CHUNKS_PER_THREAD = 4;
+    private static final int PROBE_SIZE = 1 << 12;
+
+    private ParallelLexer() {
+    }
+
+    /**
+     * 返回各块的起始位置，最后附上文件大小；除最后一块外，每块都在'\n'之后结束
+     */
+    static long[] split(FileChannel channel, int threads) throws IOException {
+        long size = channel.size();
+        int chunkCount = (int) Math.max(1, Math.min((long) threads * CHUNKS_PER_THREAD, size / MIN_CHUNK_SIZE));
+        long[] bounds = new long[chunkCount + 1];
+        int n = 0;
+        ByteBuffer probe = ByteBuffer.allocate(PROBE_SIZE);
+        for (int k = 1; k < chunkCount; k++) {
+            long boundary = nextLineStart(channel, Math.max(size / chunkCount * k, bounds[n]), size, probe);
+            if (boundary >= size) {
+                break;
+            }
+            if (boundary > bounds[n]) {
+                bounds[++n] = boundary;
+            }
+        }
+        bounds[++n] = size;
+        return Arrays.copyOf(bounds, n + 1);
+    }
+
+    private static long nextLineStart(FileChannel channel, long position, long size, ByteBuffer probe)
+            throws IOException {
+        while (position < size) {
+            probe.clear();
+            int read = channel.read(probe, position);
+            if (read <= 0) {
+                break;
+            }
+            for (int i = 0; i < read; i++) {
+                if (probe.get(i) == '\n') {
+                    return position + i + 1;
+                }
+            }
+            position += read;
+        }
+        return size;
+    }
+
+    static WordAnalyzer[] lex(final FileChannel channel, final long[] bounds, int threads) throws IOException {
+        int chunkCount = bounds.length - 1;
+        ForkJoinPool pool = new ForkJoinPool(threads);
+        try {
+            List<ForkJoinTask<WordAnalyzer>> tasks = new ArrayList<>(chunkCount);
+            for (int k = 0; k < chunkCount; k++) {
+                final long start = bounds[k];
+                final long end = bounds[k + 1];
+                tasks.add(pool.submit(() -> {
+                    WordAnalyzer chunk = new WordAnalyzer();
+                    chunk.lexChunk(channel, start, end);
+                    return chunk;
+                }));
+            }
+            WordAnalyzer[] chunks = new WordAnalyzer[chunkCount];
+            for (int k = 0; k < chunkCount; k++) {
+                chunks[k] = tasks.get(k).get();
+            }
+            return chunks;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("词法分析被中断", e);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof IOException) {
+                throw (IOException) e.getCause();
+            }
+            throw new IOException(e.getCause());
+        } finally {
+            pool.shutdown();
+        }
+    }
+}
@@ -0,0 +1,401 @@
+package word;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.util.HashSet;
+import java.util.Scanner;
+import java.util.Set;
+
+import static constant.TypeCode.*;
+
+/**
+ * 改为转移表之前的switch词法分析器，只供{@link LexerBenchmark}作为比较的基准，编译器不使用它。
+ * 与当时的实现相同(包括常数只保留第一位数字等问题)，只是不写dyd文件、出错时不退出，
+ * 单词按现在的{@link TokenStream}格式加入，标识符同样驻留到符号表
+ */
+class SwitchLexer {
+    private static final Set<Character> wordBackSymbol = new HashSet<>();
+    private static final Set<Character> operators = new HashSet<>();
+    private static final Set<Character> programSymbols = new HashSet<>();
+    private static final String ERROR_ILLEGAL_SYMBOL = "不合法的符号: \"%s\".";
+    private static final String ERROR_COLON_NOT_MATCH = "\":\" 不匹配";
+    private static final String ERROR_OPERATOR = "不合法的操作符 \"%s\".";
+    private static final String ERROR_SYMBOL_TOO_LONG = "符号 \"%s\" 过长(>=16).";
+    private static final String ERROR_NUMBER_TOO_LONG = "数字 \"%s\" 过长(>=16).";
+
+    static {
+        wordBackSymbol.add('=');
+        wordBackSymbol.add('-');
+        wordBackSymbol.add('*');
+        wordBackSymbol.add('(');
+        wordBackSymbol.add(')');
+        wordBackSymbol.add('<');
+        wordBackSymbol.add('>');
+        wordBackSymbol.add(':');
+        wordBackSymbol.add(';');
+        operators.addAll(wordBackSymbol);
+        operators.remove(';');
+        programSymbols.addAll(wordBackSymbol);
+        for (char i = '0'; i < '9'; i++) {
+            programSymbols.add(i);
+        }
+
+        for (char i = 0; i < 'z'; i++) {
+            programSymbols.add(i);
+            programSymbols.add(Character.toUpperCase(i));
+        }
+    }
+
+    private final String filename;
+    private final String outputErrorFile;
+    private int state;
+    private int currentLine;
+    private int currentColumn;
+    // 当前单词首字符所在列
+    private int wordColumn;
+    private StringBuilder word = new StringBuilder();
+    private int errorCount;
+    private TokenStream tokens;
+
+    SwitchLexer(String filename) {
+        this.filename = filename;
+        int index = filename.lastIndexOf(".");
+        String name;
+        if (index == -1) {
+            name = filename;
+        } else {
+            name = filename.substring(0, index);
+        }
+        outputErrorFile = name + ".err";
+    }
+
+    int errorCount() {
+        return errorCount;
+    }
+
+    TokenStream run() throws IOException {
+        tokens = new TokenStream();
+        try (Scanner scanner = new Scanner(new File(filename).getAbsoluteFile());
+             PrintWriter stderr = new PrintWriter(outputErrorFile)) {
+            currentLine = 0;
+            while (scanner.hasNext()) {
+                currentLine++;
+                String next = scanner.nextLine();
+                for (int i = 0; i < next.length(); i++) {
+                    char c = next.charAt(i);
+                    currentColumn = i + 1;
+                    processCharacter(c, stderr);
+                }
+                currentColumn = next.length() + 1;
+                processCharacter(' ', stderr);
+            }
+            tokens.finish(currentLine);
+
+            stderr.flush();
+        }
+        return tokens;
+    }
+
+    private void processCharacter(char c, PrintWriter stderr) {
+        if (word.length() == 0) {
+            wordColumn = currentColumn;
+        }
+        switch (state) {
+            case 0:
+                if (isAlpha(c)) {
+                    state = 1;
+                    word.append(c);
+                } else if (Character.isDigit(c)) {
+                    state = 3;
+                    word.append(c);
+                } else if (c == '=') {
+                    state = 5;
+                    analyzeSymbol(c, stderr);
+                } else if (c == '-') {
+                    state = 6;
+                    analyzeSymbol(c, stderr);
+                } else if (c == '*') {
+                    state = 7;
+                    analyzeSymbol(c, stderr);
+                } else if (c == '(') {
+                    state = 8;
+                    analyzeSymbol(c, stderr);
+                } else if (c == ')') {
+                    state = 9;
+                    analyzeSymbol(c, stderr);
+                } else if (c == '<') {
+                    state = 10;
+                    word.append(c);
+                } else if (c == '>') {
+                    state = 14;
+                    word.append(c);
+                } else if (c == ':') {
+                    state = 17;
+                    word.append(c);
+                } else if (c == ';') {
+                    state = 20;
+                    analyzeSymbol(c, stderr);
+                } else if (Character.isWhitespace(c)) {
+                    analyzeSymbol(word.toString(), stderr);
+                } else {
+                    state = 21;
+                    word.append(c);
+                }
+                break;
+            case 1:
+                if (isAlpha(c) || Character.isDigit(c)) {
+                    state = 1;
+                    word.append(c);
+                } else {
+                    analyzeSymbol(word.toString(), stderr);
+                    if (!Character.isWhitespace(c)) {
+                        processCharacter(c, stderr);
+                    }
+                }
+                break;
+            case 2:
+                // error: illegal word
+                illegalSymbol(c, stderr);
+                break;
+            case 3:
+                if (!Character.isDigit(c)) {
+                    analyzeSymbol(word.toString(), stderr);
+                    if (!Character.isWhitespace(c)) {
+                        processCharacter(c, stderr);
+                    }
+                }
+                break;
+            case 4:
+                illegalSymbol(c, stderr);
+                break;
+            case 10:
+                if (c == '=') {
+                    state = 11;
+                    analyzeSymbol(word.append('=').toString(), stderr);
+                } else if (c == '>') {
+                    state = 12;
+                    analyzeSymbol(word.append('>').toString(), stderr);
+                }
+//                else if (operators.contains(c)) {
+//                    state = 13;
+//                    word.append(c);
+//                }
+                else {
+                    analyzeSymbol(word.toString(), stderr);
+                    if (!Character.isWhitespace(c)) {
+                        processCharacter(c, stderr);
+                    }
+                }
+                break;
+            case 14:
+                if (c == '=') {
+                    state = 15;
+                    analyzeSymbol(word.append('=').toString(), stderr);
+                }
+//                else if (operators.contains(c)) {
+//                    word.append(c);
+//                    state = 16;
+//                }
+                else {
+                    analyzeSymbol(word.toString(), stderr);
+                    if (!Character.isWhitespace(c)) {
+                        processCharacter(c, stderr);
+                    }
+                }
+                break;
+            case 13:
+            case 16:
+                if (operators.contains(c)) {
+                    word.append(c);
+                } else {
+                    writeError(String.format(ERROR_OPERATOR, word.toString()), stderr);
+                    word.delete(0, word.length());
+                    state = 0;
+                    if (!Character.isWhitespace(c)) {
+                        processCharacter(c, stderr);
+                    }
+                }
+                break;
+            case 17:
+                if (c == '=') {
+                    state = 18;
+                    analyzeSymbol(word.append('=').toString(), stderr);
+                } else {
+                    state = 19;
+                    writeError(ERROR_COLON_NOT_MATCH, stderr);
+                    state = 0;
+                    if (!Character.isWhitespace(c)) {
+                        processCharacter(c, stderr);
+                    }
+                }
+                break;
+            case 21:
+                if (programSymbols.contains(c) || Character.isWhitespace(c)) {
+                    writeError(String.format(ERROR_ILLEGAL_SYMBOL, word.toString()), stderr);
+                    word.delete(0, word.length());
+                    state = 0;
+                    if (!Character.isWhitespace(c)) {
+                        processCharacter(c, stderr);
+                    }
+                } else {
+                    word.append(c);
+                }
+                break;
+        }
+    }
+
+    private void illegalSymbol(char c, PrintWriter stderr) {
+        if (wordBackSymbol.contains(c) || Character.isWhitespace(c)) {
+            writeError(String.format(ERROR_ILLEGAL_SYMBOL, word.toString()), stderr);
+            word.delete(0, word.length());
+            state = 0;
+            if (wordBackSymbol.contains(c)) {
+                processCharacter(c, stderr);
+            }
+        } else {
+            word.append(c);
+        }
+    }
+
+    private void analyzeSymbol(char c, PrintWriter stderr) {
+        int type = -1;
+        switch (c) {
+            case '=':
+                type = EQUAL;
+                break;
+            case '<':
+                type = LESS;
+                break;
+            case '>':
+                type = GREATER;
+                break;
+            case '-':
+                type = SUBTRACT;
+                break;
+            case '*':
+                type = MULTIPLY;
+                break;
+            case '(':
+                type = BRACKET_LEFT;
+                break;
+            case ')':
+                type = BRACKET_RIGHT;
+                break;
+            case ';':
+                type = SEMICOLON;
+                break;
+        }
+        if (type == -1) {
+            writeError(String.format(ERROR_ILLEGAL_SYMBOL, String.valueOf(c)), stderr);
+        } else {
+            writeSymbol(c, type);
+        }
+        state = 0;
+    }
+
+    private void analyzeSymbol(String symbol, PrintWriter stderr) {
+        try {
+            if (symbol.isEmpty()) {
+                state = 0;
+                return;
+            } else if (symbol.length() >= 16) {
+                if (state == 3) {
+                    writeError(String.format(ERROR_NUMBER_TOO_LONG, symbol), stderr);
+                } else {
+                    writeError(String.format(ERROR_SYMBOL_TOO_LONG, symbol), stderr);
+                }
+                state = 0;
+                return;
+            }
+
+            switch (state) {
+                case 1:
+                    int type;
+                    switch (symbol) {
+                        case "begin":
+                            type = BEGIN;
+                            break;
+                        case "end":
+                            type = END;
+                            break;
+                        case "integer":
+                            type = INTEGER;
+                            break;
+                        case "if":
+                            type = IF;
+                            break;
+                        case "then":
+                            type = THEN;
+                            break;
+                        case "else":
+                            type = ELSE;
+                            break;
+                        case "function":
+                            type = FUNCTION;
+                            break;
+                        case "read":
+                            type = READ;
+                            break;
+                        case "write":
+                            type = WRITE;
+                            break;
+                        default:
+                            type = IDENTIFIER;
+                            break;
+                    }
+                    writeSymbol(symbol, type);
+                    break;
+                case 3:
+                    writeSymbol(symbol, CONSTANT);
+                    break;
+                case 10:
+                    writeSymbol(symbol, LESS);
+                    break;
+                case 11:
+                    writeSymbol(symbol, LESS_EQUAL);
+                    break;
+                case 12:
+                    writeSymbol(symbol, NOT_EQUAL);
+                    break;
+                case 14:
+                    writeSymbol(symbol, GREATER);
+                    break;
+                case 15:
+                    writeSymbol(symbol, GREATER_EQUAL);
+                    break;
+                case 18:
+                    writeSymbol(symbol, ASSIGN);
+                    break;
+                case 20:
+                    writeSymbol(symbol, SEMICOLON);
+                    break;
+            }
+
+            state = 0;
+
+        } finally {
+            word.delete(0, word.length());
+        }
+    }
+
+    private void writeSymbol(char symbol, int type) {
+        tokens.add(symbol, type, currentLine, wordColumn);
+    }
+
+    private void writeSymbol(String symbol, int type) {
+        char[] chars = symbol.toCharArray();
+        int id = type == IDENTIFIER ? tokens.symbolTable().intern(chars, 0, chars.length) : -1;
+        tokens.add(chars, chars.length, type, id, currentLine, wordColumn);
+    }
+
+    private void writeError(String reason, PrintWriter stderr) {
+        errorCount++;
+        stderr.println(String.format("***LINE:%d  %s", currentLine, reason));
+    }
+
+    private boolean isAlpha(char c) {
+        return ('a' <= c && c <= 'z') || ('A' <= c && c <= 'Z');
+    }
+
+}
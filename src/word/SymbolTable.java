@@ -0,0 +1,138 @@
+package word;
+
+import java.util.Arrays;
+
+/**
+ * 标识符驻留表：每个不同的标识符对应一个从0开始连续编号的符号ID，按首次出现的顺序分配。
+ * <p>
+ * 开放定址哈希表直接对字符区间求哈希、比较，标识符文本只在第一次出现时复制进字符池，
+ * 之后再遇到同一标识符不分配任何对象。
+ */
+public class SymbolTable {
+    private static final int INITIAL_CAPACITY = 64;
+
+    // 槽中存放 符号ID + 1，0表示空槽
+    private int[] slots = new int[INITIAL_CAPACITY * 2];
+    private int[] hashes = new int[INITIAL_CAPACITY];
+    // 符号id的文本是pool[starts[id], starts[id + 1])
+    private int[] starts = new int[INITIAL_CAPACITY + 1];
+    private char[] pool = new char[INITIAL_CAPACITY * 8];
+    private int size;
+
+    /**
+     * 返回chars[offset, offset + length)对应的符号ID，不存在时加入
+     */
+    int intern(char[] chars, int offset, int length) {
+        int hash = hash(chars, offset, length);
+        int mask = slots.length - 1;
+        int slot = hash & mask;
+        int id;
+        while ((id = slots[slot] - 1) >= 0) {
+            if (hashes[id] == hash && matches(id, chars, offset, length)) {
+                return id;
+            }
+            slot = (slot + 1) & mask;
+        }
+        id = add(chars, offset, length, hash);
+        slots[slot] = id + 1;
+        if (size * 2 > slots.length) {
+            rehash();
+        }
+        return id;
+    }
+
+    int intern(String name) {
+        return intern(name.toCharArray(), 0, name.length());
+    }
+
+    /**
+     * 把另一个符号表中的符号id驻留到本表
+     */
+    int intern(SymbolTable other, int id) {
+        return intern(other.pool, other.starts[id], other.starts[id + 1] - other.starts[id]);
+    }
+
+    /**
+     * 返回name对应的符号ID，不存在时返回-1
+     */
+    public int lookup(String name) {
+        return lookup(name.toCharArray(), 0, name.length());
+    }
+
+    /**
+     * 另一个符号表中的符号id在本表中的ID，不存在时返回-1
+     */
+    int lookup(SymbolTable other, int id) {
+        return lookup(other.pool, other.starts[id], other.starts[id + 1] - other.starts[id]);
+    }
+
+    private int lookup(char[] chars, int offset, int length) {
+        int hash = hash(chars, offset, length);
+        int mask = slots.length - 1;
+        int id;
+        for (int slot = hash & mask; (id = slots[slot] - 1) >= 0; slot = (slot + 1) & mask) {
+            if (hashes[id] == hash && matches(id, chars, offset, length)) {
+                return id;
+            }
+        }
+        return -1;
+    }
+
+    public String name(int id) {
+        return new String(pool, starts[id], starts[id + 1] - starts[id]);
+    }
+
+    public int size() {
+        return size;
+    }
+
+    private int add(char[] chars, int offset, int length, int hash) {
+        if (size + 1 == starts.length) {
+            hashes = Arrays.copyOf(hashes, size << 1);
+            starts = Arrays.copyOf(starts, (size << 1) + 1);
+        }
+        int start = starts[size];
+        if (start + length > pool.length) {
+            pool = Arrays.copyOf(pool, Math.max(pool.length << 1, start + length));
+        }
+        System.arraycopy(chars, offset, pool, start, length);
+        hashes[size] = hash;
+        starts[size + 1] = start + length;
+        return size++;
+    }
+
+    private boolean matches(int id, char[] chars, int offset, int length) {
+        int start = starts[id];
+        if (starts[id + 1] - start != length) {
+            return false;
+        }
+        for (int i = 0; i < length; i++) {
+            if (pool[start + i] != chars[offset + i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private void rehash() {
+        slots = new int[slots.length << 1];
+        int mask = slots.length - 1;
+        for (int id = 0; id < size; id++) {
+            int slot = hashes[id] & mask;
+            while (slots[slot] != 0) {
+                slot = (slot + 1) & mask;
+            }
+            slots[slot] = id + 1;
+        }
+    }
+
+    private static int hash(char[] chars, int offset, int length) {
+        int h = 0;
+        for (int i = 0; i < length; i++) {
+            h = 31 * h + chars[offset + i];
+        }
+        // 乘法散列打散低位，线性探测依赖低位分布
+        h *= 0x9e3779b9;
+        return h ^ (h >>> 16);
+    }
+}
@@ -0,0 +1,136 @@
+package word;
+
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * 流水线模式下词法分析到语法分析的单词通道：有界的单生产者/单消费者环形缓冲区，
+ * 每个槽是一批单词(复用的{@link TokenStream})。词法分析线程填满一批就发布，语法分析在另一个线程上逐批消费，
+ * 不论源文件多大，同时存在的单词最多只有capacity批。
+ * <p>
+ * 槽的状态由三个递增的序号决定：[released, taken)已被消费者取走，[taken, published)已发布未取走，
+ * 生产者只能在published - released &lt; capacity时填写下一个槽。消费者同时最多持有两批(当前批和向前看的一批)。
+ */
+public class TokenPipe {
+    static final int DEFAULT_BATCH_SIZE = 1 << 12;
+    static final int DEFAULT_CAPACITY = 8;
+    private static final long PARK_NANOS = 100_000;
+
+    private final TokenStream[] slots;
+    private final int batchSize;
+    private final SymbolTable symbolTable;
+    private volatile long published;
+    private volatile long released;
+    // 只由消费者读写
+    private long taken;
+    private volatile boolean closed;
+    private volatile Throwable failure;
+    private volatile Thread producer;
+    private volatile Thread consumer;
+    private Runnable task;
+
+    TokenPipe(int batchSize, int capacity) {
+        if (capacity < 3) {
+            throw new IllegalArgumentException("capacity至少为3: " + capacity);
+        }
+        this.batchSize = batchSize;
+        symbolTable = new SymbolTable();
+        slots = new TokenStream[capacity];
+        for (int i = 0; i < capacity; i++) {
+            slots[i] = new TokenStream(symbolTable);
+        }
+    }
+
+    /**
+     * 词法分析开始前预先驻留一个标识符，返回它的符号ID。
+     * 分析开始后符号表只由词法分析线程修改，消费者不能再查询符号表
+     */
+    public int reserve(String name) {
+        if (producer != null) {
+            throw new IllegalStateException("词法分析已经开始");
+        }
+        return symbolTable.intern(name);
+    }
+
+    /**
+     * 在后台线程上启动词法分析
+     */
+    public void start() {
+        Thread thread = new Thread(() -> {
+            try {
+                task.run();
+            } catch (Throwable e) {
+                fail(e);
+            }
+        }, "lexer");
+        // 语法分析线程异常退出时不等待词法分析
+        thread.setDaemon(true);
+        producer = thread;
+        thread.start();
+    }
+
+    void setTask(Runnable task) {
+        this.task = task;
+    }
+
+    int batchSize() {
+        return batchSize;
+    }
+
+    /**
+     * 生产者取得下一个空槽，槽满时等待消费者释放
+     */
+    TokenStream claim() {
+        while (published - released >= slots.length) {
+            LockSupport.parkNanos(this, PARK_NANOS);
+        }
+        TokenStream batch = slots[(int) (published % slots.length)];
+        batch.clear();
+        return batch;
+    }
+
+    void publish() {
+        published++;
+        LockSupport.unpark(consumer);
+    }
+
+    /**
+     * 全部单词都已发布
+     */
+    void close() {
+        closed = true;
+        LockSupport.unpark(consumer);
+    }
+
+    private void fail(Throwable e) {
+        failure = e;
+        close();
+    }
+
+    /**
+     * 取下一批单词，还没有发布时等待；全部取完后返回null
+     */
+    public TokenStream take() {
+        consumer = Thread.currentThread();
+        while (true) {
+            boolean done = closed;
+            if (taken < published) {
+                return slots[(int) (taken++ % slots.length)];
+            }
+            if (done) {
+                if (failure != null) {
+                    throw new IllegalStateException("词法分析线程异常终止", failure);
+                }
+                return null;
+            }
+            LockSupport.parkNanos(this, PARK_NANOS);
+        }
+    }
+
+    /**
+     * 释放取走的批中最早的一批，之后不能再访问它
+     */
+    public void release() {
+        released++;
+        LockSupport.unpark(producer);
+    }
+}
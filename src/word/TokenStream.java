@@ -0,0 +1,414 @@
+package word;
+
+import constant.TypeCode;
+import output.TableWriter;
+
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.Scanner;
+
+import static constant.TypeCode.EOF;
+import static constant.TypeCode.EOLN;
+import static constant.TypeCode.IDENTIFIER;
+
+/**
+ * 词法分析结果（二元式序列），由{@link WordAnalyzer}产生，语法分析直接在内存中读取。
+ * dyd文件只是它的一种导出形式。
+ * <p>
+ * 单词按列存放在基本类型数组中：类型码、所在行列、标识符的符号ID，以及单词文本在共享字符缓冲区中的起止偏移，
+ * 不为单个单词分配对象。EOLN、EOF不单独存放，导出dyd时根据行号补出。
+ */
+public class TokenStream {
+    private static final String ERROR_DYD = "dyd file error!";
+    private static final String ERROR_DYD_TYPE = "dyd文件错误(line %d)：不是有效的类型%s";
+    private static final int INITIAL_CAPACITY = 256;
+
+    private int count;
+    private int[] types = new int[INITIAL_CAPACITY];
+    private int[] lines = new int[INITIAL_CAPACITY];
+    private int[] columns = new int[INITIAL_CAPACITY];
+    // 标识符的符号ID，其他单词为-1
+    private int[] symbols = new int[INITIAL_CAPACITY];
+    // 第i个单词的文本是text[offsets[i], offsets[i + 1])
+    private int[] offsets = new int[INITIAL_CAPACITY + 1];
+    private char[] text = new char[INITIAL_CAPACITY * 4];
+    private int lineCount;
+    private final SymbolTable symbolTable;
+
+    TokenStream() {
+        this(new SymbolTable());
+    }
+
+    TokenStream(SymbolTable symbolTable) {
+        this.symbolTable = symbolTable;
+    }
+
+    void add(char[] word, int length, int type, int symbol, int line, int column) {
+        int start = beginToken(type, symbol, line, column, length);
+        System.arraycopy(word, 0, text, start, length);
+    }
+
+    void add(char c, int type, int line, int column) {
+        int start = beginToken(type, -1, line, column, 1);
+        text[start] = c;
+    }
+
+    private int beginToken(int type, int symbol, int line, int column, int length) {
+        if (count == types.length) {
+            int capacity = count << 1;
+            types = Arrays.copyOf(types, capacity);
+            lines = Arrays.copyOf(lines, capacity);
+            columns = Arrays.copyOf(columns, capacity);
+            symbols = Arrays.copyOf(symbols, capacity);
+            offsets = Arrays.copyOf(offsets, capacity + 1);
+        }
+        int start = offsets[count];
+        if (start + length > text.length) {
+            text = Arrays.copyOf(text, Math.max(text.length << 1, start + length));
+        }
+        types[count] = type;
+        lines[count] = line;
+        columns[count] = column;
+        symbols[count] = symbol;
+        count++;
+        offsets[count] = start + length;
+        return start;
+    }
+
+    /**
+     * 清空单词，保留已分配的数组，供{@link TokenPipe}复用
+     */
+    void clear() {
+        count = 0;
+    }
+
+    /**
+     * 词法分析结束，记录源文件行数并释放多余的容量
+     */
+    void finish(int lineCount) {
+        this.lineCount = lineCount;
+        types = Arrays.copyOf(types, count);
+        lines = Arrays.copyOf(lines, count);
+        columns = Arrays.copyOf(columns, count);
+        symbols = Arrays.copyOf(symbols, count);
+        offsets = Arrays.copyOf(offsets, count + 1);
+        text = Arrays.copyOf(text, offsets[count]);
+    }
+
+    /**
+     * 按顺序拼接并行分析得到的各块：第k块的行号加上lineOffsets[k]，符号ID重新驻留到新的符号表，
+     * 驻留顺序与顺序分析时标识符首次出现的顺序相同，所以结果与单线程分析完全一致
+     */
+    static TokenStream concat(TokenStream[] parts, int[] lineOffsets, int lineCount) {
+        TokenStream result = new TokenStream();
+        int count = 0;
+        int textLength = 0;
+        for (TokenStream part : parts) {
+            count += part.count;
+            textLength += part.offsets[part.count];
+        }
+        result.types = new int[count];
+        result.lines = new int[count];
+        result.columns = new int[count];
+        result.symbols = new int[count];
+        result.offsets = new int[count + 1];
+        result.text = new char[textLength];
+
+        int index = 0;
+        for (int k = 0; k < parts.length; k++) {
+            TokenStream part = parts[k];
+            int n = part.count;
+            int textStart = result.offsets[index];
+            System.arraycopy(part.types, 0, result.types, index, n);
+            System.arraycopy(part.columns, 0, result.columns, index, n);
+            System.arraycopy(part.text, 0, result.text, textStart, part.offsets[n]);
+            int[] symbolMap = new int[part.symbolTable.size()];
+            int mapped = 0;
+            for (int i = 0; i < n; i++) {
+                result.lines[index + i] = part.lines[i] + lineOffsets[k];
+                result.offsets[index + i + 1] = part.offsets[i + 1] + textStart;
+                int symbol = part.symbols[i];
+                if (symbol >= mapped) {
+                    // 块内符号ID也按首次出现的顺序分配，所以新符号一定是下一个编号
+                    symbolMap[symbol] = result.symbolTable.intern(part.symbolTable, symbol);
+                    mapped++;
+                }
+                result.symbols[index + i] = symbol < 0 ? -1 : symbolMap[symbol];
+            }
+            index += n;
+        }
+        result.count = count;
+        result.lineCount = lineCount;
+        return result;
+    }
+
+    /**
+     * 增量分析：previous的[0, prefixEnd)、新分析的middle、previous的[suffixStart, size())依次拼接。
+     * middle的行号加上middleLineOffset，后一段的行号加上lineDelta；符号ID按首次出现的顺序重新驻留，与完整分析的结果相同
+     */
+    static TokenStream splice(TokenStream previous, int prefixEnd, int suffixStart, TokenStream middle,
+                              int middleLineOffset, int lineDelta, int lineCount) {
+        TokenStream result = new TokenStream();
+        int suffixCount = previous.count - suffixStart;
+        int count = prefixEnd + middle.count + suffixCount;
+        int prefixText = previous.offsets[prefixEnd];
+        int middleText = middle.offsets[middle.count];
+        int suffixText = previous.offsets[previous.count] - previous.offsets[suffixStart];
+        result.types = new int[count];
+        result.lines = new int[count];
+        result.columns = new int[count];
+        result.symbols = new int[count];
+        result.offsets = new int[count + 1];
+        result.text = new char[prefixText + middleText + suffixText];
+
+        System.arraycopy(previous.types, 0, result.types, 0, prefixEnd);
+        System.arraycopy(middle.types, 0, result.types, prefixEnd, middle.count);
+        System.arraycopy(previous.types, suffixStart, result.types, prefixEnd + middle.count, suffixCount);
+        System.arraycopy(previous.columns, 0, result.columns, 0, prefixEnd);
+        System.arraycopy(middle.columns, 0, result.columns, prefixEnd, middle.count);
+        System.arraycopy(previous.columns, suffixStart, result.columns, prefixEnd + middle.count, suffixCount);
+        System.arraycopy(previous.lines, 0, result.lines, 0, prefixEnd);
+        System.arraycopy(previous.offsets, 0, result.offsets, 0, prefixEnd + 1);
+        System.arraycopy(previous.text, 0, result.text, 0, prefixText);
+        System.arraycopy(middle.text, 0, result.text, prefixText, middleText);
+        System.arraycopy(previous.text, previous.offsets[suffixStart], result.text, prefixText + middleText,
+                suffixText);
+        for (int i = 0; i < middle.count; i++) {
+            result.lines[prefixEnd + i] = middle.lines[i] + middleLineOffset;
+            result.offsets[prefixEnd + i + 1] = middle.offsets[i + 1] + prefixText;
+        }
+        int base = prefixEnd + middle.count;
+        int textShift = prefixText + middleText - previous.offsets[suffixStart];
+        for (int i = 0; i < suffixCount; i++) {
+            result.lines[base + i] = previous.lines[suffixStart + i] + lineDelta;
+            result.offsets[base + i + 1] = previous.offsets[suffixStart + i + 1] + textShift;
+        }
+
+        // 符号ID按首次出现的顺序分配，前面不变的单词用到的正好是0..prefixSymbols-1
+        int prefixSymbols = maxSymbol(previous.symbols, 0, prefixEnd) + 1;
+        int[] previousMap = new int[previous.symbolTable.size()];
+        Arrays.fill(previousMap, -1);
+        for (int id = 0; id < prefixSymbols; id++) {
+            previousMap[id] = result.symbolTable.intern(previous.symbolTable, id);
+        }
+        System.arraycopy(previous.symbols, 0, result.symbols, 0, prefixEnd);
+        int[] middleMap = new int[middle.symbolTable.size()];
+        Arrays.fill(middleMap, -1);
+        for (int i = 0; i < middle.count; i++) {
+            int symbol = middle.symbols[i];
+            if (symbol >= 0 && middleMap[symbol] < 0) {
+                middleMap[symbol] = result.symbolTable.intern(middle.symbolTable, symbol);
+            }
+            result.symbols[prefixEnd + i] = symbol < 0 ? -1 : middleMap[symbol];
+        }
+        // 改动前后首次出现的标识符相同时，后面的单词符号ID不变
+        int middleSymbols = Math.max(prefixSymbols, maxSymbol(previous.symbols, prefixEnd, suffixStart) + 1);
+        if (result.symbolTable.size() == middleSymbols && sameSymbols(result, previous, prefixSymbols, middleSymbols)) {
+            for (int id = middleSymbols; id < previous.symbolTable.size(); id++) {
+                result.symbolTable.intern(previous.symbolTable, id);
+            }
+            System.arraycopy(previous.symbols, suffixStart, result.symbols, base, suffixCount);
+            result.count = count;
+            result.lineCount = lineCount;
+            return result;
+        }
+        for (int i = 0; i < suffixCount; i++) {
+            int symbol = previous.symbols[suffixStart + i];
+            if (symbol >= 0 && previousMap[symbol] < 0) {
+                previousMap[symbol] = result.symbolTable.intern(previous.symbolTable, symbol);
+            }
+            result.symbols[base + i] = symbol < 0 ? -1 : previousMap[symbol];
+        }
+        result.count = count;
+        result.lineCount = lineCount;
+        return result;
+    }
+
+    private static int maxSymbol(int[] symbols, int from, int to) {
+        int max = -1;
+        for (int i = from; i < to; i++) {
+            max = Math.max(max, symbols[i]);
+        }
+        return max;
+    }
+
+    private static boolean sameSymbols(TokenStream result, TokenStream previous, int from, int to) {
+        for (int id = from; id < to; id++) {
+            if (result.symbolTable.lookup(previous.symbolTable, id) != id) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * 第一个行号不小于line的单词的下标，没有时为size()
+     */
+    public int firstTokenAtLine(int line) {
+        int low = 0;
+        int high = count;
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (lines[mid] < line) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+        return low;
+    }
+
+    public int size() {
+        return count;
+    }
+
+    public int type(int index) {
+        return types[index];
+    }
+
+    public int line(int index) {
+        return lines[index];
+    }
+
+    /**
+     * 单词首字符所在列，从1开始；从dyd文件读回时没有列信息，为0
+     */
+    public int column(int index) {
+        return columns[index];
+    }
+
+    /**
+     * 标识符的符号ID，见{@link #symbolTable()}；其他单词返回-1
+     */
+    public int symbol(int index) {
+        return symbols[index];
+    }
+
+    public SymbolTable symbolTable() {
+        return symbolTable;
+    }
+
+    public String text(int index) {
+        return new String(text, offsets[index], offsets[index + 1] - offsets[index]);
+    }
+
+    public int lineCount() {
+        return lineCount;
+    }
+
+    /**
+     * 各数组实际占用的堆内存（字节），按数组头16字节估算
+     */
+    public long memoryFootprint() {
+        return arrayBytes(types.length, 4) + arrayBytes(lines.length, 4) + arrayBytes(columns.length, 4)
+                + arrayBytes(symbols.length, 4) + arrayBytes(offsets.length, 4) + arrayBytes(text.length, 2);
+    }
+
+    private static long arrayBytes(int length, int elementSize) {
+        return (16 + (long) length * elementSize + 7) & ~7L;
+    }
+
+    public void writeDyd(TableWriter out) throws IOException {
+        writeDydEnd(out, writeDyd(out, 1), lineCount);
+    }
+
+    /**
+     * 流水线模式下逐批写出：line是下一个待写EOLN的行，返回写完本批后的line
+     */
+    int writeDyd(TableWriter out, int line) throws IOException {
+        for (int i = 0; i < count; i++) {
+            for (; line < lines[i]; line++) {
+                out.right("EOLN", 16).space().right(EOLN, 2).newLine();
+            }
+            writeDydLine(out, i);
+        }
+        return line;
+    }
+
+    static void writeDydEnd(TableWriter out, int line, int lineCount) throws IOException {
+        for (; line <= lineCount; line++) {
+            out.right("EOLN", 16).space().right(EOLN, 2).newLine();
+        }
+        out.right("EOF ", 16).space().right(EOF, 2).newLine();
+    }
+
+    private void writeDydLine(TableWriter out, int i) throws IOException {
+        out.right(text, offsets[i], offsets[i + 1] - offsets[i], 16).space().right(types[i], 2).newLine();
+    }
+
+    /**
+     * 以二进制格式写出，见{@link BinaryDyd}
+     */
+    public void writeBinaryDyd(OutputStream out) throws IOException {
+        BinaryDyd.write(this, out);
+    }
+
+    /**
+     * 映射并读取二进制格式的dyd文件，不需要解析文本
+     */
+    public static TokenStream readBinaryDyd(File file) throws IOException {
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            return BinaryDyd.read(channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()));
+        } catch (NoSuchFileException e) {
+            throw new IOException("无法打开dyd文件: " + file, e);
+        }
+    }
+
+    /**
+     * 从内存中读取二进制格式，不改变buffer以外的状态
+     */
+    public static TokenStream readBinaryDyd(ByteBuffer buffer) throws IOException {
+        return BinaryDyd.read(buffer);
+    }
+
+    /**
+     * 从dyd文件读回二元式序列，供单独运行语法分析时使用
+     */
+    public static TokenStream readDyd(File file) throws IOException {
+        TokenStream tokens = new TokenStream();
+        try (Scanner scanner = new Scanner(file)) {
+            int lineNumber = 0;
+            int sourceLine = 1;
+            while (scanner.hasNextLine()) {
+                lineNumber++;
+                String line = scanner.nextLine().trim();
+                int index = line.indexOf(" ");
+                if (index == -1) {
+                    throw new IOException(ERROR_DYD);
+                }
+                String word = line.substring(0, index);
+                if (word.isEmpty()) {
+                    throw new IOException(ERROR_DYD);
+                }
+                String typeString = line.substring(index + 1).trim();
+                int type;
+                try {
+                    type = Integer.parseInt(typeString);
+                } catch (NumberFormatException e) {
+                    throw new IOException(String.format(ERROR_DYD_TYPE, lineNumber, typeString));
+                }
+                if (!TypeCode.isTypeCode(type)) {
+                    throw new IOException(String.format(ERROR_DYD_TYPE, lineNumber, typeString));
+                }
+                if (type == EOLN) {
+                    sourceLine++;
+                } else if (type != EOF) {
+                    char[] chars = word.toCharArray();
+                    int symbol = type == IDENTIFIER ? tokens.symbolTable.intern(chars, 0, chars.length) : -1;
+                    tokens.add(chars, chars.length, type, symbol, sourceLine, 0);
+                }
+            }
+            tokens.finish(sourceLine - 1);
+        } catch (FileNotFoundException e) {
+            throw new IOException("无法打开dyd文件: " + file, e);
+        }
+        return tokens;
+    }
+}
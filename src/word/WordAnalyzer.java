@@ -1,60 +1,209 @@
 package word;
 
+import output.ErrorLog;
+import output.TableWriter;
+
+import java.io.Closeable;
 import java.io.File;
 import java.io.FileNotFoundException;
 import java.io.IOException;
-import java.io.PrintWriter;
-import java.util.HashSet;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
 import java.util.Scanner;
-import java.util.Set;
 
 import static constant.TypeCode.*;
 
+/**
+ * 表驱动的词法分析器。
+ * <p>
+ * 字符先经CHAR_CLASS映射为字符类，再由TRANSITIONS[状态][字符类]查出动作、单词类型码和下一状态。
+ * 状态编号沿用状态转换图：0初态，1标识符，3数字，10 "&lt;"，14 "&gt;"，17 ":"，21非法符号。
+ */
 class WordAnalyzer {
-    private static final Set<Character> wordBackSymbol = new HashSet<>();
-    private static final Set<Character> operators = new HashSet<>();
-    private static final Set<Character> programSymbols = new HashSet<>();
     private static final String ERROR_ILLEGAL_SYMBOL = "不合法的符号: \"%s\".";
     private static final String ERROR_COLON_NOT_MATCH = "\":\" 不匹配";
-    private static final String ERROR_OPERATOR = "不合法的操作符 \"%s\".";
     private static final String ERROR_SYMBOL_TOO_LONG = "符号 \"%s\" 过长(>=16).";
     private static final String ERROR_NUMBER_TOO_LONG = "数字 \"%s\" 过长(>=16).";
+    private static final int MAX_WORD_LENGTH = 16;
+    private static final int MAPPED_WINDOW = 1 << 28;
+
+    // 字符类
+    private static final int C_SPACE = 0;
+    // a-y, A-Z
+    private static final int C_ALPHA = 1;
+    // z不在合法符号集中，出现在非法符号中时不会结束该符号
+    private static final int C_ALPHA_Z = 2;
+    private static final int C_DIGIT = 3;
+    // 非ASCII的数字(Character.isDigit)
+    private static final int C_DIGIT_EXT = 4;
+    private static final int C_EQUAL = 5;
+    private static final int C_SUBTRACT = 6;
+    private static final int C_MULTIPLY = 7;
+    private static final int C_BRACKET_LEFT = 8;
+    private static final int C_BRACKET_RIGHT = 9;
+    private static final int C_LESS = 10;
+    private static final int C_GREATER = 11;
+    private static final int C_COLON = 12;
+    private static final int C_SEMICOLON = 13;
+    // 其他不超过'y'的字符，会结束一个非法符号
+    private static final int C_PUNCT = 14;
+    // 其他字符
+    private static final int C_OTHER = 15;
+    private static final int CLASS_COUNT = 16;
+
+    // 动作
+    private static final int A_APPEND = 1;
+    private static final int A_SKIP = 2;
+    // 当前字符单独构成一个单词
+    private static final int A_EMIT_CHAR = 3;
+    // 当前字符与已读入的字符构成一个单词
+    private static final int A_EMIT_PAIR = 4;
+    // 已读入的字符构成一个单词，当前字符从初态重新处理
+    private static final int A_EMIT_RETRY = 5;
+    private static final int A_ILLEGAL_RETRY = 6;
+    private static final int A_COLON_RETRY = 7;
+
+    private static final int STATE_COUNT = 22;
+    private static final byte[] CHAR_CLASS = new byte[Character.MAX_VALUE + 1];
+    // 表项: 动作 << 16 | 类型码 << 8 | 下一状态
+    private static final int[][] TRANSITIONS = new int[STATE_COUNT][CLASS_COUNT];
+    private static final char[][] KEYWORDS = new char[16][];
+    private static final int[] KEYWORD_TYPES = new int[16];
 
     static {
-        wordBackSymbol.add('=');
-        wordBackSymbol.add('-');
-        wordBackSymbol.add('*');
-        wordBackSymbol.add('(');
-        wordBackSymbol.add(')');
-        wordBackSymbol.add('<');
-        wordBackSymbol.add('>');
-        wordBackSymbol.add(':');
-        wordBackSymbol.add(';');
-        operators.addAll(wordBackSymbol);
-        operators.remove(';');
-        programSymbols.addAll(wordBackSymbol);
-        for (char i = '0'; i < '9'; i++) {
-            programSymbols.add(i);
+        for (int c = 0; c <= Character.MAX_VALUE; c++) {
+            int cls;
+            if (('a' <= c && c < 'z') || ('A' <= c && c <= 'Z')) {
+                cls = C_ALPHA;
+            } else if (c == 'z') {
+                cls = C_ALPHA_Z;
+            } else if ('0' <= c && c <= '9') {
+                cls = C_DIGIT;
+            } else if (Character.isDigit((char) c)) {
+                cls = C_DIGIT_EXT;
+            } else if (Character.isWhitespace((char) c)) {
+                cls = C_SPACE;
+            } else if (c < 'z') {
+                cls = C_PUNCT;
+            } else {
+                cls = C_OTHER;
+            }
+            CHAR_CLASS[c] = (byte) cls;
         }
+        CHAR_CLASS['='] = C_EQUAL;
+        CHAR_CLASS['-'] = C_SUBTRACT;
+        CHAR_CLASS['*'] = C_MULTIPLY;
+        CHAR_CLASS['('] = C_BRACKET_LEFT;
+        CHAR_CLASS[')'] = C_BRACKET_RIGHT;
+        CHAR_CLASS['<'] = C_LESS;
+        CHAR_CLASS['>'] = C_GREATER;
+        CHAR_CLASS[':'] = C_COLON;
+        CHAR_CLASS[';'] = C_SEMICOLON;
+
+        int[] start = TRANSITIONS[0];
+        start[C_SPACE] = entry(A_SKIP, 0, 0);
+        start[C_ALPHA] = start[C_ALPHA_Z] = entry(A_APPEND, 0, 1);
+        start[C_DIGIT] = start[C_DIGIT_EXT] = entry(A_APPEND, 0, 3);
+        start[C_EQUAL] = entry(A_EMIT_CHAR, EQUAL, 0);
+        start[C_SUBTRACT] = entry(A_EMIT_CHAR, SUBTRACT, 0);
+        start[C_MULTIPLY] = entry(A_EMIT_CHAR, MULTIPLY, 0);
+        start[C_BRACKET_LEFT] = entry(A_EMIT_CHAR, BRACKET_LEFT, 0);
+        start[C_BRACKET_RIGHT] = entry(A_EMIT_CHAR, BRACKET_RIGHT, 0);
+        start[C_SEMICOLON] = entry(A_EMIT_CHAR, SEMICOLON, 0);
+        start[C_LESS] = entry(A_APPEND, 0, 10);
+        start[C_GREATER] = entry(A_APPEND, 0, 14);
+        start[C_COLON] = entry(A_APPEND, 0, 17);
+        start[C_PUNCT] = start[C_OTHER] = entry(A_APPEND, 0, 21);
+
+        Arrays.fill(TRANSITIONS[1], entry(A_EMIT_RETRY, IDENTIFIER, 0));
+        TRANSITIONS[1][C_ALPHA] = TRANSITIONS[1][C_ALPHA_Z] = entry(A_APPEND, 0, 1);
+        TRANSITIONS[1][C_DIGIT] = TRANSITIONS[1][C_DIGIT_EXT] = entry(A_APPEND, 0, 1);
+
+        Arrays.fill(TRANSITIONS[3], entry(A_EMIT_RETRY, CONSTANT, 0));
+        TRANSITIONS[3][C_DIGIT] = TRANSITIONS[3][C_DIGIT_EXT] = entry(A_APPEND, 0, 3);
+
+        Arrays.fill(TRANSITIONS[10], entry(A_EMIT_RETRY, LESS, 0));
+        TRANSITIONS[10][C_EQUAL] = entry(A_EMIT_PAIR, LESS_EQUAL, 0);
+        TRANSITIONS[10][C_GREATER] = entry(A_EMIT_PAIR, NOT_EQUAL, 0);
+
+        Arrays.fill(TRANSITIONS[14], entry(A_EMIT_RETRY, GREATER, 0));
+        TRANSITIONS[14][C_EQUAL] = entry(A_EMIT_PAIR, GREATER_EQUAL, 0);
+
+        Arrays.fill(TRANSITIONS[17], entry(A_COLON_RETRY, 0, 0));
+        TRANSITIONS[17][C_EQUAL] = entry(A_EMIT_PAIR, ASSIGN, 0);
 
-        for (char i = 0; i < 'z'; i++) {
-            programSymbols.add(i);
-            programSymbols.add(Character.toUpperCase(i));
+        // 非法符号一直延续到空白或合法符号集('z'以下的字符)为止
+        Arrays.fill(TRANSITIONS[21], entry(A_ILLEGAL_RETRY, 0, 0));
+        TRANSITIONS[21][C_ALPHA_Z] = entry(A_APPEND, 0, 21);
+        TRANSITIONS[21][C_DIGIT_EXT] = entry(A_APPEND, 0, 21);
+        TRANSITIONS[21][C_OTHER] = entry(A_APPEND, 0, 21);
+
+        keyword("begin", BEGIN);
+        keyword("end", END);
+        keyword("integer", INTEGER);
+        keyword("if", IF);
+        keyword("then", THEN);
+        keyword("else", ELSE);
+        keyword("function", FUNCTION);
+        keyword("read", READ);
+        keyword("write", WRITE);
+    }
+
+    private static void keyword(String keyword, int type) {
+        int hash = (keyword.charAt(0) + keyword.charAt(keyword.length() - 1)) & 15;
+        if (KEYWORDS[hash] != null) {
+            throw new IllegalStateException("关键字哈希冲突: " + keyword);
         }
+        KEYWORDS[hash] = keyword.toCharArray();
+        KEYWORD_TYPES[hash] = type;
+    }
+
+    private static int entry(int action, int type, int next) {
+        return action << 16 | type << 8 | next;
     }
 
     private final String filename;
     private final String outputFilename;
+    private final String outputBinaryFilename;
     private final String outputErrorFile;
     private int state;
     private int currentLine;
-    private StringBuilder word = new StringBuilder();
+    private int currentColumn;
+    // 当前单词首字符所在列
+    private int wordColumn;
+    private char[] word = new char[MAX_WORD_LENGTH];
+    private int wordLength;
     private int errorCount;
-
-    private void programError(String reason) {
-        System.err.println(reason);
-        System.exit(-1);
-    }
+    private TokenStream tokens;
+    private ErrorLog errorLog;
+    private boolean echoErrors = true;
+    private int dydFormat = WordAnalyzerStarter.DYD_TEXT;
+    private boolean mappedInput = Charset.defaultCharset().equals(StandardCharsets.UTF_8);
+    // 源文件行数，不含末尾只有空白的行
+    private int lineCount;
+    private boolean afterCarriageReturn;
+    private int lexThreads = 1;
+    // 分块分析时错误先记录下来，合并时再按全局行号输出
+    private int[] errorLines;
+    private List<String> errorReasons;
+    // 分块分析时块内的行数
+    private int chunkLines;
+    // 流水线模式下单词每满batchLimit个就发布给语法分析，其他模式下不分批
+    private TokenPipe pipe;
+    private int batchLimit = Integer.MAX_VALUE;
+    private TableWriter dydOut;
+    private int dydLine;
+    // 在后台写出dyd文件，见awaitDyd()
+    private DydWriter dydWriter;
 
     WordAnalyzer(String filename) {
         this.filename = filename;
@@ -66,342 +215,493 @@ class WordAnalyzer {
             name = filename.substring(0, index);
         }
         outputFilename = name + ".dyd";
+        outputBinaryFilename = name + ".dyb";
         outputErrorFile = name + ".err";
     }
 
-    void run() {
-        Scanner scanner;
+    /**
+     * 并行分析时只分析源文件中的一块，见{@link ParallelLexer}
+     */
+    WordAnalyzer() {
+        filename = null;
+        outputFilename = null;
+        outputBinaryFilename = null;
+        outputErrorFile = null;
+        errorLines = new int[16];
+        errorReasons = new ArrayList<>();
+    }
+
+    /**
+     * dyd文件只是附带输出，可以是文本格式(.dyd)、二进制格式(.dyb)或不输出，见WordAnalyzerStarter.DYD_*
+     */
+    void setDydFormat(int dydFormat) {
+        this.dydFormat = dydFormat;
+    }
+
+    /**
+     * mappedInput为true时通过FileChannel.map读取源文件并按UTF-8解码，否则通过Scanner按平台默认编码读取。
+     * 默认编码为UTF-8时默认使用前者
+     */
+    void setMappedInput(boolean mappedInput) {
+        this.mappedInput = mappedInput;
+    }
+
+    /**
+     * 大于1时按行把源文件切块，在ForkJoin池上并行分析后拼接，结果与顺序分析相同；只对mappedInput有效
+     */
+    void setLexThreads(int lexThreads) {
+        this.lexThreads = lexThreads;
+    }
+
+    /**
+     * 是否在控制台回显词法错误(成批输出)，错误总是写入err文件
+     */
+    void setEchoErrors(boolean echoErrors) {
+        this.echoErrors = echoErrors;
+    }
+
+    /**
+     * 流水线模式：在当前(词法分析)线程上分析，单词逐批发布到pipe，dyd文件也逐批写出(只支持文本格式)。
+     * 返回后由调用者检查errorCount()并关闭pipe
+     */
+    void runPipelined(TokenPipe pipe) throws IOException {
+        this.pipe = pipe;
+        run();
+    }
+
+    /**
+     * 分析源文件，写出err文件和dyd文件；有词法错误时仍返回单词序列，由调用者检查errorCount()
+     */
+    TokenStream run() throws IOException {
+        Scanner scanner = null;
+        FileChannel channel = null;
         try {
-            scanner = new Scanner(new File(filename).getAbsoluteFile());
-        } catch (FileNotFoundException e) {
-            programError("无法打开源文件");
-            return;
+            if (mappedInput) {
+                channel = FileChannel.open(Paths.get(filename), StandardOpenOption.READ);
+            } else {
+                scanner = new Scanner(new File(filename).getAbsoluteFile());
+            }
+        } catch (IOException e) {
+            throw new IOException("无法打开源文件", e);
         }
 
-        try (
-                PrintWriter stdout = new PrintWriter(outputFilename);
-                PrintWriter stderr = new PrintWriter(outputErrorFile)
-        ) {
-            currentLine = 0;
-            while (scanner.hasNext()) {
-                currentLine++;
-                String next = scanner.nextLine();
-                for (int i = 0; i < next.length(); i++) {
-                    char c = next.charAt(i);
-                    processCharacter(c, stdout, stderr);
+        try (ErrorLog log = new ErrorLog(outputErrorFile, echoErrors)) {
+            errorLog = log;
+            if (pipe != null) {
+                lexPipelined(channel, scanner);
+            } else if (channel != null && lexThreads > 1 && channel.size() >= 2 * ParallelLexer.MIN_CHUNK_SIZE) {
+                lexParallel(channel);
+            } else {
+                tokens = new TokenStream();
+                if (channel != null) {
+                    lexMapped(channel, 0, channel.size());
+                    endLine();
+                } else {
+                    lexScanner(scanner);
                 }
-                processCharacter(' ', stdout, stderr);
-                writeSymbol("EOLN", EOLN, stdout);
+                tokens.finish(lineCount);
             }
-            writeSymbol("EOF ", EOF, stdout);
-
-            stdout.flush();
-            stderr.flush();
+        } catch (FileNotFoundException e) {
+            throw new IOException("创建文件失败", e);
         } catch (IOException e) {
-            programError("创建文件失败");
+            throw new IOException("读取源文件失败", e);
+        } finally {
+            closeQuietly(channel);
         }
-        if (errorCount > 0) {
-            System.err.println("***词法分析：失败。有" + errorCount + "个错误, 具体查看" + outputErrorFile + "文件");
-            System.exit(-1);
+        // 流水线模式下单词和dyd文件已经逐批写出
+        if (pipe == null && dydFormat == WordAnalyzerStarter.DYD_TEXT) {
+            dydWriter = DydWriter.start(tokens, outputFilename, false);
+        } else if (pipe == null && dydFormat == WordAnalyzerStarter.DYD_BINARY) {
+            dydWriter = DydWriter.start(tokens, outputBinaryFilename, true);
         }
+        return tokens;
     }
 
-    private void processCharacter(char c, PrintWriter stdout, PrintWriter stderr) {
-        switch (state) {
-            case 0:
-                if (isAlpha(c)) {
-                    state = 1;
-                    word.append(c);
-                } else if (Character.isDigit(c)) {
-                    state = 3;
-                    word.append(c);
-                } else if (c == '=') {
-                    state = 5;
-                    analyzeSymbol(c, stdout, stderr);
-                } else if (c == '-') {
-                    state = 6;
-                    analyzeSymbol(c, stdout, stderr);
-                } else if (c == '*') {
-                    state = 7;
-                    analyzeSymbol(c, stdout, stderr);
-                } else if (c == '(') {
-                    state = 8;
-                    analyzeSymbol(c, stdout, stderr);
-                } else if (c == ')') {
-                    state = 9;
-                    analyzeSymbol(c, stdout, stderr);
-                } else if (c == '<') {
-                    state = 10;
-                    word.append(c);
-                } else if (c == '>') {
-                    state = 14;
-                    word.append(c);
-                } else if (c == ':') {
-                    state = 17;
-                    word.append(c);
-                } else if (c == ';') {
-                    state = 20;
-                    analyzeSymbol(c, stdout, stderr);
-                } else if (Character.isWhitespace(c)) {
-                    analyzeSymbol(word.toString(), stdout, stderr);
-                } else {
-                    state = 21;
-                    word.append(c);
-                }
-                break;
-            case 1:
-                if (isAlpha(c) || Character.isDigit(c)) {
-                    state = 1;
-                    word.append(c);
-                } else {
-                    analyzeSymbol(word.toString(), stdout, stderr);
-                    if (!Character.isWhitespace(c)) {
-                        processCharacter(c, stdout, stderr);
-                    }
-                }
-                break;
-            case 2:
-                // error: illegal word
-                illegalSymbol(c, stdout, stderr);
-                break;
-            case 3:
-                if (!Character.isDigit(c)) {
-                    analyzeSymbol(word.toString(), stdout, stderr);
-                    if (!Character.isWhitespace(c)) {
-                        processCharacter(c, stdout, stderr);
-                    }
-                }
-                break;
-            case 4:
-                illegalSymbol(c, stdout, stderr);
-                break;
-            case 10:
-                if (c == '=') {
-                    state = 11;
-                    analyzeSymbol(word.append('=').toString(), stdout, stderr);
-                } else if (c == '>') {
-                    state = 12;
-                    analyzeSymbol(word.append('>').toString(), stdout, stderr);
-                }
-//                else if (operators.contains(c)) {
-//                    state = 13;
-//                    word.append(c);
-//                }
-                else {
-                    analyzeSymbol(word.toString(), stdout, stderr);
-                    if (!Character.isWhitespace(c)) {
-                        processCharacter(c, stdout, stderr);
-                    }
-                }
-                break;
-            case 14:
-                if (c == '=') {
-                    state = 15;
-                    analyzeSymbol(word.append('=').toString(), stdout, stderr);
-                }
-//                else if (operators.contains(c)) {
-//                    word.append(c);
-//                    state = 16;
-//                }
-                else {
-                    analyzeSymbol(word.toString(), stdout, stderr);
-                    if (!Character.isWhitespace(c)) {
-                        processCharacter(c, stdout, stderr);
-                    }
-                }
-                break;
-            case 13:
-            case 16:
-                if (operators.contains(c)) {
-                    word.append(c);
-                } else {
-                    writeError(String.format(ERROR_OPERATOR, word.toString()), stderr);
-                    word.delete(0, word.length());
-                    state = 0;
-                    if (!Character.isWhitespace(c)) {
-                        processCharacter(c, stdout, stderr);
-                    }
-                }
-                break;
-            case 17:
-                if (c == '=') {
-                    state = 18;
-                    analyzeSymbol(word.append('=').toString(), stdout, stderr);
+    int errorCount() {
+        return errorCount;
+    }
+
+    /**
+     * 等待run()在后台写出的dyd文件写完，写出失败时抛出IOException；没有在后台写出时直接返回
+     */
+    void awaitDyd() throws IOException {
+        if (dydWriter != null) {
+            dydWriter.await();
+        }
+    }
+
+    String errorFilename() {
+        return outputErrorFile;
+    }
+
+    /**
+     * 分析内存中的源程序，不读写文件，错误写入log。行的划分与读取文件时相同
+     */
+    TokenStream lex(CharSequence source, ErrorLog log) {
+        begin(log);
+        for (int i = 0, n = source.length(); i < n; i++) {
+            char c = source.charAt(i);
+            if (c == '\n') {
+                if (afterCarriageReturn) {
+                    afterCarriageReturn = false;
                 } else {
-                    state = 19;
-                    writeError(ERROR_COLON_NOT_MATCH, stderr);
-                    state = 0;
-                    if (!Character.isWhitespace(c)) {
-                        processCharacter(c, stdout, stderr);
-                    }
+                    endLine();
                 }
-                break;
-            case 21:
-                if (programSymbols.contains(c) || Character.isWhitespace(c)) {
-                    writeError(String.format(ERROR_ILLEGAL_SYMBOL, word.toString()), stderr);
-                    word.delete(0, word.length());
-                    state = 0;
-                    if (!Character.isWhitespace(c)) {
-                        processCharacter(c, stdout, stderr);
-                    }
+            } else if (c == '\r') {
+                endLine();
+                afterCarriageReturn = true;
+            } else {
+                afterCarriageReturn = false;
+                if (c == '\u0085' || c == '\u2028' || c == '\u2029') {
+                    endLine();
                 } else {
-                    word.append(c);
+                    lexChar(c);
                 }
-                break;
+            }
         }
+        return end();
+    }
+
+    /**
+     * 分析UTF-8编码的源程序[position, limit)，不改变source的位置
+     */
+    TokenStream lex(ByteBuffer source, ErrorLog log) {
+        begin(log);
+        ByteBuffer buffer = source.slice();
+        lexBytes(buffer, buffer.remaining(), true);
+        return end();
+    }
+
+    /**
+     * 按UTF-8映射读取源文件，不写出err、dyd文件
+     */
+    TokenStream lex(FileChannel channel, ErrorLog log) throws IOException {
+        begin(log);
+        lexMapped(channel, 0, channel.size());
+        return end();
+    }
+
+    /**
+     * 清除上一次分析的状态，同一个分析器可以反复使用
+     */
+    private void begin(ErrorLog log) {
+        errorLog = log;
+        errorCount = 0;
+        state = 0;
+        wordLength = 0;
+        tokens = new TokenStream();
+        currentLine = 1;
+        currentColumn = 0;
+        lineCount = 0;
+        afterCarriageReturn = false;
     }
 
-    private void illegalSymbol(char c, PrintWriter stdout, PrintWriter stderr) {
-        if (wordBackSymbol.contains(c) || Character.isWhitespace(c)) {
-            writeError(String.format(ERROR_ILLEGAL_SYMBOL, word.toString()), stderr);
-            word.delete(0, word.length());
-            state = 0;
-            if (wordBackSymbol.contains(c)) {
-                processCharacter(c, stdout, stderr);
+    private TokenStream end() {
+        endLine();
+        tokens.finish(lineCount);
+        return tokens;
+    }
+
+    private void lexPipelined(FileChannel channel, Scanner scanner) throws IOException {
+        try (TableWriter dyd = dydFormat == WordAnalyzerStarter.DYD_TEXT ? new TableWriter(outputFilename) : null) {
+            dydOut = dyd;
+            dydLine = 1;
+            batchLimit = pipe.batchSize();
+            tokens = pipe.claim();
+            if (channel != null) {
+                lexMapped(channel, 0, channel.size());
+                endLine();
+            } else {
+                lexScanner(scanner);
             }
-        } else {
-            word.append(c);
+            publishBatch();
+            if (dyd != null) {
+                TokenStream.writeDydEnd(dyd, dydLine, lineCount);
+            }
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
         }
     }
 
-    private void analyzeSymbol(char c, PrintWriter stdout, PrintWriter stderr) {
-        int type = -1;
-        switch (c) {
-            case '=':
-                type = EQUAL;
-                break;
-            case '<':
-                type = LESS;
-                break;
-            case '>':
-                type = GREATER;
-                break;
-            case '-':
-                type = SUBTRACT;
-                break;
-            case '*':
-                type = MULTIPLY;
-                break;
-            case '(':
-                type = BRACKET_LEFT;
-                break;
-            case ')':
-                type = BRACKET_RIGHT;
-                break;
-            case ';':
-                type = SEMICOLON;
-                break;
+    private void nextBatch() {
+        publishBatch();
+        tokens = pipe.claim();
+    }
+
+    private void publishBatch() {
+        if (tokens.size() == 0) {
+            return;
         }
-        if (type == -1) {
-            writeError(String.format(ERROR_ILLEGAL_SYMBOL, String.valueOf(c)), stderr);
-        } else {
-            writeSymbol(c, type, stdout);
+        if (dydOut != null) {
+            try {
+                dydLine = tokens.writeDyd(dydOut, dydLine);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
         }
-        state = 0;
+        pipe.publish();
     }
 
-    private void analyzeSymbol(String symbol, PrintWriter stdout, PrintWriter stderr) {
-        try {
-            if (symbol.isEmpty()) {
-                state = 0;
-                return;
-            } else if (symbol.length() >= 16) {
-                if (state == 3) {
-                    writeError(String.format(ERROR_NUMBER_TOO_LONG, symbol), stderr);
+    private void lexScanner(Scanner scanner) {
+        currentLine = 0;
+        while (scanner.hasNext()) {
+            currentLine++;
+            String next = scanner.nextLine();
+            for (int i = 0; i < next.length(); i++) {
+                currentColumn = i + 1;
+                processCharacter(next.charAt(i));
+            }
+            currentColumn = next.length() + 1;
+            processCharacter(' ');
+        }
+        lineCount = currentLine;
+    }
+
+    private void lexParallel(FileChannel channel) throws IOException {
+        long[] bounds = ParallelLexer.split(channel, lexThreads);
+        WordAnalyzer[] chunks = ParallelLexer.lex(channel, bounds, lexThreads);
+        TokenStream[] parts = new TokenStream[chunks.length];
+        int[] lineOffsets = new int[chunks.length];
+        int lineOffset = 0;
+        lineCount = 0;
+        for (int k = 0; k < chunks.length; k++) {
+            WordAnalyzer chunk = chunks[k];
+            parts[k] = chunk.tokens;
+            lineOffsets[k] = lineOffset;
+            for (int i = 0; i < chunk.errorReasons.size(); i++) {
+                writeError(lineOffset + chunk.errorLines[i], chunk.errorReasons.get(i));
+            }
+            if (chunk.lineCount > 0) {
+                lineCount = lineOffset + chunk.lineCount;
+            }
+            lineOffset += chunk.chunkLines;
+        }
+        tokens = TokenStream.concat(parts, lineOffsets, lineCount);
+    }
+
+    /**
+     * 分析源文件[start, end)这一块，行号从1开始。除最后一块外，块总是在换行符之后结束
+     */
+    void lexChunk(FileChannel channel, long start, long end) throws IOException {
+        tokens = new TokenStream();
+        lexMapped(channel, start, end);
+        chunkLines = currentLine - 1;
+        endLine();
+        tokens.finish(lineCount);
+    }
+
+    /**
+     * 按窗口映射源文件，直接从字节解码(ASCII/UTF-8)送入状态机，不经过Scanner和String。
+     * 行的划分与Scanner.nextLine()相同，末尾只含空白的行也同样不计入行数。
+     */
+    private void lexMapped(FileChannel channel, long start, long end) throws IOException {
+        long position = start;
+        currentLine = 1;
+        currentColumn = 0;
+        lineCount = 0;
+        afterCarriageReturn = false;
+        while (position < end) {
+            int length = (int) Math.min(end - position, MAPPED_WINDOW);
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, position, length);
+            position += lexBytes(buffer, length, position + length == end);
+        }
+    }
+
+    /**
+     * 处理buffer[0, limit)中的字节，返回处理掉的字节数；
+     * 不是输入末尾时，末尾不完整的UTF-8序列留给下一个窗口
+     */
+    private int lexBytes(ByteBuffer buffer, int limit, boolean endOfInput) {
+        int i = 0;
+        while (i < limit) {
+            int b = buffer.get(i);
+            if (b >= 0) {
+                i++;
+                if (b == '\n') {
+                    if (afterCarriageReturn) {
+                        afterCarriageReturn = false;
+                    } else {
+                        endLine();
+                    }
+                } else if (b == '\r') {
+                    endLine();
+                    afterCarriageReturn = true;
                 } else {
-                    writeError(String.format(ERROR_SYMBOL_TOO_LONG, symbol), stderr);
+                    afterCarriageReturn = false;
+                    lexChar((char) b);
                 }
-                state = 0;
-                return;
+                continue;
+            }
+            if (!endOfInput && i + utf8Length(b) > limit) {
+                break;
+            }
+            afterCarriageReturn = false;
+            int decoded = decodeUtf8(buffer, i, limit);
+            i += decoded >>> 24;
+            int codePoint = decoded & 0xffffff;
+            if (codePoint == '\u0085' || codePoint == '\u2028' || codePoint == '\u2029') {
+                endLine();
+            } else if (codePoint >= Character.MIN_SUPPLEMENTARY_CODE_POINT) {
+                lexChar(Character.highSurrogate(codePoint));
+                lexChar(Character.lowSurrogate(codePoint));
+            } else {
+                lexChar((char) codePoint);
             }
+        }
+        return i;
+    }
+
+    private void lexChar(char c) {
+        currentColumn++;
+        if (CHAR_CLASS[c] != C_SPACE) {
+            lineCount = currentLine;
+        }
+        processCharacter(c);
+    }
 
-            switch (state) {
-                case 1:
-                    int type;
-                    switch (symbol) {
-                        case "begin":
-                            type = BEGIN;
-                            break;
-                        case "end":
-                            type = END;
-                            break;
-                        case "integer":
-                            type = INTEGER;
-                            break;
-                        case "if":
-                            type = IF;
-                            break;
-                        case "then":
-                            type = THEN;
-                            break;
-                        case "else":
-                            type = ELSE;
-                            break;
-                        case "function":
-                            type = FUNCTION;
-                            break;
-                        case "read":
-                            type = READ;
-                            break;
-                        case "write":
-                            type = WRITE;
-                            break;
-                        default:
-                            type = IDENTIFIER;
-                            break;
+    private void endLine() {
+        currentColumn++;
+        processCharacter(' ');
+        currentLine++;
+        currentColumn = 0;
+    }
+
+    private static int utf8Length(int lead) {
+        lead &= 0xff;
+        return lead >= 0xf8 ? 1 : lead >= 0xf0 ? 4 : lead >= 0xe0 ? 3 : lead >= 0xc0 ? 2 : 1;
+    }
+
+    /**
+     * 解码从index开始的一个UTF-8序列，返回 字节数 << 24 | 码点；非法序列按一个字节解码为U+FFFD
+     */
+    private static int decodeUtf8(ByteBuffer buffer, int index, int limit) {
+        int b0 = buffer.get(index) & 0xff;
+        int length = utf8Length(b0);
+        if (length > 1 && index + length <= limit) {
+            int codePoint = b0 & (0x7f >> length);
+            for (int k = 1; k < length; k++) {
+                int b = buffer.get(index + k) & 0xff;
+                if ((b & 0xc0) != 0x80) {
+                    return 1 << 24 | 0xfffd;
+                }
+                codePoint = codePoint << 6 | (b & 0x3f);
+            }
+            int min = length == 2 ? 0x80 : length == 3 ? 0x800 : 0x10000;
+            if (codePoint >= min && codePoint <= Character.MAX_CODE_POINT
+                    && !(codePoint >= Character.MIN_SURROGATE && codePoint <= Character.MAX_SURROGATE)) {
+                return length << 24 | codePoint;
+            }
+        }
+        return 1 << 24 | 0xfffd;
+    }
+
+    private static void closeQuietly(Closeable closeable) {
+        if (closeable != null) {
+            try {
+                closeable.close();
+            } catch (IOException ignored) {
+            }
+        }
+    }
+
+    private void processCharacter(char c) {
+        int cls = CHAR_CLASS[c];
+        while (true) {
+            if (wordLength == 0) {
+                wordColumn = currentColumn;
+            }
+            int entry = TRANSITIONS[state][cls];
+            switch (entry >>> 16) {
+                case A_APPEND:
+                    append(c);
+                    state = entry & 0xff;
+                    return;
+                case A_SKIP:
+                    return;
+                case A_EMIT_CHAR:
+                    tokens.add(c, (entry >>> 8) & 0xff, currentLine, wordColumn);
+                    if (tokens.size() >= batchLimit) {
+                        nextBatch();
                     }
-                    writeSymbol(symbol, type, stdout);
-                    break;
-                case 3:
-                    writeSymbol(symbol, CONSTANT, stdout);
-                    break;
-                case 10:
-                    writeSymbol(symbol, LESS, stdout);
-                    break;
-                case 11:
-                    writeSymbol(symbol, LESS_EQUAL, stdout);
-                    break;
-                case 12:
-                    writeSymbol(symbol, NOT_EQUAL, stdout);
-                    break;
-                case 14:
-                    writeSymbol(symbol, GREATER, stdout);
-                    break;
-                case 15:
-                    writeSymbol(symbol, GREATER_EQUAL, stdout);
+                    state = 0;
+                    return;
+                case A_EMIT_PAIR:
+                    append(c);
+                    emitWord((entry >>> 8) & 0xff);
+                    return;
+                case A_EMIT_RETRY:
+                    emitWord((entry >>> 8) & 0xff);
                     break;
-                case 18:
-                    writeSymbol(symbol, ASSIGN, stdout);
+                case A_ILLEGAL_RETRY:
+                    writeError(String.format(ERROR_ILLEGAL_SYMBOL, new String(word, 0, wordLength)));
+                    wordLength = 0;
+                    state = 0;
                     break;
-                case 20:
-                    writeSymbol(symbol, SEMICOLON, stdout);
+                case A_COLON_RETRY:
+                    writeError(ERROR_COLON_NOT_MATCH);
+                    wordLength = 0;
+                    state = 0;
                     break;
             }
-
-            state = 0;
-
-        } finally {
-            word.delete(0, word.length());
         }
     }
 
-    private void writeSymbol(char symbol, int type, PrintWriter stdout) {
-        stdout.println(String.format("%16c %2d", symbol, type));
+    private void append(char c) {
+        if (wordLength == word.length) {
+            word = Arrays.copyOf(word, wordLength << 1);
+        }
+        word[wordLength++] = c;
     }
 
-    private void writeSymbol(String symbol, int type, PrintWriter stdout) {
-        stdout.println(String.format("%16s %2d", symbol, type));
+    private void emitWord(int type) {
+        if (wordLength >= MAX_WORD_LENGTH) {
+            String symbol = new String(word, 0, wordLength);
+            writeError(String.format(state == 3 ? ERROR_NUMBER_TOO_LONG : ERROR_SYMBOL_TOO_LONG, symbol));
+        } else if (type == IDENTIFIER) {
+            type = keywordType(word, wordLength);
+            int symbol = type == IDENTIFIER ? tokens.symbolTable().intern(word, 0, wordLength) : -1;
+            tokens.add(word, wordLength, type, symbol, currentLine, wordColumn);
+        } else {
+            tokens.add(word, wordLength, type, -1, currentLine, wordColumn);
+        }
+        if (tokens.size() >= batchLimit) {
+            nextBatch();
+        }
+        wordLength = 0;
+        state = 0;
     }
 
-    private void writeError(String reason, PrintWriter stderr) {
-        errorCount++;
-        String s = String.format("***LINE:%d  %s", currentLine, reason);
-        System.err.println(s);
-        stderr.println(s);
+    /**
+     * 关键字的完美哈希：(首字符 + 末字符) & 15 在九个关键字上互不相同
+     */
+    private static int keywordType(char[] word, int length) {
+        int hash = (word[0] + word[length - 1]) & 15;
+        char[] keyword = KEYWORDS[hash];
+        if (keyword == null || keyword.length != length) {
+            return IDENTIFIER;
+        }
+        for (int i = 0; i < length; i++) {
+            if (keyword[i] != word[i]) {
+                return IDENTIFIER;
+            }
+        }
+        return KEYWORD_TYPES[hash];
     }
 
-    private boolean isAlpha(char c) {
-        return ('a' <= c && c <= 'z') || ('A' <= c && c <= 'Z');
+    private void writeError(String reason) {
+        writeError(currentLine, reason);
     }
 
+    private void writeError(int line, String reason) {
+        errorCount++;
+        if (errorLog == null) {
+            if (errorReasons.size() == errorLines.length) {
+                errorLines = Arrays.copyOf(errorLines, errorLines.length << 1);
+            }
+            errorLines[errorReasons.size()] = line;
+            errorReasons.add(reason);
+            return;
+        }
+        errorLog.error(line, reason);
+    }
 }
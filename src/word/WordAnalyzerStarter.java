@@ -1,15 +1,110 @@
 package word;
 
+import java.io.IOException;
+
 public class WordAnalyzerStarter {
+    // 读取源文件的方式
+    public static final int INPUT_AUTO = 0;
+    public static final int INPUT_SCANNER = 1;
+    public static final int INPUT_MAPPED = 2;
+    // dyd文件格式
+    public static final int DYD_NONE = 0;
+    public static final int DYD_TEXT = 1;
+    public static final int DYD_BINARY = 2;
+
+    // analyze()返回时还在后台写出dyd文件的词法分析器
+    private static WordAnalyzer pendingDyd;
+
     public static void main(String... args) {
         if (args.length < 1) {
             System.err.println("请将源文件路径传入命令行参数！");
             return;
         }
 
-        WordAnalyzer wordAnalyzer = new WordAnalyzer(args[0]);
-        System.out.println("***词法分析：" + args[0]);
-        wordAnalyzer.run();
+        analyze(args[0], DYD_TEXT, INPUT_AUTO, 1, true);
+        awaitDyd();
+    }
+
+    /**
+     * 词法分析，结果直接返回给语法分析；dydFormat不是DYD_NONE时在后台额外写出dyd文件。
+     * lexThreads大于1时并行分析(只对mapped方式读取的大文件生效)；echoErrors为false时错误只写入err文件
+     */
+    public static TokenStream analyze(String filename, int dydFormat, int inputMode, int lexThreads, boolean echoErrors) {
+        WordAnalyzer wordAnalyzer = new WordAnalyzer(filename);
+        wordAnalyzer.setDydFormat(dydFormat);
+        wordAnalyzer.setLexThreads(lexThreads);
+        wordAnalyzer.setEchoErrors(echoErrors);
+        if (inputMode != INPUT_AUTO) {
+            wordAnalyzer.setMappedInput(inputMode == INPUT_MAPPED);
+        }
+        System.out.println("***词法分析：" + filename);
+        TokenStream tokens;
+        try {
+            tokens = wordAnalyzer.run();
+        } catch (IOException e) {
+            exit(e.getMessage());
+            return null;
+        }
+        exitIfFailed(wordAnalyzer);
+        pendingDyd = wordAnalyzer;
         System.out.println("***词法分析完成");
+        return tokens;
+    }
+
+    /**
+     * 等待analyze()在后台写出的dyd文件写完，写出失败时退出
+     */
+    public static void awaitDyd() {
+        if (pendingDyd == null) {
+            return;
+        }
+        try {
+            pendingDyd.awaitDyd();
+        } catch (IOException e) {
+            exit(e.getMessage());
+        }
+        pendingDyd = null;
+    }
+
+    /**
+     * 流水线模式：返回的通道在start()后于后台线程进行词法分析，单词逐批交给语法分析，内存占用与源文件大小无关。
+     * dydFormat只能是DYD_NONE或DYD_TEXT，二进制格式要在文件头写出完整的标识符池，无法逐批写出
+     */
+    public static TokenPipe pipeline(String filename, int dydFormat, int inputMode, boolean echoErrors) {
+        if (dydFormat == DYD_BINARY) {
+            throw new IllegalArgumentException("流水线模式不支持二进制dyd文件");
+        }
+        final WordAnalyzer wordAnalyzer = new WordAnalyzer(filename);
+        wordAnalyzer.setDydFormat(dydFormat);
+        wordAnalyzer.setEchoErrors(echoErrors);
+        if (inputMode != INPUT_AUTO) {
+            wordAnalyzer.setMappedInput(inputMode == INPUT_MAPPED);
+        }
+        final TokenPipe pipe = new TokenPipe(TokenPipe.DEFAULT_BATCH_SIZE, TokenPipe.DEFAULT_CAPACITY);
+        pipe.setTask(() -> {
+            try {
+                wordAnalyzer.runPipelined(pipe);
+            } catch (IOException e) {
+                exit(e.getMessage());
+            }
+            exitIfFailed(wordAnalyzer);
+            System.out.println("***词法分析完成");
+            // 没有词法错误才让语法分析读到结尾，语法分析在这之后才写err文件
+            pipe.close();
+        });
+        System.out.println("***词法分析：" + filename);
+        return pipe;
+    }
+
+    private static void exitIfFailed(WordAnalyzer wordAnalyzer) {
+        if (wordAnalyzer.errorCount() > 0) {
+            exit("***词法分析：失败。有" + wordAnalyzer.errorCount() + "个错误, 具体查看"
+                    + wordAnalyzer.errorFilename() + "文件");
+        }
+    }
+
+    private static void exit(String reason) {
+        System.err.println(reason);
+        System.exit(-1);
     }
 }